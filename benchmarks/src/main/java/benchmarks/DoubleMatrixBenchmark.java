@@ -0,0 +1,25 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * The MatrixBenchmark operations on all-double (dense) matrices, from 4 x 4 up to
+ * 1000 x 1000
+ */
+public class DoubleMatrixBenchmark extends MatrixBenchmark
+{
+    @Param({ "4", "16", "64", "256", "1000" })
+    public int size;
+
+    @Override
+    protected RandomMatrices.ElementType elementType()
+    {
+        return RandomMatrices.ElementType.DOUBLE;
+    }
+
+    @Override
+    protected int matrixSize()
+    {
+        return size;
+    }
+}
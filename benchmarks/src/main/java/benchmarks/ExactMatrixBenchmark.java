@@ -0,0 +1,30 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * The MatrixBenchmark operations on matrices with Rational entries (and, for
+ * MIXED, doubles). Exact elimination gets slower much faster than O(n^3) as the
+ * entries grow - a 64 x 64 matrix of fractions already takes seconds to reduce -
+ * so the default sizes stop at 32 x 32; pass eg -p size=64,256,1000 to go further.
+ */
+public class ExactMatrixBenchmark extends MatrixBenchmark
+{
+    @Param({ "INTEGER", "RATIONAL", "MIXED" })
+    public RandomMatrices.ElementType type;
+
+    @Param({ "4", "16", "32" })
+    public int size;
+
+    @Override
+    protected RandomMatrices.ElementType elementType()
+    {
+        return type;
+    }
+
+    @Override
+    protected int matrixSize()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+/**
+ * Handles on the parts of the library being measured. The library lives in the
+ * default package, which cannot be imported, and JMH will not generate code for
+ * benchmarks in the default package, so the benchmarks reach it through method
+ * handles instead. The handles are static finals, so the JIT inlines them like
+ * ordinary calls. Every handle takes and returns Objects.
+ */
+final class Library
+{
+    /** new Matrix(String) */
+    static final MethodHandle NEW_MATRIX;
+    /** Matrix.clone() */
+    static final MethodHandle CLONE;
+    /** Matrix.add(Matrix) */
+    static final MethodHandle ADD;
+    /** Matrix.multiply(Matrix) */
+    static final MethodHandle MULTIPLY;
+    /** MatrixMath.rref(Matrix) */
+    static final MethodHandle RREF;
+    /** MatrixMath.identity(Matrix) */
+    static final MethodHandle IDENTITY;
+    /** new Matrix2(String, String) */
+    static final MethodHandle NEW_MATRIX2;
+    /** new Matrix2(ArrayList, int, int, String) */
+    static final MethodHandle WRAP_MATRIX2;
+    /** Matrix2.getMatrix() */
+    static final MethodHandle MATRIX2_ROWS;
+    /** Matrix2.rref(boolean) */
+    static final MethodHandle MATRIX2_RREF;
+
+    static
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> matrix = Class.forName("Matrix");
+            Class<?> matrixMath = Class.forName("MatrixMath");
+            Class<?> matrix2 = Class.forName("Matrix2");
+
+            NEW_MATRIX = lookup.findConstructor(matrix, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            CLONE = lookup.findVirtual(matrix, "clone", MethodType.methodType(matrix))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            ADD = lookup.findVirtual(matrix, "add", MethodType.methodType(void.class, matrix))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            MULTIPLY = lookup.findVirtual(matrix, "multiply", MethodType.methodType(void.class, matrix))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            RREF = lookup.findStatic(matrixMath, "rref", MethodType.methodType(matrix, matrix))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            IDENTITY = lookup.findStatic(matrixMath, "identity", MethodType.methodType(matrix, matrix))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            NEW_MATRIX2 = lookup.findConstructor(matrix2,
+                    MethodType.methodType(void.class, String.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class, String.class));
+            WRAP_MATRIX2 = lookup.findConstructor(matrix2,
+                    MethodType.methodType(void.class, ArrayList.class, int.class, int.class, String.class))
+                    .asType(MethodType.methodType(Object.class, ArrayList.class, int.class, int.class, String.class));
+            MATRIX2_ROWS = lookup.findVirtual(matrix2, "getMatrix", MethodType.methodType(ArrayList.class))
+                    .asType(MethodType.methodType(ArrayList.class, Object.class));
+            MATRIX2_RREF = lookup.findVirtual(matrix2, "rref", MethodType.methodType(void.class, boolean.class))
+                    .asType(MethodType.methodType(void.class, Object.class, boolean.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Library()
+    {
+    }
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matrix2.rref, the older all-Rational implementation, on seeded random matrices.
+ * Matrix2 only parses integers and fractions, so there are no double or mixed
+ * matrices here, and the default sizes stop at 32 x 32 for the same reason as
+ * ExactMatrixBenchmark. Matrix2.rref reduces in place, so each call gets a fresh copy of
+ * the rows; copyOnly measures that copy on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Matrix2Benchmark
+{
+    @Param({ "INTEGER", "RATIONAL" })
+    public RandomMatrices.ElementType type;
+
+    @Param({ "4", "16", "32" })
+    public int size;
+
+    /** The rows of the matrix to reduce, an ArrayList<Rational[]> */
+    private ArrayList<?> rows;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        Object matrix = (Object) Library.NEW_MATRIX2.invokeExact(RandomMatrices.generate(type, size, 0), "");
+        rows = (ArrayList<?>) Library.MATRIX2_ROWS.invokeExact(matrix);
+    }
+
+    @Benchmark
+    public Object copyOnly() throws Throwable
+    {
+        return copy();
+    }
+
+    @Benchmark
+    public Object rref() throws Throwable
+    {
+        Object matrix = copy();
+        Library.MATRIX2_RREF.invokeExact(matrix, false);
+        return matrix;
+    }
+
+    /** @return a new Matrix2 with its own copy of the rows (Rationals are never changed, so they are shared) */
+    private Object copy() throws Throwable
+    {
+        ArrayList<Object> copy = new ArrayList<>(rows.size());
+        for (Object row : rows)
+        {
+            // clone keeps the array's runtime type, Rational[]
+            copy.add(((Object[]) row).clone());
+        }
+        return (Object) Library.WRAP_MATRIX2.invokeExact(copy, size, size, "");
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Matrix and MatrixMath operations, measured on a pair of seeded random
+ * square matrices. Subclasses choose the element types and sizes.
+ *
+ * rref, add and multiply change the matrix they are given, so each of them works
+ * on a fresh clone; cloneOnly measures that clone on its own, so it can be
+ * subtracted out. identity leaves its argument alone and needs no clone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class MatrixBenchmark
+{
+    /** The left operand, a Matrix */
+    private Object left;
+    /** The right operand, a Matrix */
+    private Object right;
+
+    /** @return the kind of entries to generate */
+    protected abstract RandomMatrices.ElementType elementType();
+
+    /** @return the number of rows and columns to generate */
+    protected abstract int matrixSize();
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        left = (Object) Library.NEW_MATRIX.invokeExact(RandomMatrices.generate(elementType(), matrixSize(), 0));
+        right = (Object) Library.NEW_MATRIX.invokeExact(RandomMatrices.generate(elementType(), matrixSize(), 1));
+    }
+
+    @Benchmark
+    public Object cloneOnly() throws Throwable
+    {
+        return (Object) Library.CLONE.invokeExact(left);
+    }
+
+    @Benchmark
+    public Object rref() throws Throwable
+    {
+        Object copy = (Object) Library.CLONE.invokeExact(left);
+        return (Object) Library.RREF.invokeExact(copy);
+    }
+
+    @Benchmark
+    public Object identity() throws Throwable
+    {
+        return (Object) Library.IDENTITY.invokeExact(left);
+    }
+
+    @Benchmark
+    public Object add() throws Throwable
+    {
+        Object copy = (Object) Library.CLONE.invokeExact(left);
+        Library.ADD.invokeExact(copy, right);
+        return copy;
+    }
+
+    @Benchmark
+    public Object multiply() throws Throwable
+    {
+        Object copy = (Object) Library.CLONE.invokeExact(left);
+        Library.MULTIPLY.invokeExact(copy, right);
+        return copy;
+    }
+}
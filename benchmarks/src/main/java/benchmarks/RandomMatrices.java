@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * Seeded random matrices, written out in the library's string format (rows split
+ * by ';', entries by ',') so that they are parsed - and so stored - exactly as a
+ * user's matrices would be. Every matrix is strictly diagonally dominant, which
+ * keeps it invertible: identity never throws, and rref always does the full
+ * amount of work.
+ */
+public final class RandomMatrices
+{
+    /** The seed every matrix is generated from, so that runs are comparable */
+    static final long SEED = 20261018L;
+
+    /**
+     * The kinds of entries a matrix can have
+     */
+    public enum ElementType
+    {
+        /** small integers, stored as Rationals */
+        INTEGER,
+        /** small fractions, stored as Rationals */
+        RATIONAL,
+        /** decimals, stored as doubles (so the matrix is dense) */
+        DOUBLE,
+        /** a coin flip between a small integer and a decimal */
+        MIXED;
+    }
+
+    private RandomMatrices()
+    {
+    }
+
+    /**
+     * @param type the kind of entries
+     * @param size the number of rows and columns
+     * @param stream picks a different matrix with the same seed, eg for the right operand
+     * @return a size x size matrix, as a string
+     */
+    static String generate(ElementType type, int size, int stream)
+    {
+        Random random = new Random(SEED + 31L * stream + size);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; ++i)
+        {
+            if (i > 0)
+                builder.append(';');
+            for (int j = 0; j < size; ++j)
+            {
+                if (j > 0)
+                    builder.append(',');
+                // off-diagonal entries are in (-10, 10), so a diagonal of 10 * size dominates
+                int whole = i == j ? 10 * size : random.nextInt(19) - 9;
+                appendEntry(builder, type, whole, random);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendEntry(StringBuilder builder, ElementType type, int whole, Random random)
+    {
+        switch (type)
+        {
+            case INTEGER:
+                builder.append(whole);
+                break;
+            case RATIONAL:
+                // numerator / denominator stays within one of whole
+                int denominator = 1 + random.nextInt(9);
+                builder.append(whole * denominator + random.nextInt(denominator)).append('/').append(denominator);
+                break;
+            case DOUBLE:
+                builder.append(whole + random.nextInt(1000) / 1000.0);
+                break;
+            case MIXED:
+                if (random.nextBoolean())
+                    builder.append(whole);
+                else
+                    builder.append(whole + random.nextInt(1000) / 1000.0);
+                break;
+        }
+    }
+}
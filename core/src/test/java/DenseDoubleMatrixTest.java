@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Whether a pivot counts as zero has to depend on the scale of its column, not
+ * on one cutoff for every matrix
+ */
+class DenseDoubleMatrixTest
+{
+    private static Matrix dense(int rows, int columns, double... entries)
+    {
+        return new Matrix(new DenseDoubleMatrix(entries, rows, columns));
+    }
+
+    @Test
+    void smallPivotsAreKept() throws MatrixException
+    {
+        Matrix diagonal = dense(2, 2, 1e-11, 0, 0, 1e11);
+        assertEquals(2, MatrixMath.rank(diagonal));
+        assertEquals(1.0, MatrixMath.determinant(diagonal).doubleValue(), 1e-12);
+        assertEquals(1.0, MatrixMath.rref(dense(1, 1, 1e-12)).getMatrix().get(0)[0].doubleValue());
+        assertEquals(1e12, MatrixMath.identity(dense(2, 2, 1e-12, 0, 0, 1e-12)).getMatrix().get(1)[1].doubleValue(), 1.0);
+    }
+
+    @Test
+    void roundingIsStillZero() throws MatrixException
+    {
+        Matrix singular = dense(3, 3, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        assertEquals(2, MatrixMath.rank(singular));
+        assertEquals(2, MatrixMath.rank(dense(3, 3, 1e-20, 2e-20, 3e-20, 4e-20, 5e-20, 6e-20, 7e-20, 8e-20, 9e-20)));
+        assertEquals(0.0, MatrixMath.rref(singular).getMatrix().get(2)[2].doubleValue());
+    }
+}
@@ -0,0 +1,50 @@
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * DixonSolver's answers must satisfy A * x = b exactly
+ */
+class DixonSolverTest
+{
+    @Test
+    void solvesExactly() throws MatrixException
+    {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 30; ++trial)
+        {
+            int n = 1 + random.nextInt(8);
+            Matrix a = TestMatrices.rational(random, n, n);
+            if (BareissElimination.determinant(a).signum() == 0)
+                continue;
+            Matrix b = TestMatrices.rational(random, n, 1 + random.nextInt(3));
+            Matrix x = new DixonSolver(a).solve(b);
+            TestMatrices.assertExact(x);
+            TestMatrices.assertSameValues(b, TestMatrices.naiveMultiply(a, x));
+        }
+    }
+
+    @Test
+    void acceptsDoubles() throws MatrixException
+    {
+        Random random = new Random(6);
+        Matrix a = TestMatrices.mixed(random, 4, 4);
+        if (BareissElimination.determinant(a).signum() == 0)
+            return;
+        Matrix b = TestMatrices.dense(random, 4, 1);
+        Matrix x = new DixonSolver(a).solve(b);
+        TestMatrices.assertSameValues(b, TestMatrices.naiveMultiply(a, x));
+    }
+
+    @Test
+    void singularMatrixIsReported() throws MatrixException
+    {
+        Matrix a = TestMatrices.singular(TestMatrices.rational(new Random(7), 3, 3));
+        DixonSolver solver = new DixonSolver(a);
+        assertTrue(solver.isSingular());
+        assertThrows(MatrixException.class, () -> solver.solve(TestMatrices.rational(new Random(8), 3, 1)));
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The exact engines - Gauss-Jordan over the rationals, Bareiss and multi-modular
+ * - must agree exactly on every rref, rank, determinant and inverse
+ */
+class ExactEnginesTest
+{
+    private static final MatrixMath.Engine[] EXACT = {
+        MatrixMath.Engine.BAREISS, MatrixMath.Engine.MULTI_MODULAR };
+
+    @Test
+    void rrefAgreesAcrossEngines()
+    {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 60; ++trial)
+        {
+            Matrix matrix = TestMatrices.rational(random, 1 + random.nextInt(6), 1 + random.nextInt(6));
+            if (trial % 3 == 0 && matrix.getRows() > 1)
+                matrix = TestMatrices.singular(matrix);
+            Matrix expected = MatrixMath.rref(matrix.clone(), MatrixMath.Engine.GAUSS_JORDAN);
+            TestMatrices.assertExact(expected);
+            for (MatrixMath.Engine engine : EXACT)
+            {
+                Matrix reduced = MatrixMath.rref(matrix, engine);
+                TestMatrices.assertExact(reduced);
+                TestMatrices.assertSameValues(expected, reduced);
+            }
+        }
+    }
+
+    @Test
+    void rankAndDeterminantAgreeAcrossEngines() throws MatrixException
+    {
+        Random random = new Random(2);
+        for (int trial = 0; trial < 60; ++trial)
+        {
+            int n = 1 + random.nextInt(6);
+            Matrix matrix = TestMatrices.rational(random, n, n);
+            if (trial % 3 == 0 && n > 1)
+                matrix = TestMatrices.singular(matrix);
+            int rank = BareissElimination.rank(matrix);
+            assertEquals(rank, MultiModularElimination.rank(matrix));
+            Rational determinant = BareissElimination.determinant(matrix);
+            assertEquals(determinant, MultiModularElimination.determinant(matrix));
+            assertEquals(rank == n, determinant.signum() != 0);
+        }
+    }
+
+    @Test
+    void inverseTimesMatrixIsIdentity() throws MatrixException
+    {
+        Random random = new Random(3);
+        for (int trial = 0; trial < 40; ++trial)
+        {
+            int n = 1 + random.nextInt(6);
+            Matrix matrix = TestMatrices.rational(random, n, n);
+            if (BareissElimination.determinant(matrix).signum() == 0)
+                continue;
+            Matrix expected = MatrixMath.identity(matrix);
+            TestMatrices.assertSameValues(TestMatrices.identity(n), TestMatrices.naiveMultiply(expected, matrix));
+            for (MatrixMath.Engine engine : EXACT)
+            {
+                TestMatrices.assertSameValues(expected, MatrixMath.identity(matrix, engine));
+            }
+        }
+    }
+
+    @Test
+    void singularMatricesHaveNoInverse()
+    {
+        Matrix matrix = TestMatrices.singular(TestMatrices.rational(new Random(4), 4, 4));
+        assertThrows(MatrixException.class, () -> MatrixMath.identity(matrix));
+        for (MatrixMath.Engine engine : EXACT)
+        {
+            assertThrows(MatrixException.class, () -> MatrixMath.identity(matrix, engine));
+        }
+    }
+
+    @Test
+    void entriesTooBigForLongsStayExact() throws MatrixException
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        rows.add(new Number[] { TestMatrices.big(100), Rational.of(1, 2) });
+        rows.add(new Number[] { Rational.of(3, 1), TestMatrices.big(90) });
+        Matrix matrix = new Matrix(rows);
+        Matrix inverse = MatrixMath.identity(matrix);
+        TestMatrices.assertSameValues(TestMatrices.identity(2), TestMatrices.naiveMultiply(inverse, matrix));
+        for (MatrixMath.Engine engine : EXACT)
+        {
+            TestMatrices.assertSameValues(inverse, MatrixMath.identity(matrix, engine));
+        }
+        assertEquals(BareissElimination.determinant(matrix), MultiModularElimination.determinant(matrix));
+    }
+}
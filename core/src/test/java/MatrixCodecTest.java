@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Matrices written by MatrixCodec must read back exactly, with the same kind of
+ * entries
+ */
+class MatrixCodecTest
+{
+    private static List<Matrix> roundTrip(List<Matrix> matrices) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MatrixCodec.Writer writer = new MatrixCodec.Writer(Channels.newChannel(bytes));
+        for (Matrix matrix : matrices)
+        {
+            writer.write(matrix);
+        }
+        writer.flush();
+        MatrixCodec.Reader reader = new MatrixCodec.Reader(
+                Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        List<Matrix> read = new ArrayList<>();
+        while (reader.hasNext())
+        {
+            read.add(reader.read());
+        }
+        return read;
+    }
+
+    @Test
+    void roundTripsEveryKindOfMatrix() throws IOException
+    {
+        Random random = new Random(9);
+        ArrayList<Number[]> bigRows = new ArrayList<>();
+        bigRows.add(new Number[] { TestMatrices.big(200), Rational.of(-7, 3), 0.25 });
+        List<Matrix> matrices = List.of(TestMatrices.dense(random, 3, 4), TestMatrices.rational(random, 5, 2),
+                TestMatrices.mixed(random, 2, 3), new Matrix(bigRows),
+                new Matrix(new DenseDoubleMatrix(new double[] { Double.NaN, -0.0, 1e-300, Double.MAX_VALUE }, 2, 2)));
+        List<Matrix> read = roundTrip(matrices);
+        assertEquals(matrices.size(), read.size());
+        for (int k = 0; k < matrices.size(); ++k)
+        {
+            Matrix expected = matrices.get(k);
+            Matrix actual = read.get(k);
+            assertEquals(expected.isDense(), actual.isDense());
+            assertEquals(expected.getRows(), actual.getRows());
+            assertEquals(expected.getColumns(), actual.getColumns());
+            ArrayList<Number[]> e = expected.getMatrix();
+            ArrayList<Number[]> a = actual.getMatrix();
+            for (int i = 0; i < expected.getRows(); ++i)
+            {
+                for (int j = 0; j < expected.getColumns(); ++j)
+                {
+                    // equals on the boxed values also checks the kind, and tells -0.0 from 0.0
+                    assertEquals(e.get(i)[j], a.get(i)[j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void emptyStreamHasNothingToRead() throws IOException
+    {
+        assertTrue(roundTrip(List.of()).isEmpty());
+        assertFalse(new MatrixCodec.Reader(Channels.newChannel(new ByteArrayInputStream(new byte[0]))).hasNext());
+    }
+
+    @Test
+    void zeroDenominatorIsDamage() throws IOException
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        rows.add(new Number[] { Rational.of(1, 3) });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MatrixCodec.Writer writer = new MatrixCodec.Writer(Channels.newChannel(bytes));
+        writer.write(new Matrix(rows));
+        writer.flush();
+        byte[] encoded = bytes.toByteArray();
+        // the matrix ends with the fraction's denominator, a one-byte varint
+        assertEquals(3, encoded[encoded.length - 1]);
+        encoded[encoded.length - 1] = 0;
+        MatrixCodec.Reader reader = new MatrixCodec.Reader(Channels.newChannel(new ByteArrayInputStream(encoded)));
+        assertThrows(IOException.class, reader::read);
+    }
+}
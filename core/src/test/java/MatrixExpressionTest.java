@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * MatrixExpression's planned, fused evaluation must give what evaluating the same
+ * formula naively, one step at a time, gives
+ */
+class MatrixExpressionTest
+{
+    private static Matrix naiveAdd(Matrix a, Matrix b) throws MatrixException
+    {
+        Matrix sum = a.clone();
+        sum.add(b);
+        return sum;
+    }
+
+    private static Matrix naiveScale(Matrix a, Rational factor)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        for (Number[] row : a.getMatrix())
+        {
+            Number[] scaled = new Number[row.length];
+            for (int j = 0; j < row.length; ++j)
+            {
+                scaled[j] = TestMatrices.exact(row[j]).times(factor);
+            }
+            rows.add(scaled);
+        }
+        return new Matrix(rows);
+    }
+
+    private static Matrix naiveTranspose(Matrix a)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        ArrayList<Number[]> source = a.getMatrix();
+        for (int j = 0; j < a.getColumns(); ++j)
+        {
+            Number[] row = new Number[a.getRows()];
+            for (int i = 0; i < a.getRows(); ++i)
+            {
+                row[i] = source.get(i)[j];
+            }
+            rows.add(row);
+        }
+        return new Matrix(rows);
+    }
+
+    private static void check(Matrix a, Matrix b, Matrix c, boolean exact) throws MatrixException
+    {
+        MatrixExpression x = MatrixExpression.of(a);
+        MatrixExpression y = MatrixExpression.of(b);
+        MatrixExpression z = MatrixExpression.of(c);
+        Matrix ab = TestMatrices.naiveMultiply(a, b);
+        Rational two = Rational.of(2, 1);
+
+        compare(naiveAdd(ab, c), x.times(y).plus(z).evaluate(), exact);
+        // the same product twice, built separately, is only worked out once
+        compare(naiveScale(ab, two), x.times(y).plus(x.times(y)).evaluate(), exact);
+        compare(naiveAdd(naiveScale(ab, two), naiveScale(c, Rational.of(-1, 2))),
+                x.times(y).scale(two).plus(z.scale(Rational.of(-1, 2))).evaluate(), exact);
+        compare(naiveAdd(naiveTranspose(ab), c), x.times(y).transpose().plus(z).evaluate(), exact);
+        compare(a, x.transpose().transpose().evaluate(), exact);
+        compare(naiveAdd(TestMatrices.naiveMultiply(ab, ab), ab), x.times(y).times(x.times(y)).plus(x.times(y)).evaluate(),
+                exact);
+        compare(naiveAdd(naiveAdd(c, c), c), z.plus(z).plus(z).evaluate(), exact);
+    }
+
+    private static void compare(Matrix expected, Matrix actual, boolean exact)
+    {
+        if (exact)
+            TestMatrices.assertSameValues(expected, actual);
+        else
+            TestMatrices.assertClose(expected, actual, 1e-9);
+    }
+
+    @Test
+    void denseMatchesNaiveEvaluation() throws MatrixException
+    {
+        Random random = new Random(10);
+        check(TestMatrices.dense(random, 5, 4), TestMatrices.dense(random, 4, 5), TestMatrices.dense(random, 5, 5),
+                false);
+    }
+
+    @Test
+    void rationalMatchesNaiveEvaluation() throws MatrixException
+    {
+        Random random = new Random(11);
+        check(TestMatrices.rational(random, 5, 4), TestMatrices.rational(random, 4, 5),
+                TestMatrices.rational(random, 5, 5), true);
+    }
+
+    @Test
+    void mixedMatchesNaiveEvaluation() throws MatrixException
+    {
+        Random random = new Random(12);
+        check(TestMatrices.rational(random, 5, 4), TestMatrices.dense(random, 4, 5),
+                TestMatrices.mixed(random, 5, 5), false);
+    }
+
+    @Test
+    void inverseMatchesNaiveEvaluation() throws MatrixException
+    {
+        Random random = new Random(13);
+        Matrix a = TestMatrices.rational(random, 4, 4);
+        if (BareissElimination.determinant(a).signum() == 0)
+            return;
+        MatrixExpression x = MatrixExpression.of(a);
+        TestMatrices.assertSameValues(TestMatrices.identity(4), x.inverse().times(x).evaluate());
+    }
+
+    @Test
+    void leavesItsInputsAlone() throws MatrixException
+    {
+        Random random = new Random(14);
+        Matrix a = TestMatrices.dense(random, 3, 3);
+        Matrix copy = a.clone();
+        MatrixExpression x = MatrixExpression.of(a);
+        x.times(x).plus(x).scale(3).evaluate();
+        TestMatrices.assertSameValues(copy, a);
+    }
+}
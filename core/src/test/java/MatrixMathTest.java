@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Gauss-Jordan over matrices that mix Rationals and doubles, where a Rational
+ * can sit closer to zero or one than a double can tell
+ */
+class MatrixMathTest
+{
+    /** @return a one row matrix of the given entries */
+    private static Matrix row(Number... entries)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        rows.add(entries);
+        return new Matrix(rows);
+    }
+
+    @Test
+    void tinyRationalIsAPivot() throws MatrixException
+    {
+        Rational tiny = Rational.of(BigInteger.ONE, BigInteger.ONE.shiftLeft(1100));
+        Matrix reduced = MatrixMath.rref(row(tiny, 0.5), true);
+        assertEquals(Rational.one, reduced.getMatrix().get(0)[0]);
+        assertEquals(1, MatrixMath.rank(row(tiny, 0.5)));
+    }
+
+    @Test
+    void rationalNearOneIsScaled() throws MatrixException
+    {
+        BigInteger unit = BigInteger.ONE.shiftLeft(53);
+        Rational nearOne = Rational.of(unit.add(BigInteger.ONE), unit);
+        Matrix reduced = MatrixMath.rref(row(nearOne, 0.5), true);
+        assertEquals(Rational.one, reduced.getMatrix().get(0)[0]);
+        assertEquals(1, MatrixMath.rank(row(nearOne, 0.5)));
+    }
+}
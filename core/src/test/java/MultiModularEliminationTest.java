@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Cases where the primes tried first are all unlucky, so agreement between them
+ * must not be mistaken for the answer
+ */
+class MultiModularEliminationTest
+{
+    /** @return the product of the first count primes the engine uses */
+    private static BigInteger primorial(int count)
+    {
+        BigInteger product = BigInteger.ONE;
+        for (int k = 0; k < count; ++k)
+        {
+            product = product.multiply(BigInteger.valueOf(ModularArithmetic.prime(k)));
+        }
+        return product;
+    }
+
+    private static Matrix single(Rational value)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        rows.add(new Number[] { value });
+        return new Matrix(rows);
+    }
+
+    @Test
+    void pivotDivisibleByEveryEarlyPrime() throws MatrixException
+    {
+        // two batches of primes all see a zero matrix, and agree with each other
+        int batch = Math.max(2, ParallelRows.getPool().getParallelism());
+        Matrix matrix = single(Rational.of(primorial(2 * batch), BigInteger.ONE));
+        TestMatrices.assertSameValues(single(Rational.one), MultiModularElimination.rref(matrix));
+        TestMatrices.assertSameValues(BareissElimination.rref(matrix), MultiModularElimination.rref(matrix));
+        assertEquals(1, MultiModularElimination.rank(matrix));
+        TestMatrices.assertSameValues(single(Rational.of(BigInteger.ONE, primorial(2 * batch))),
+                MultiModularElimination.inverse(matrix));
+    }
+
+    @Test
+    void rowsDivisibleByEveryEarlyPrime()
+    {
+        int batch = Math.max(2, ParallelRows.getPool().getParallelism());
+        Rational q = Rational.of(primorial(3 * batch), BigInteger.ONE);
+        ArrayList<Number[]> rows = new ArrayList<>();
+        rows.add(new Number[] { Rational.one, Rational.of(2, 1), Rational.of(3, 1) });
+        rows.add(new Number[] { Rational.of(2, 1), Rational.of(4, 1).plus(q), Rational.of(6, 1) });
+        Matrix matrix = new Matrix(rows);
+        TestMatrices.assertSameValues(BareissElimination.rref(matrix), MultiModularElimination.rref(matrix));
+    }
+}
@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Results are kept per engine for exact and mixed matrices, and shared between
+ * engines for dense ones
+ */
+class ResultCacheTest
+{
+    @Test
+    void exactResultsAreKeptPerEngine()
+    {
+        ResultCache cache = new ResultCache();
+        Matrix matrix = TestMatrices.mixed(new Random(2), 4, 4);
+        cache.rref(matrix, MatrixMath.Engine.GAUSS_JORDAN);
+        cache.rref(matrix, MatrixMath.Engine.BAREISS);
+        cache.rank(matrix, MatrixMath.Engine.BAREISS);
+        assertEquals(0, cache.getHits());
+        assertEquals(3, cache.size());
+        cache.rref(matrix.clone(), MatrixMath.Engine.BAREISS);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void denseResultsAreShared()
+    {
+        ResultCache cache = new ResultCache();
+        Matrix matrix = TestMatrices.dense(new Random(3), 4, 4);
+        cache.rref(matrix, MatrixMath.Engine.GAUSS_JORDAN);
+        cache.rref(matrix, MatrixMath.Engine.MULTI_MODULAR);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+}
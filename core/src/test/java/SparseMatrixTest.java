@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Mostly-zero Matrix Market files stay sparse when read, and sparse matrices give
+ * the same answers through the Matrix API as dense ones
+ */
+class SparseMatrixTest
+{
+    @TempDir
+    Path directory;
+
+    /** @return an n x n matrix with a non-zero diagonal and a few other entries */
+    private static DenseDoubleMatrix sparseEntries(Random random, int n)
+    {
+        DenseDoubleMatrix dense = new DenseDoubleMatrix(n, n);
+        for (int i = 0; i < n; ++i)
+        {
+            dense.set(i, i, 10 + random.nextInt(10));
+            dense.set(i, random.nextInt(n), random.nextInt(19) - 9);
+        }
+        return dense;
+    }
+
+    @Test
+    void readKeepsSparseFilesSparse() throws IOException
+    {
+        File sparseFile = directory.resolve("sparse.mtx").toFile();
+        MatrixMarket.writeSparse(SparseMatrix.fromDense(sparseEntries(new Random(4), 50)), sparseFile);
+        assertTrue(MatrixMarket.read(sparseFile, null).isSparse());
+
+        File denseFile = directory.resolve("dense.mtx").toFile();
+        Files.writeString(denseFile.toPath(), "%%MatrixMarket matrix coordinate real general\n2 2 3\n1 1 1\n1 2 2\n2 2 3\n");
+        assertTrue(MatrixMarket.read(denseFile, null).isDense());
+    }
+
+    @Test
+    void sparseAgreesWithDense() throws MatrixException
+    {
+        Random random = new Random(5);
+        DenseDoubleMatrix entries = sparseEntries(random, 30);
+        Matrix sparse = new Matrix(SparseMatrix.fromDense(entries));
+        Matrix dense = new Matrix(entries.clone());
+        assertEquals(MatrixMath.rank(dense), MatrixMath.rank(sparse));
+        TestMatrices.assertClose(MatrixMath.rref(dense.clone()), MatrixMath.rref(sparse), 1e-9);
+
+        Matrix b = TestMatrices.dense(random, 30, 2);
+        TestMatrices.assertClose(new LUDecomposition(dense).solve(b), new Matrix(sparse.getSparse().solve(b.getDense())), 1e-9);
+
+        Matrix product = sparse.clone();
+        product.multiply(sparse);
+        assertTrue(product.isSparse());
+        Matrix expected = dense.clone();
+        expected.multiply(dense);
+        TestMatrices.assertClose(expected, product, 1e-9);
+        assertFalse(MatrixMath.rref(sparse).isDense());
+    }
+
+    @Test
+    void exactEntriesAreNotRounded()
+    {
+        Matrix exact = TestMatrices.rational(new Random(6), 3, 3);
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.fromMatrix(exact));
+    }
+}
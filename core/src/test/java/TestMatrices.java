@@ -0,0 +1,171 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Random matrices and comparisons shared by the tests. The tests sit in the
+ * default package, like the library, so that they can use its classes.
+ */
+final class TestMatrices
+{
+    private TestMatrices()
+    {
+    }
+
+    /** @return a rows x columns matrix of small fractions */
+    static Matrix rational(Random random, int rows, int columns)
+    {
+        ArrayList<Number[]> entries = new ArrayList<>(rows);
+        for (int i = 0; i < rows; ++i)
+        {
+            Number[] row = new Number[columns];
+            for (int j = 0; j < columns; ++j)
+            {
+                row[j] = Rational.of(random.nextInt(19) - 9, 1 + random.nextInt(4));
+            }
+            entries.add(row);
+        }
+        return new Matrix(entries);
+    }
+
+    /** @return a rows x columns matrix of small integers, stored as doubles */
+    static Matrix dense(Random random, int rows, int columns)
+    {
+        double[] data = new double[rows * columns];
+        for (int i = 0; i < data.length; ++i)
+        {
+            data[i] = random.nextInt(19) - 9;
+        }
+        return new Matrix(new DenseDoubleMatrix(data, rows, columns));
+    }
+
+    /** @return a rows x columns matrix of a mix of Rationals and doubles */
+    static Matrix mixed(Random random, int rows, int columns)
+    {
+        ArrayList<Number[]> entries = new ArrayList<>(rows);
+        for (int i = 0; i < rows; ++i)
+        {
+            Number[] row = new Number[columns];
+            for (int j = 0; j < columns; ++j)
+            {
+                int value = random.nextInt(19) - 9;
+                row[j] = random.nextBoolean() ? Rational.of(value, 1) : (Number) (value + 0.5);
+            }
+            entries.add(row);
+        }
+        return new Matrix(entries);
+    }
+
+    /** @return the matrix with its last row replaced by the sum of the others, so it is singular */
+    static Matrix singular(Matrix matrix)
+    {
+        ArrayList<Number[]> rows = matrix.clone().getMatrix();
+        Number[] sum = new Number[matrix.getColumns()];
+        for (int j = 0; j < sum.length; ++j)
+        {
+            Rational total = Rational.zero;
+            for (int i = 0; i < rows.size() - 1; ++i)
+            {
+                total = total.plus((Rational) rows.get(i)[j]);
+            }
+            sum[j] = total;
+        }
+        rows.set(rows.size() - 1, sum);
+        return new Matrix(rows);
+    }
+
+    /** @return the exact rational value of an entry */
+    static Rational exact(Number number)
+    {
+        if (number instanceof Rational)
+            return (Rational) number;
+        return new Rational(number.doubleValue());
+    }
+
+    /** @return a * b, one entry at a time, exactly */
+    static Matrix naiveMultiply(Matrix a, Matrix b)
+    {
+        ArrayList<Number[]> left = a.getMatrix();
+        ArrayList<Number[]> right = b.getMatrix();
+        ArrayList<Number[]> product = new ArrayList<>();
+        for (int i = 0; i < a.getRows(); ++i)
+        {
+            Number[] row = new Number[b.getColumns()];
+            for (int j = 0; j < b.getColumns(); ++j)
+            {
+                Rational sum = Rational.zero;
+                for (int k = 0; k < a.getColumns(); ++k)
+                {
+                    sum = sum.plus(exact(left.get(i)[k]).times(exact(right.get(k)[j])));
+                }
+                row[j] = sum;
+            }
+            product.add(row);
+        }
+        return new Matrix(product);
+    }
+
+    /** @return the n x n identity, as Rationals */
+    static Matrix identity(int n)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i)
+        {
+            Number[] row = new Number[n];
+            for (int j = 0; j < n; ++j)
+            {
+                row[j] = i == j ? Rational.one : Rational.zero;
+            }
+            rows.add(row);
+        }
+        return new Matrix(rows);
+    }
+
+    /** @return a Rational too big for longs */
+    static Rational big(int bits)
+    {
+        return Rational.of(BigInteger.ONE.shiftLeft(bits).add(BigInteger.ONE), BigInteger.valueOf(3));
+    }
+
+    /** checks that two matrices have the same size and exactly the same values */
+    static void assertSameValues(Matrix expected, Matrix actual)
+    {
+        assertEquals(expected.getRows(), actual.getRows(), "rows");
+        assertEquals(expected.getColumns(), actual.getColumns(), "columns");
+        ArrayList<Number[]> e = expected.getMatrix();
+        ArrayList<Number[]> a = actual.getMatrix();
+        for (int i = 0; i < expected.getRows(); ++i)
+        {
+            for (int j = 0; j < expected.getColumns(); ++j)
+            {
+                assertEquals(exact(e.get(i)[j]), exact(a.get(i)[j]), "entry (" + i + ", " + j + ")");
+            }
+        }
+    }
+
+    /** checks that two matrices have the same size and values within tolerance */
+    static void assertClose(Matrix expected, Matrix actual, double tolerance)
+    {
+        assertEquals(expected.getRows(), actual.getRows(), "rows");
+        assertEquals(expected.getColumns(), actual.getColumns(), "columns");
+        ArrayList<Number[]> e = expected.getMatrix();
+        ArrayList<Number[]> a = actual.getMatrix();
+        for (int i = 0; i < expected.getRows(); ++i)
+        {
+            for (int j = 0; j < expected.getColumns(); ++j)
+            {
+                double difference = Math.abs(e.get(i)[j].doubleValue() - a.get(i)[j].doubleValue());
+                assertTrue(difference <= tolerance, "entry (" + i + ", " + j + ") is off by " + difference);
+            }
+        }
+    }
+
+    /** checks that every entry is a Rational */
+    static void assertExact(Matrix matrix)
+    {
+        assertTrue(!matrix.isDense() && Matrix.isAllRational(matrix.getMatrix()), "not exact");
+    }
+}
@@ -0,0 +1,216 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * Exact row reduction by fraction-free (Bareiss) elimination. Each row is first
+ * scaled by the lcm of its denominators so that the whole matrix is made of
+ * integers, then Gauss-Jordan elimination is done without ever leaving the
+ * integers: every update is a 2x2 cross-multiplication followed by an exact
+ * division by the previous pivot. The entries stay minors of the input, so they
+ * grow polynomially instead of exponentially, and no gcd is ever taken.
+ *
+ * When the elimination is finished every pivot equals the same integer d, and
+ * the matrix is d times its RREF, so fractions are only formed once, at the end.
+ */
+public class BareissElimination
+{
+    /**
+     * The state of a finished elimination
+     */
+    private static class Reduction
+    {
+        /** d * RREF of the integer matrix */
+        BigInteger[][] entries;
+        /** the common value of every pivot, d */
+        BigInteger divisor = BigInteger.ONE;
+        /** the number of pivots */
+        int rank;
+        /** true if an odd number of row swaps were done */
+        boolean negated;
+    }
+
+    /**
+     * Row-reduces the matrix. Does not change the original matrix
+     *
+     * @param matrix the matrix to reduce
+     * @return the matrix in row-reduced echelon form, as Rationals
+     */
+    public static Matrix rref(Matrix matrix)
+    {
+        Reduction reduction = eliminate(toIntegerRows(matrix, null), matrix.getColumns());
+        return toMatrix(reduction, 0, matrix.getColumns());
+    }
+
+    /**
+     * @return the rank of the matrix
+     */
+    public static int rank(Matrix matrix)
+    {
+        return eliminate(toIntegerRows(matrix, null), matrix.getColumns()).rank;
+    }
+
+    /**
+     * @return the determinant of the (square) matrix
+     */
+    public static Rational determinant(Matrix matrix) throws MatrixException
+    {
+        int n = matrix.getRows();
+        if (n != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so the determinant does not exist!");
+        BigInteger[] rowScales = new BigInteger[n];
+        Reduction reduction = eliminate(toIntegerRows(matrix, rowScales), n);
+        if (reduction.rank < n)
+            return Rational.zero;
+        // det(integer matrix) = +-d, and the integer matrix is the original with row i scaled by rowScales[i]
+        BigInteger determinant = reduction.negated ? reduction.divisor.negate() : reduction.divisor;
+        BigInteger scale = BigInteger.ONE;
+        for (BigInteger rowScale : rowScales)
+        {
+            scale = scale.multiply(rowScale);
+        }
+        return Rational.of(determinant, scale);
+    }
+
+    /**
+     * Finds the inverse of the matrix. Does not change the original matrix
+     *
+     * @return the inverse of the matrix
+     * @throws MatrixException if the matrix is not square or not invertible
+     */
+    public static Matrix inverse(Matrix matrix) throws MatrixException
+    {
+        int n = matrix.getRows();
+        if (n != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so the identity does not exist!");
+        // with S the row scales, reduce [S*A | S]: the right half ends up as (S*A)^-1 * S = A^-1
+        BigInteger[] rowScales = new BigInteger[n];
+        BigInteger[][] integerRows = toIntegerRows(matrix, rowScales);
+        BigInteger[][] augmented = new BigInteger[n][2 * n];
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(integerRows[i], 0, augmented[i], 0, n);
+            for (int j = 0; j < n; ++j)
+            {
+                augmented[i][n + j] = i == j ? rowScales[i] : BigInteger.ZERO;
+            }
+        }
+        Reduction reduction = eliminate(augmented, n);
+        if (reduction.rank < n)
+            throw new MatrixException("The identity does not exist!");
+        return toMatrix(reduction, n, 2 * n);
+    }
+
+    /**
+     * Fraction-free Gauss-Jordan elimination, in place. Only the first
+     * pivotColumns columns are searched for pivots; the rest are carried along.
+     */
+    private static Reduction eliminate(BigInteger[][] rows, int pivotColumns)
+    {
+        Reduction reduction = new Reduction();
+        reduction.entries = rows;
+        int numRows = rows.length;
+        int numCols = numRows == 0 ? 0 : rows[0].length;
+        BigInteger previous = BigInteger.ONE;
+        int pivotRow = 0;
+        for (int column = 0; column < pivotColumns && pivotRow < numRows; ++column)
+        {
+            int found = -1;
+            for (int i = pivotRow; i < numRows; ++i)
+            {
+                if (rows[i][column].signum() != 0)
+                {
+                    found = i;
+                    break;
+                }
+            }
+            if (found == -1)
+                continue;
+            if (found != pivotRow)
+            {
+                BigInteger[] temp = rows[found];
+                rows[found] = rows[pivotRow];
+                rows[pivotRow] = temp;
+                reduction.negated = !reduction.negated;
+            }
+            BigInteger[] workingRow = rows[pivotRow];
+            BigInteger pivot = workingRow[column];
+            for (int i = 0; i < numRows; ++i)
+            {
+                BigInteger[] row = rows[i];
+                if (i == pivotRow)
+                    continue;
+                BigInteger factor = row[column];
+                for (int j = 0; j < numCols; ++j)
+                {
+                    if (j == column)
+                        continue;
+                    // zero stays zero when there is nothing to subtract - common in the augmented half
+                    if (row[j].signum() == 0 && (factor.signum() == 0 || workingRow[j].signum() == 0))
+                        continue;
+                    // the Bareiss step - the division is always exact
+                    BigInteger cross = pivot.multiply(row[j]);
+                    if (factor.signum() != 0)
+                        cross = cross.subtract(factor.multiply(workingRow[j]));
+                    row[j] = previous.equals(BigInteger.ONE) ? cross : cross.divide(previous);
+                }
+                row[column] = BigInteger.ZERO;
+            }
+            previous = pivot;
+            ++pivotRow;
+        }
+        reduction.divisor = previous;
+        reduction.rank = pivotRow;
+        return reduction;
+    }
+
+    /**
+     * Scales each row of the matrix by the lcm of its denominators, so that every
+     * entry is an integer. Doubles are converted to their exact rational value.
+     *
+     * @param rowScales if not null, filled in with the factor each row was scaled by
+     */
+    static BigInteger[][] toIntegerRows(Matrix matrix, BigInteger[] rowScales)
+    {
+        ArrayList<Number[]> rows = matrix.getMatrix();
+        int numCols = matrix.getColumns();
+        BigInteger[][] integerRows = new BigInteger[rows.size()][numCols];
+        for (int i = 0; i < rows.size(); ++i)
+        {
+            Rational[] row = new Rational[numCols];
+            BigInteger lcm = BigInteger.ONE;
+            for (int j = 0; j < numCols; ++j)
+            {
+                Number number = rows.get(i)[j];
+                row[j] = number instanceof Rational ? (Rational) number : new Rational(number.doubleValue());
+                BigInteger denominator = row[j].bigDenominator();
+                lcm = lcm.divide(lcm.gcd(denominator)).multiply(denominator);
+            }
+            for (int j = 0; j < numCols; ++j)
+            {
+                integerRows[i][j] = row[j].bigNumerator().multiply(lcm.divide(row[j].bigDenominator()));
+            }
+            if (rowScales != null)
+                rowScales[i] = lcm;
+        }
+        return integerRows;
+    }
+
+    /**
+     * Divides columns [from, to) of the reduced rows by d, giving the RREF entries
+     */
+    private static Matrix toMatrix(Reduction reduction, int from, int to)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>();
+        for (BigInteger[] integerRow : reduction.entries)
+        {
+            Number[] row = new Number[to - from];
+            for (int j = from; j < to; ++j)
+            {
+                row[j - from] = integerRow[j].signum() == 0 ? Rational.zero
+                        : Rational.of(integerRow[j], reduction.divisor);
+            }
+            rows.add(row);
+        }
+        return new Matrix(rows);
+    }
+}
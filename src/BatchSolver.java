@@ -0,0 +1,198 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many independent matrix jobs at once. Every job gets its own virtual
+ * thread, which is cheap enough for hundreds of thousands of them, and a
+ * semaphore keeps no more than a fixed number running at a time - by default one
+ * per processor, since the jobs are all computation. Each job's result comes back
+ * as a CompletableFuture, along with how long it waited and how long it ran.
+ *
+ * The matrices handed in are never changed, so the same matrix can be used by
+ * several jobs at once. Exact (non-dense) matrices are reduced and inverted with
+ * the engine the solver was made with, and solved with a DixonSolver; dense ones
+ * use DenseDoubleMatrix and LUDecomposition.
+ */
+public class BatchSolver implements AutoCloseable
+{
+    /** The kinds of job */
+    public enum Operation
+    {
+        RREF, INVERSE, MULTIPLY, SOLVE;
+    }
+
+    /**
+     * The answer to one job, and how long it took
+     */
+    public static class Result
+    {
+        private final Operation operation;
+        private final Matrix matrix;
+        private final long waitNanos;
+        private final long runNanos;
+
+        Result(Operation operation, Matrix matrix, long waitNanos, long runNanos)
+        {
+            this.operation = operation;
+            this.matrix = matrix;
+            this.waitNanos = waitNanos;
+            this.runNanos = runNanos;
+        }
+
+        /** @return what the job did */
+        public Operation getOperation()
+        {
+            return operation;
+        }
+
+        /** @return the answer */
+        public Matrix getMatrix()
+        {
+            return matrix;
+        }
+
+        /** @return how long the job waited for a turn to run, in nanoseconds */
+        public long getWaitNanos()
+        {
+            return waitNanos;
+        }
+
+        /** @return how long the job ran for, in nanoseconds */
+        public long getRunNanos()
+        {
+            return runNanos;
+        }
+    }
+
+    /**
+     * The work a job does
+     */
+    private interface Job
+    {
+        Matrix run() throws MatrixException;
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    /** One permit per job that may run at once */
+    private final Semaphore permits;
+    private final MatrixMath.Engine engine;
+
+    /**
+     * Creates a solver that runs one job per processor at a time, using Gauss-Jordan
+     * elimination for exact matrices
+     */
+    public BatchSolver()
+    {
+        this(Runtime.getRuntime().availableProcessors(), MatrixMath.Engine.GAUSS_JORDAN);
+    }
+
+    /**
+     * @param concurrency the most jobs to run at once
+     * @param engine the engine to reduce and invert exact matrices with
+     */
+    public BatchSolver(int concurrency, MatrixMath.Engine engine)
+    {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        this.permits = new Semaphore(concurrency);
+        this.engine = engine;
+    }
+
+    /**
+     * @return the engine exact matrices are reduced and inverted with
+     */
+    public MatrixMath.Engine getEngine()
+    {
+        return engine;
+    }
+
+    /**
+     * @return a future for the RREF of the matrix
+     */
+    public CompletableFuture<Result> rref(Matrix matrix)
+    {
+        return submit(Operation.RREF, () -> MatrixMath.rref(matrix.clone(), engine));
+    }
+
+    /**
+     * @return a future for the inverse of the matrix, which fails with a
+     * MatrixException if there is none
+     */
+    public CompletableFuture<Result> inverse(Matrix matrix)
+    {
+        return submit(Operation.INVERSE, () -> MatrixMath.identity(matrix, engine));
+    }
+
+    /**
+     * @return a future for left * right, which fails with a MatrixException if the
+     * sizes do not match
+     */
+    public CompletableFuture<Result> multiply(Matrix left, Matrix right)
+    {
+        return submit(Operation.MULTIPLY, () -> {
+            Matrix product = left.clone();
+            product.multiply(right);
+            return product;
+        });
+    }
+
+    /**
+     * @return a future for the x with a * x = b, which fails with a MatrixException
+     * if there is no unique solution
+     */
+    public CompletableFuture<Result> solve(Matrix a, Matrix b)
+    {
+        return submit(Operation.SOLVE, () -> {
+            if (a.isSparse())
+                return new Matrix(a.getSparse().solve(DenseDoubleMatrix.fromMatrix(b)));
+            if (!a.isDense())
+                return new DixonSolver(a).solve(b);
+            return new Matrix(new LUDecomposition(a.getDense()).solve(DenseDoubleMatrix.fromMatrix(b)));
+        });
+    }
+
+    private CompletableFuture<Result> submit(Operation operation, Job job)
+    {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        executor.execute(() -> {
+            try
+            {
+                // a virtual thread that blocks here is parked, not holding a carrier thread
+                permits.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                future.completeExceptionally(e);
+                return;
+            }
+            long started = System.nanoTime();
+            try
+            {
+                Matrix matrix = job.run();
+                future.complete(new Result(operation, matrix, started - submitted, System.nanoTime() - started));
+            }
+            catch (Throwable e)
+            {
+                future.completeExceptionally(e);
+            }
+            finally
+            {
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for every job already submitted to finish, then shuts down. No more
+     * jobs can be submitted
+     */
+    @Override
+    public void close()
+    {
+        executor.close();
+    }
+}
@@ -0,0 +1,444 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dense storage for a matrix whose entries are all doubles. The entries are held
+ * in a single row-major double[], so that the elimination and multiplication
+ * kernels below can walk contiguous memory without ever boxing a Double.
+ *
+ * Used as the backend of a Matrix when every entry of that matrix is a double.
+ */
+public class DenseDoubleMatrix
+{
+    /**
+     * Anything smaller than this fraction of the largest entry in its column (in
+     * absolute value) is treated as zero when choosing a pivot
+     */
+    public static final double EPSILON = 1e-10;
+
+    /** The entries of the matrix, row-major: entry (i, j) is at i * numColumns + j */
+    private final double[] data;
+    /** The number of rows in the matrix */
+    private final int numRows;
+    /** The number of columns in the matrix */
+    private final int numColumns;
+
+    /**
+     * Constructor. Creates a zero matrix of the given size
+     *
+     * @param rows
+     * @param columns
+     */
+    public DenseDoubleMatrix(int rows, int columns)
+    {
+        this(new double[rows * columns], rows, columns);
+    }
+
+    /**
+     * Constructor. Wraps (does not copy) an existing row-major array
+     *
+     * @param data the entries, row-major
+     * @param rows
+     * @param columns
+     */
+    public DenseDoubleMatrix(double[] data, int rows, int columns)
+    {
+        if (data.length != rows * columns)
+            throw new IllegalArgumentException("Expected " + rows * columns + " entries, got " + data.length);
+        this.data = data;
+        this.numRows = rows;
+        this.numColumns = columns;
+    }
+
+    /**
+     * Converts rows of Numbers to dense storage
+     *
+     * @param rows the rows to convert - all rows must be the same length
+     * @return the dense copy
+     */
+    public static DenseDoubleMatrix fromRows(List<Number[]> rows)
+    {
+        int numRows = rows.size();
+        int numColumns = rows.get(0).length;
+        double[] data = new double[numRows * numColumns];
+        for (int i = 0; i < numRows; ++i)
+        {
+            Number[] row = rows.get(i);
+            int offset = i * numColumns;
+            for (int j = 0; j < numColumns; ++j)
+            {
+                data[offset + j] = row[j].doubleValue();
+            }
+        }
+        return new DenseDoubleMatrix(data, numRows, numColumns);
+    }
+
+    /**
+     * @return the matrix's entries in dense storage - the matrix's own, if it is
+     * stored densely, so changes to it are changes to the matrix
+     */
+    public static DenseDoubleMatrix fromMatrix(Matrix matrix)
+    {
+        if (matrix.isDense())
+            return matrix.getDense();
+        if (matrix.isSparse())
+            return matrix.getSparse().toDense();
+        return fromRows(matrix.getMatrix());
+    }
+
+    /** @return the entry at row i, column j */
+    public double get(int i, int j) {
+        return data[i * numColumns + j];
+    }
+
+    /** sets the entry at row i, column j */
+    public void set(int i, int j, double value) {
+        data[i * numColumns + j] = value;
+    }
+
+    /** @return the backing row-major array (not a copy) */
+    public double[] getData() {
+        return data;
+    }
+
+    /** @return the number of rows of the matrix */
+    public int getRows() {
+        return numRows;
+    }
+
+    /** @return the number of columns of the matrix */
+    public int getColumns() {
+        return numColumns;
+    }
+
+    /** @return a deep clone of this matrix */
+    @Override
+    public DenseDoubleMatrix clone() {
+        return new DenseDoubleMatrix(data.clone(), numRows, numColumns);
+    }
+
+    /**
+     * @return the matrix as boxed rows, as used by Matrix and MatrixMath
+     */
+    public ArrayList<Number[]> toRows()
+    {
+        ArrayList<Number[]> rows = new ArrayList<>(numRows);
+        for (int i = 0; i < numRows; ++i)
+        {
+            Number[] row = new Number[numColumns];
+            int offset = i * numColumns;
+            for (int j = 0; j < numColumns; ++j)
+            {
+                row[j] = data[offset + j];
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Adds matrix to this matrix, in place
+     *
+     * @param matrix the matrix to add, must be the same size
+     */
+    public void add(DenseDoubleMatrix matrix) throws MatrixException
+    {
+        if (numRows != matrix.numRows || numColumns != matrix.numColumns)
+            throw new MatrixException("Cannot add, matrices are not the same size");
+        double[] toAdd = matrix.data;
+        for (int i = 0; i < data.length; ++i)
+        {
+            data[i] += toAdd[i];
+        }
+    }
+
+    /**
+     * Multiplies this matrix by matrix (this * matrix), with the tiled, parallel
+     * kernel in MatrixMultiply
+     *
+     * @param matrix the right operand
+     * @return a new matrix holding the product
+     */
+    public DenseDoubleMatrix multiply(DenseDoubleMatrix matrix) throws MatrixException
+    {
+        return MatrixMultiply.multiply(this, matrix);
+    }
+
+    /**
+     * Row-reduces this matrix, in place, using Gauss-Jordan elimination with partial
+     * pivoting. Pivots are set to exactly 1 and the rest of each pivot column to
+     * exactly 0, so the result passes MatrixMath.checkIfReduced.
+     *
+     * @return the rank of the matrix
+     */
+    public int rref()
+    {
+        return reduce(columnTolerances(numColumns), false);
+    }
+
+    /**
+     * Inverts the (square) matrix with a single elimination of [A | I], done in one
+     * n x 2n workspace. Elimination stops at the first column without a pivot, since
+     * the matrix is singular by then. Does not change this matrix
+     *
+     * @return the inverse
+     * @throws MatrixException if the matrix is not square or not invertible
+     */
+    public DenseDoubleMatrix inverse() throws MatrixException
+    {
+        if (numRows != numColumns)
+            throw new MatrixException("The matrix is not square, so the identity does not exist!");
+        int n = numRows;
+        DenseDoubleMatrix workspace = new DenseDoubleMatrix(n, 2 * n);
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(data, i * n, workspace.data, i * 2 * n, n);
+            workspace.data[i * 2 * n + n + i] = 1.0;
+        }
+        if (workspace.reduce(columnTolerances(n), true) < n)
+            throw new MatrixException("The identity does not exist!");
+        double[] inverse = new double[n * n];
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(workspace.data, i * 2 * n + n, inverse, i * n, n);
+        }
+        return new DenseDoubleMatrix(inverse, n, n);
+    }
+
+    /**
+     * Finds the rank with forward elimination alone - to row echelon form, on a
+     * copy - which is about a third of the work of a full rref. Entries within
+     * rounding of zero, for their column, count as zero, as they do in rref
+     *
+     * @return the rank of the matrix
+     */
+    public int rank()
+    {
+        return clone().echelon(columnTolerances(numColumns), false, null);
+    }
+
+    /**
+     * Finds the determinant with forward elimination alone, on a copy: it is the
+     * product of the pivots, negated once for every row swap. Every non-zero pivot
+     * is used, however small - a tiny determinant is still a determinant - and
+     * elimination stops at the first column that is exactly zero, since the
+     * determinant is 0 by then
+     *
+     * @return the determinant
+     * @throws MatrixException if the matrix is not square
+     */
+    public double determinant() throws MatrixException
+    {
+        if (numRows != numColumns)
+            throw new MatrixException("The matrix is not square, so the determinant does not exist!");
+        double[] pivots = new double[numRows];
+        if (clone().echelon(new double[numColumns], true, pivots) < numRows)
+            return 0.0;
+        double determinant = 1.0;
+        for (double pivot : pivots)
+        {
+            determinant *= pivot;
+        }
+        return determinant;
+    }
+
+    /**
+     * Gaussian elimination to row echelon form, in place, with partial pivoting.
+     * Only the rows below each pivot are cleared, and pivots are not scaled to one
+     *
+     * @param tolerance for each column, the largest entry that counts as zero
+     * @param stopAtFreeColumn if set, give up at the first column without a pivot
+     * @param pivots if not null, where to put each pivot - negated if a row swap
+     * brought it into place, so the product of the pivots is the determinant
+     * @return the number of pivots found
+     */
+    private int echelon(double[] tolerance, boolean stopAtFreeColumn, double[] pivots)
+    {
+        int pivotRow = 0;
+        for (int column = 0; column < numColumns && pivotRow < numRows; ++column)
+        {
+            int best = pivotRow;
+            double bestValue = Math.abs(data[pivotRow * numColumns + column]);
+            for (int i = pivotRow + 1; i < numRows; ++i)
+            {
+                double value = Math.abs(data[i * numColumns + column]);
+                if (value > bestValue)
+                {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            if (bestValue <= tolerance[column])
+            {
+                if (stopAtFreeColumn)
+                    return pivotRow;
+                continue;
+            }
+            swapRows(best, pivotRow);
+            if (pivots != null)
+            {
+                double pivot = data[pivotRow * numColumns + column];
+                pivots[pivotRow] = best == pivotRow ? pivot : -pivot;
+            }
+            eliminateBelow(pivotRow, column);
+            ++pivotRow;
+        }
+        return pivotRow;
+    }
+
+    /**
+     * Clears column from every row below pivotRow, whose pivot need not be one. The
+     * rows are independent, so big matrices split them across threads.
+     */
+    private void eliminateBelow(int pivotRow, int column)
+    {
+        int pivotOffset = pivotRow * numColumns;
+        double pivot = data[pivotOffset + column];
+        ParallelRows.forEach(pivotRow + 1, numRows, MatrixMath.eliminationGrain(numRows), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; ++i)
+            {
+                int offset = i * numColumns;
+                double factor = data[offset + column] / pivot;
+                if (factor == 0.0)
+                    continue;
+                for (int j = column + 1; j < numColumns; ++j)
+                {
+                    data[offset + j] -= factor * data[pivotOffset + j];
+                }
+                data[offset + column] = 0.0;
+            }
+        });
+    }
+
+    /**
+     * Gauss-Jordan elimination, in place, looking for pivots only in the first
+     * tolerance.length columns - the rest are carried along
+     *
+     * @param tolerance for each column that may pivot, the largest entry that counts as zero
+     * @param stopAtFreeColumn if set, give up at the first column without a pivot
+     * @return the number of pivots found
+     */
+    private int reduce(double[] tolerance, boolean stopAtFreeColumn)
+    {
+        int pivotRow = 0;
+        for (int column = 0; column < tolerance.length && pivotRow < numRows; ++column)
+        {
+            // partial pivoting - use the largest entry left in the column
+            int best = pivotRow;
+            double bestValue = Math.abs(data[pivotRow * numColumns + column]);
+            for (int i = pivotRow + 1; i < numRows; ++i)
+            {
+                double value = Math.abs(data[i * numColumns + column]);
+                if (value > bestValue)
+                {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            if (bestValue <= tolerance[column])
+            {
+                if (stopAtFreeColumn)
+                    return pivotRow;
+                // nothing to pivot on, so the column is (numerically) zero below the pivot row
+                for (int i = pivotRow; i < numRows; ++i)
+                {
+                    data[i * numColumns + column] = 0.0;
+                }
+                continue;
+            }
+            swapRows(best, pivotRow);
+            scaleRow(pivotRow, column, 1.0 / data[pivotRow * numColumns + column]);
+            eliminateColumn(pivotRow, column);
+            ++pivotRow;
+        }
+        return pivotRow;
+    }
+
+    /**
+     * Finds, for each of the first pivotColumns columns, the largest entry that
+     * counts as zero. The rounding left behind by elimination scales with the
+     * column's largest entry, so the tolerance does too; rescaling the matrix, or
+     * one of its columns, does not change its rank
+     *
+     * @return the tolerance of each column
+     */
+    double[] columnTolerances(int pivotColumns)
+    {
+        double[] largest = new double[pivotColumns];
+        for (int i = 0; i < numRows; ++i)
+        {
+            int offset = i * numColumns;
+            for (int j = 0; j < pivotColumns; ++j)
+            {
+                largest[j] = Math.max(largest[j], Math.abs(data[offset + j]));
+            }
+        }
+        for (int j = 0; j < pivotColumns; ++j)
+        {
+            largest[j] *= EPSILON;
+        }
+        return largest;
+    }
+
+    /**
+     * Clears column from every row but pivotRow. The rows are independent, so big
+     * matrices split them across threads.
+     */
+    private void eliminateColumn(int pivotRow, int column)
+    {
+        ParallelRows.forEach(0, numRows, MatrixMath.eliminationGrain(numRows), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; ++i)
+            {
+                if (i != pivotRow)
+                    eliminate(pivotRow, i, column);
+            }
+        });
+    }
+
+    /** swaps two rows */
+    void swapRows(int row1, int row2)
+    {
+        if (row1 == row2)
+            return;
+        int offset1 = row1 * numColumns;
+        int offset2 = row2 * numColumns;
+        for (int j = 0; j < numColumns; ++j)
+        {
+            double temp = data[offset1 + j];
+            data[offset1 + j] = data[offset2 + j];
+            data[offset2 + j] = temp;
+        }
+    }
+
+    /**
+     * Scales a row so that its entry in column becomes one. Entries to the left of
+     * column are assumed to already be zero.
+     */
+    void scaleRow(int row, int column, double scaleFactor)
+    {
+        int offset = row * numColumns;
+        for (int j = column; j < numColumns; ++j)
+        {
+            data[offset + j] *= scaleFactor;
+        }
+        data[offset + column] = 1.0;
+    }
+
+    /**
+     * Subtracts a multiple of pivotRow from row so that row's entry in column
+     * becomes zero. pivotRow is assumed to have a leading one in column.
+     */
+    void eliminate(int pivotRow, int row, int column)
+    {
+        int offset = row * numColumns;
+        double factor = data[offset + column];
+        if (factor == 0.0)
+            return;
+        int pivotOffset = pivotRow * numColumns;
+        for (int j = column + 1; j < numColumns; ++j)
+        {
+            data[offset + j] -= factor * data[pivotOffset + j];
+        }
+        data[offset + column] = 0.0;
+    }
+}
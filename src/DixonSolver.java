@@ -0,0 +1,412 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Exact solution of A * x = b by Dixon's p-adic lifting. A is scaled to integers
+ * and inverted once, modulo a single word-sized prime p. Each step then finds the
+ * next base-p digit of x from the residual, x_i = A^-1 * r mod p, and divides the
+ * residual by p, r = (r - A * x_i) / p - all in long arithmetic when the matrix is
+ * small enough. After k steps the digits give x mod p^k, and rational
+ * reconstruction recovers x itself once p^k is large enough.
+ *
+ * Every step costs O(n^2) word operations, and the entries never grow, so this
+ * reaches far larger systems than elimination over the rationals. A reconstructed
+ * answer is always checked against A * x = b before it is returned, so it is exact.
+ * Like RationalLUDecomposition, the work on A is done once and each right-hand side
+ * is solved separately.
+ */
+public class DixonSolver
+{
+    /** The size of the matrix */
+    private final int n;
+    /** The rows of A, each scaled to integers */
+    private final BigInteger[][] a;
+    /** A in longs, row by row, or null if some entry does not fit */
+    private final long[] small;
+    /** The factor each row of A was scaled by */
+    private final BigInteger[] rowScales;
+    /** The prime the digits are found mod, or 0 if A is singular */
+    private final long prime;
+    /** A^-1 mod prime, row by row, or null if A is singular */
+    private final long[] inverse;
+    /**
+     * true if A * x_i can be worked out in longs - when no row's sum of |entries|
+     * times the prime reaches 2^62
+     */
+    private final boolean wordSized;
+
+    /**
+     * Constructor. Inverts the matrix mod a prime; the matrix is not changed. Any
+     * doubles are converted to their exact rational value.
+     *
+     * @param matrix the square matrix A
+     * @throws MatrixException if the matrix is not square
+     */
+    public DixonSolver(Matrix matrix) throws MatrixException
+    {
+        n = matrix.getRows();
+        if (n != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so there is no unique solution!");
+        rowScales = new BigInteger[n];
+        a = BareissElimination.toIntegerRows(matrix, rowScales);
+        double boundBits = ModularArithmetic.log2HadamardBound(a);
+
+        long[] entries = new long[n * n];
+        BigInteger largestRowSum = BigInteger.ZERO;
+        for (int i = 0; i < n && entries != null; ++i)
+        {
+            BigInteger rowSum = BigInteger.ZERO;
+            for (int j = 0; j < n; ++j)
+            {
+                if (a[i][j].bitLength() >= 63)
+                {
+                    entries = null;
+                    break;
+                }
+                entries[i * n + j] = a[i][j].longValue();
+                rowSum = rowSum.add(a[i][j].abs());
+            }
+            largestRowSum = largestRowSum.max(rowSum);
+        }
+        small = entries;
+
+        // a prime A is singular mod divides det(A); if that is every prime up to past
+        // the bound on |det(A)|, then det(A) is zero
+        long[] found = null;
+        long p = 0;
+        double triedBits = 0;
+        for (int k = 0; found == null && triedBits <= boundBits; ++k)
+        {
+            p = ModularArithmetic.prime(k);
+            long[] reduced = new long[n * n];
+            for (int i = 0; i < n; ++i)
+            {
+                for (int j = 0; j < n; ++j)
+                {
+                    reduced[i * n + j] = small != null ? Math.floorMod(small[i * n + j], p)
+                            : ModularArithmetic.mod(a[i][j], p);
+                }
+            }
+            found = ModularArithmetic.inverse(reduced, n, p);
+            triedBits += Math.log(p) / Math.log(2);
+        }
+        inverse = found;
+        prime = found == null ? 0 : p;
+        wordSized = small != null && largestRowSum.multiply(BigInteger.valueOf(p)).bitLength() < 62;
+    }
+
+    /**
+     * @return true if the matrix has no inverse, so there is no unique solution
+     */
+    public boolean isSingular()
+    {
+        return inverse == null;
+    }
+
+    /**
+     * Solves A * x = b
+     *
+     * @param b the right-hand side, with as many rows as A and any number of columns
+     * @return x, as Rationals
+     * @throws MatrixException if the matrix is singular or b is the wrong size
+     */
+    public Matrix solve(Matrix b) throws MatrixException
+    {
+        if (b.getRows() != n)
+            throw new MatrixException("Cannot solve, the right-hand side does not have " + n + " rows");
+        if (isSingular())
+            throw new MatrixException("The matrix is singular, so there is no unique solution!");
+        int k = b.getColumns();
+        int size = n * k;
+
+        // scale b to integers the same way as A, with one more common factor to clear its own denominators
+        Rational[] entries = new Rational[size];
+        BigInteger lcm = BigInteger.ONE;
+        ArrayList<Number[]> rows = b.getMatrix();
+        for (int i = 0; i < n; ++i)
+        {
+            for (int c = 0; c < k; ++c)
+            {
+                Number number = rows.get(i)[c];
+                Rational entry = number instanceof Rational ? (Rational) number : new Rational(number.doubleValue());
+                entries[i * k + c] = entry;
+                BigInteger denominator = entry.bigDenominator();
+                lcm = lcm.divide(lcm.gcd(denominator)).multiply(denominator);
+            }
+        }
+        BigInteger[] target = new BigInteger[size];
+        BigInteger[][] augmented = new BigInteger[n][n + k];
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(a[i], 0, augmented[i], 0, n);
+            for (int c = 0; c < k; ++c)
+            {
+                Rational entry = entries[i * k + c];
+                target[i * k + c] = entry.bigNumerator().multiply(lcm.divide(entry.bigDenominator()))
+                        .multiply(rowScales[i]);
+                augmented[i][n + c] = target[i * k + c];
+            }
+        }
+        // by Cramer's rule x = det(A with a column of b) / det(A), both under the bound of [A | b]
+        double neededBits = 2 * ModularArithmetic.log2HadamardBound(augmented) + 1;
+        double bitsPerDigit = Math.log(prime) / Math.log(2);
+
+        ArrayList<long[]> digits = new ArrayList<>();
+        BigInteger[] bigResidual = target.clone();
+        long[] smallResidual = null;
+        int nextAttempt = 1;
+        int[] failed = { -1 };
+        while (true)
+        {
+            long[] residue = new long[size];
+            boolean zero = true;
+            for (int e = 0; e < size; ++e)
+            {
+                if (smallResidual != null)
+                {
+                    zero &= smallResidual[e] == 0;
+                    residue[e] = Math.floorMod(smallResidual[e], prime);
+                }
+                else
+                {
+                    zero &= bigResidual[e].signum() == 0;
+                    residue[e] = ModularArithmetic.mod(bigResidual[e], prime);
+                }
+            }
+            if (zero)
+            {
+                // the digits so far are an exact integer solution
+                BigInteger[] solution = combineDigits(digits, size);
+                Rational[] values = new Rational[size];
+                for (int e = 0; e < size; ++e)
+                {
+                    values[e] = Rational.of(solution[e], lcm);
+                }
+                return toMatrix(values, k);
+            }
+
+            long[] digit = multiplyInverse(residue, k);
+            digits.add(digit);
+            if (smallResidual != null)
+                smallResidual = liftSmall(smallResidual, digit, k);
+            else
+            {
+                bigResidual = liftBig(bigResidual, digit, k);
+                smallResidual = toSmall(bigResidual);
+            }
+
+            int steps = digits.size();
+            boolean certain = steps * bitsPerDigit > neededBits;
+            if (steps < nextAttempt && !certain)
+                continue;
+            nextAttempt = steps + Math.max(2, steps / 8);
+            Rational[] values = reconstruct(digits, size, failed);
+            if (values == null)
+            {
+                if (certain)
+                    throw new ArithmeticException("Reconstruction failed within the bound");
+                continue;
+            }
+            if (check(values, target, k))
+            {
+                for (int e = 0; e < size; ++e)
+                {
+                    values[e] = new Rational(values[e].bigNumerator(), values[e].bigDenominator().multiply(lcm));
+                }
+                return toMatrix(values, k);
+            }
+        }
+    }
+
+    /** @return A^-1 * residue mod prime, for each column of the residue */
+    private long[] multiplyInverse(long[] residue, int k)
+    {
+        long[] digit = new long[n * k];
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = 0; j < n; ++j)
+            {
+                long factor = inverse[i * n + j];
+                if (factor == 0)
+                    continue;
+                for (int c = 0; c < k; ++c)
+                {
+                    digit[i * k + c] = (digit[i * k + c] + factor * residue[j * k + c]) % prime;
+                }
+            }
+        }
+        return digit;
+    }
+
+    /** @return (residual - A * digit) / prime, in longs */
+    private long[] liftSmall(long[] residual, long[] digit, int k)
+    {
+        long[] next = new long[n * k];
+        for (int i = 0; i < n; ++i)
+        {
+            for (int c = 0; c < k; ++c)
+            {
+                // |A * digit| < 2^62 by wordSized, and so is |residual|, so this cannot overflow
+                long product = 0;
+                for (int j = 0; j < n; ++j)
+                {
+                    product += small[i * n + j] * digit[j * k + c];
+                }
+                next[i * k + c] = (residual[i * k + c] - product) / prime;
+            }
+        }
+        return next;
+    }
+
+    /** @return (residual - A * digit) / prime */
+    private BigInteger[] liftBig(BigInteger[] residual, long[] digit, int k)
+    {
+        BigInteger p = BigInteger.valueOf(prime);
+        BigInteger[] next = new BigInteger[n * k];
+        for (int i = 0; i < n; ++i)
+        {
+            for (int c = 0; c < k; ++c)
+            {
+                BigInteger product = BigInteger.ZERO;
+                for (int j = 0; j < n; ++j)
+                {
+                    if (digit[j * k + c] != 0)
+                        product = product.add(a[i][j].multiply(BigInteger.valueOf(digit[j * k + c])));
+                }
+                next[i * k + c] = residual[i * k + c].subtract(product).divide(p);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return the residual in longs, if lifting can carry on in longs from here, otherwise null
+     */
+    private long[] toSmall(BigInteger[] residual)
+    {
+        if (!wordSized)
+            return null;
+        long[] result = new long[residual.length];
+        for (int e = 0; e < residual.length; ++e)
+        {
+            // below 2^62 the residual stays below 2^62 - see liftSmall
+            if (residual[e].bitLength() >= 62)
+                return null;
+            result[e] = residual[e].longValue();
+        }
+        return result;
+    }
+
+    /**
+     * Tries to reconstruct x from its digits so far
+     *
+     * @param failed holds an entry that failed last time, which is tried on its own
+     * first, or -1; updated to the entry that fails this time
+     * @return x, or null if some entry does not reconstruct yet
+     */
+    private Rational[] reconstruct(ArrayList<long[]> digits, int size, int[] failed)
+    {
+        BigInteger modulus = BigInteger.valueOf(prime).pow(digits.size());
+        BigInteger limit = ModularArithmetic.reconstructionLimit(modulus);
+        HashMap<Integer, BigInteger> powers = new HashMap<>();
+        if (failed[0] >= 0 && ModularArithmetic.reconstruct(combine(digits, failed[0], 0, digits.size(), powers),
+                modulus, limit) == null)
+            return null;
+        Rational[] values = new Rational[size];
+        BigInteger denominator = BigInteger.ONE;
+        for (int e = 0; e < size; ++e)
+        {
+            values[e] = ModularArithmetic.reconstruct(combine(digits, e, 0, digits.size(), powers), modulus, limit,
+                    denominator);
+            if (values[e] == null)
+            {
+                failed[0] = e;
+                return null;
+            }
+            if (denominator.mod(values[e].bigDenominator()).signum() != 0)
+            {
+                BigInteger next = values[e].bigDenominator();
+                denominator = denominator.divide(denominator.gcd(next)).multiply(next);
+            }
+        }
+        return values;
+    }
+
+    /** @return the digits as whole numbers, with no reconstruction */
+    private BigInteger[] combineDigits(ArrayList<long[]> digits, int size)
+    {
+        HashMap<Integer, BigInteger> powers = new HashMap<>();
+        BigInteger[] result = new BigInteger[size];
+        for (int e = 0; e < size; ++e)
+        {
+            result[e] = combine(digits, e, 0, digits.size(), powers);
+        }
+        return result;
+    }
+
+    /**
+     * @return the sum of digit i times prime^(i - from), for i in [from, to), split in
+     * halves so that the big multiplies are balanced
+     */
+    private BigInteger combine(ArrayList<long[]> digits, int e, int from, int to, HashMap<Integer, BigInteger> powers)
+    {
+        if (to - from == 1)
+            return BigInteger.valueOf(digits.get(from)[e]);
+        if (to == from)
+            return BigInteger.ZERO;
+        int middle = (from + to) >>> 1;
+        BigInteger low = combine(digits, e, from, middle, powers);
+        BigInteger high = combine(digits, e, middle, to, powers);
+        if (high.signum() == 0)
+            return low;
+        BigInteger power = powers.computeIfAbsent(middle - from, length -> BigInteger.valueOf(prime).pow(length));
+        return low.add(high.multiply(power));
+    }
+
+    /**
+     * @return true if A * values = target, exactly
+     */
+    private boolean check(Rational[] values, BigInteger[] target, int k)
+    {
+        // clear the denominators, so A * (d * x) = d * b is checked in integers
+        BigInteger d = BigInteger.ONE;
+        for (Rational value : values)
+        {
+            BigInteger denominator = value.bigDenominator();
+            d = d.divide(d.gcd(denominator)).multiply(denominator);
+        }
+        BigInteger[] scaled = new BigInteger[values.length];
+        for (int e = 0; e < values.length; ++e)
+        {
+            scaled[e] = values[e].bigNumerator().multiply(d.divide(values[e].bigDenominator()));
+        }
+        for (int i = 0; i < n; ++i)
+        {
+            for (int c = 0; c < k; ++c)
+            {
+                BigInteger sum = BigInteger.ZERO;
+                for (int j = 0; j < n; ++j)
+                {
+                    if (a[i][j].signum() != 0)
+                        sum = sum.add(a[i][j].multiply(scaled[j * k + c]));
+                }
+                if (!sum.equals(target[i * k + c].multiply(d)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private Matrix toMatrix(Rational[] values, int k)
+    {
+        ArrayList<Number[]> rows = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i)
+        {
+            Number[] row = new Number[k];
+            System.arraycopy(values, i * k, row, 0, k);
+            rows.add(row);
+        }
+        return new Matrix(rows);
+    }
+}
@@ -3,7 +3,11 @@ public class Driver
 {
     public static void main(String[] args)
     {
-        
+        // with --serve, run a solver server (see SolverServer); with other arguments, run a script with no prompts (see ScriptRunner)
+        if (args.length > 0 && args[0].equals("--serve"))
+            System.exit(SolverServer.run(args));
+        if (args.length > 0)
+            System.exit(ScriptRunner.run(args));
         
         //System.out.println(
         //        8 | 1 * 10 % (4+3) * (4 | 1));
@@ -0,0 +1,255 @@
+/**
+ * LU factorization, with partial pivoting, of a square matrix of doubles:
+ * P * A = L * U, where L is unit lower triangular and U is upper triangular.
+ * Factoring costs O(n^3) once; after that each right-hand side is solved by a
+ * forward and a back substitution in O(n^2), so Ax = b can be solved for many b
+ * without row-reducing A again. See RationalLUDecomposition for exact matrices.
+ */
+public class LUDecomposition
+{
+    /** L (below the diagonal, unit diagonal implied) and U (on and above it), row-major */
+    private final double[] lu;
+    /** The size of the matrix */
+    private final int n;
+    /** for each column, the largest entry that counts as zero when choosing a pivot */
+    private final double[] tolerance;
+    /** pivot[i] is the row of A that ended up in row i */
+    private final int[] pivot;
+    /** +1 or -1, the sign of the row permutation */
+    private int permutationSign = 1;
+    /** true if some column had no usable pivot */
+    private boolean singular;
+
+    /**
+     * Constructor. Factors the matrix, which is not changed
+     *
+     * @param matrix a square matrix
+     * @throws MatrixException if the matrix is not square
+     */
+    public LUDecomposition(Matrix matrix) throws MatrixException
+    {
+        this(DenseDoubleMatrix.fromMatrix(matrix));
+    }
+
+    /**
+     * Constructor. Factors the matrix, which is not changed
+     *
+     * @param matrix a square matrix
+     * @throws MatrixException if the matrix is not square
+     */
+    public LUDecomposition(DenseDoubleMatrix matrix) throws MatrixException
+    {
+        if (matrix.getRows() != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so it has no LU factorization!");
+        n = matrix.getRows();
+        lu = matrix.getData().clone();
+        tolerance = matrix.columnTolerances(n);
+        pivot = new int[n];
+        for (int i = 0; i < n; ++i)
+        {
+            pivot[i] = i;
+        }
+        factor();
+    }
+
+    /**
+     * Doolittle elimination with partial pivoting. The multipliers are stored in
+     * place of the entries they eliminate.
+     */
+    private void factor()
+    {
+        for (int k = 0; k < n; ++k)
+        {
+            // partial pivoting - use the largest entry left in the column
+            int best = k;
+            double bestValue = Math.abs(lu[k * n + k]);
+            for (int i = k + 1; i < n; ++i)
+            {
+                double value = Math.abs(lu[i * n + k]);
+                if (value > bestValue)
+                {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            if (bestValue <= tolerance[k])
+            {
+                singular = true;
+                continue;
+            }
+            if (best != k)
+            {
+                swapRows(best, k);
+                permutationSign = -permutationSign;
+            }
+            double diagonal = lu[k * n + k];
+            for (int i = k + 1; i < n; ++i)
+            {
+                int offset = i * n;
+                double multiplier = lu[offset + k] / diagonal;
+                lu[offset + k] = multiplier;
+                if (multiplier == 0.0)
+                    continue;
+                int pivotOffset = k * n;
+                for (int j = k + 1; j < n; ++j)
+                {
+                    lu[offset + j] -= multiplier * lu[pivotOffset + j];
+                }
+            }
+        }
+    }
+
+    private void swapRows(int row1, int row2)
+    {
+        for (int j = 0; j < n; ++j)
+        {
+            double temp = lu[row1 * n + j];
+            lu[row1 * n + j] = lu[row2 * n + j];
+            lu[row2 * n + j] = temp;
+        }
+        int temp = pivot[row1];
+        pivot[row1] = pivot[row2];
+        pivot[row2] = temp;
+    }
+
+    /** @return true if the matrix is (numerically) singular, so it cannot be solved against */
+    public boolean isSingular()
+    {
+        return singular;
+    }
+
+    /** @return the determinant of the matrix, the signed product of U's diagonal */
+    public double determinant()
+    {
+        if (singular)
+            return 0.0;
+        double determinant = permutationSign;
+        for (int i = 0; i < n; ++i)
+        {
+            determinant *= lu[i * n + i];
+        }
+        return determinant;
+    }
+
+    /** @return a copy of the pivot rows: row i of P * A is row pivot[i] of A */
+    public int[] getPivot()
+    {
+        return pivot.clone();
+    }
+
+    /** @return L, unit lower triangular */
+    public DenseDoubleMatrix getL()
+    {
+        DenseDoubleMatrix l = new DenseDoubleMatrix(n, n);
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = 0; j < i; ++j)
+            {
+                l.set(i, j, lu[i * n + j]);
+            }
+            l.set(i, i, 1.0);
+        }
+        return l;
+    }
+
+    /** @return U, upper triangular */
+    public DenseDoubleMatrix getU()
+    {
+        DenseDoubleMatrix u = new DenseDoubleMatrix(n, n);
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = i; j < n; ++j)
+            {
+                u.set(i, j, lu[i * n + j]);
+            }
+        }
+        return u;
+    }
+
+    /**
+     * Solves Ax = b
+     *
+     * @param b the right-hand side, of length n
+     * @return x
+     * @throws MatrixException if the matrix is singular or b is the wrong length
+     */
+    public double[] solve(double[] b) throws MatrixException
+    {
+        return solve(new DenseDoubleMatrix(b.clone(), b.length, 1)).getData();
+    }
+
+    /**
+     * Solves AX = B for a whole block of right-hand sides (the columns of B) in one
+     * pass over L and U
+     *
+     * @param b the right-hand sides, n rows
+     * @return X, with the same shape as B
+     * @throws MatrixException if the matrix is singular or B has the wrong number of rows
+     */
+    public DenseDoubleMatrix solve(DenseDoubleMatrix b) throws MatrixException
+    {
+        if (b.getRows() != n)
+            throw new MatrixException("Cannot solve, the right-hand side does not have " + n + " rows");
+        if (singular)
+            throw new MatrixException("The matrix is singular, so there is no unique solution!");
+        int m = b.getColumns();
+        double[] source = b.getData();
+        double[] x = new double[n * m];
+        // apply the permutation
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(source, pivot[i] * m, x, i * m, m);
+        }
+        // forward substitution, Ly = Pb - each step updates a whole row of right-hand sides
+        for (int i = 0; i < n; ++i)
+        {
+            int offset = i * m;
+            for (int k = 0; k < i; ++k)
+            {
+                double lik = lu[i * n + k];
+                if (lik == 0.0)
+                    continue;
+                int kOffset = k * m;
+                for (int j = 0; j < m; ++j)
+                {
+                    x[offset + j] -= lik * x[kOffset + j];
+                }
+            }
+        }
+        // back substitution, Ux = y
+        for (int i = n - 1; i >= 0; --i)
+        {
+            int offset = i * m;
+            for (int k = i + 1; k < n; ++k)
+            {
+                double uik = lu[i * n + k];
+                if (uik == 0.0)
+                    continue;
+                int kOffset = k * m;
+                for (int j = 0; j < m; ++j)
+                {
+                    x[offset + j] -= uik * x[kOffset + j];
+                }
+            }
+            double diagonal = lu[i * n + i];
+            for (int j = 0; j < m; ++j)
+            {
+                x[offset + j] /= diagonal;
+            }
+        }
+        return new DenseDoubleMatrix(x, n, m);
+    }
+
+    /**
+     * Solves AX = B
+     *
+     * @param b the right-hand sides, as the columns of a matrix with n rows
+     * @return X
+     * @throws MatrixException if the matrix is singular or B has the wrong number of rows
+     */
+    public Matrix solve(Matrix b) throws MatrixException
+    {
+        DenseDoubleMatrix rhs = DenseDoubleMatrix.fromMatrix(b);
+        return new Matrix(solve(rhs));
+    }
+}
@@ -1,11 +1,8 @@
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Scanner;
 
 public class LinearAlgebraDriver
@@ -21,12 +18,16 @@ public class LinearAlgebraDriver
     private static final int SETTINGS = 7;
     private static final int QUIT = 8;
     
-    // to hold the matrices
-    public ArrayList<Matrix> matrices = new ArrayList<>();
+    // to hold the matrices - ones imported from workspace files aren't read until they're selected
+    public MatrixRegistry matrices = new MatrixRegistry();
+    // results already worked out, by the contents of the matrix, so repeats are instant
+    public ResultCache results = new ResultCache();
     
     // settings
     public boolean toPrint = false;
     public boolean toClone = true;
+    public MatrixMath.Engine engine = MatrixMath.Engine.GAUSS_JORDAN;
+    public boolean toVerify = false;
     
     // Basically, the constructor runs the menu loop 
     public LinearAlgebraDriver()
@@ -95,21 +96,18 @@ public class LinearAlgebraDriver
     private String enterMatrix(Scanner keyboard) {
         System.out.println("Enter the name of your matrix, then press enter.");
         String name = keyboard.next();
-        // check if the matrices list contains a matrix with that name already
-        for (Matrix matrix : matrices) 
+        // check if there's a matrix with that name already
+        if (matrices.contains(name))
         {
-            if (matrix.getName().equals(name))
-            {
-                System.out.println("A Matrix with that name already exists! Try Again!");
-                return enterMatrix(keyboard);   // recursion
-            }
+            System.out.println("A Matrix with that name already exists! Try Again!");
+            return enterMatrix(keyboard);   // recursion
         }
         System.out.println("Type in the matrix, with columns seperated by commas, and rows by semicolons." + "\n"
                 + "Do not use spaces. Press enter when finished");
         String userEntry = keyboard.next();
         Matrix matrix = new Matrix(userEntry);
         matrix.setName(name);
-        matrices.add(matrix);
+        matrices.put(name, matrix);
         return name;
     }
     private String enterMatrix(String name, Scanner keyboard) {
@@ -117,7 +115,7 @@ public class LinearAlgebraDriver
                 + "Do not use spaces. Press enter when finished");
         String userEntry = keyboard.next();
         Matrix matrix = new Matrix(userEntry, name);
-        matrices.add(matrix);
+        matrices.put(name, matrix);
         
         matrix.toString();
         
@@ -127,11 +125,28 @@ public class LinearAlgebraDriver
         System.out.print("Select a matrix from the list to row reduce, ");
         Matrix matrix = selectMatrix(keyboard);
         Matrix toReduce;
-        if (toClone)
-            toReduce = MatrixMath.rref(matrix.clone());
+        if (toPrint) {
+            // trace the elimination, then show its steps
+            RowOperationTrace trace = new RowOperationTrace(matrix.getRows() * matrix.getRows());
+            toReduce = MatrixMath.rref(toClone ? matrix.clone() : matrix, trace);
+            System.out.print(trace.render());
+        }
+        else if (toClone)
+            // the cache never changes the matrix, and keeps the result for next time
+            toReduce = results.rref(matrix, engine);
         else
-            toReduce = MatrixMath.rref(matrix);
+            toReduce = MatrixMath.rref(matrix, engine);
         
+        if (toVerify) {
+            try
+            {
+                MatrixMath.verifyReduced(toReduce);
+            }
+            catch (MatrixException e)
+            {
+                System.out.println(e.getMessage());
+            }
+        }
         System.out.println(toReduce.toString());
     }
     private void identity(Scanner keyboard) {
@@ -141,7 +156,7 @@ public class LinearAlgebraDriver
         //workingMatrix.addIdentity();
         try
         {
-            Matrix toReturn = MatrixMath.identity(workingMatrix);
+            Matrix toReturn = results.inverse(workingMatrix, engine);
             System.out.println(toReturn.toString());
 
         }
@@ -206,7 +221,10 @@ public class LinearAlgebraDriver
                 + "2. Do not change entered matrices. (current: " + toClone + ")\n"
                 + "3. Import matrices\n"
                 + "4. export matrices\n"
-                + "5. Quit");
+                + "5. Exact engine. (current: " + engine + ")\n"
+                + "6. Verify row reductions. (current: " + toVerify + ")\n"
+                + "7. Clear cached results. (current: " + results + ")\n"
+                + "8. Quit");
         int entry = keyboard.nextInt();
         
         if (entry == 1) {
@@ -226,6 +244,20 @@ public class LinearAlgebraDriver
             return settings(keyboard);
         }
         else if (entry == 5) {
+            // cycle through the engines
+            MatrixMath.Engine[] engines = MatrixMath.Engine.values();
+            engine = engines[(engine.ordinal() + 1) % engines.length];
+            return settings(keyboard);
+        }
+        else if (entry == 6) {
+            toVerify = !toVerify;
+            return settings(keyboard); // recursion
+        }
+        else if (entry == 7) {
+            results.clear();
+            return settings(keyboard);
+        }
+        else if (entry == 8) {
             return null;
         } else {
             System.out.println("Invalid entry. Try again.");
@@ -249,24 +281,29 @@ public class LinearAlgebraDriver
     }
     private Matrix selectMatrix(Scanner keyboard) {
         System.out.println("or enter a new name to create a new matrix with that name");
-        for (Matrix matrix : matrices) {
-            System.out.print(matrix.getName() + ", ");
+        for (String name : matrices.names()) {
+            System.out.print(name + ", ");
         }
         System.out.println("");
         String entry = keyboard.next();
-        for (Matrix matrix : matrices) {
-            if (matrix.getName().equals(entry)) {
+        try {
+            // imported matrices are only read in the first time they're selected
+            Matrix matrix = matrices.get(entry);
+            if (matrix != null) {
                 return matrix;
             }
-        }
-        // if we get down here, we don't have a valid name
-        System.out.println("Creating a new Matrix with that name");
-        enterMatrix(entry, keyboard);
-        for (Matrix matrix : matrices) {
-            if (matrix.getName().equals(entry)) {
+            // if we get down here, we don't have a valid name
+            System.out.println("Creating a new Matrix with that name");
+            enterMatrix(entry, keyboard);
+            matrix = matrices.get(entry);
+            if (matrix != null) {
                 return matrix;
             }
         }
+        catch (IOException e) {
+            System.out.println("Error reading " + entry + " from its workspace file! Try again");
+            return selectMatrix(keyboard);
+        }
         // if we get down here, something's gone horribly wrong.
         System.out.println("oops! Try again");
         return selectMatrix(keyboard);
@@ -274,18 +311,13 @@ public class LinearAlgebraDriver
     private void saveMatrices(Scanner keyboard) throws IOException {
         System.out.println("Enter a name for the matrices");
         String fileName = keyboard.next();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(fileName + ".txt"));
-        String strMatrix = "";
-        for (Matrix matrix : matrices) {
-           strMatrix += String.format("%s%n", matrix.getName());
-           strMatrix += String.format("%s%n", matrix.getStringVerision());
-        }
-        bw.write(strMatrix);
-        bw.flush();
-        bw.close();
+        try (Workspace.Writer writer = new Workspace.Writer(new File(fileName + ".ws"))) {
+            // ones still in a workspace file are copied straight across, without decoding them
+            matrices.writeTo(writer, matrices.names());
+        }
     }
     private void importMatrices(Scanner keyboard) {
-        System.out.println("Select a file to import. Type the full name, for example, \"fileName.txt\"");
+        System.out.println("Select a file to import. Type the full name, for example, \"fileName.ws\", \"fileName.mtx\" or \"fileName.txt\"");
         // from https://stackoverflow.com/questions/15482423/how-to-list-the-files-in-current-directory
         File curDir = new File(".");
         File[] filesList = curDir.listFiles();
@@ -324,52 +356,66 @@ public class LinearAlgebraDriver
         return;
     }
     /**
-     * Reads in a file and parses it to create a list of matrix objects
-     * then adds those objects to the matrix list
+     * Reads in a file of matrices. A workspace file (see Workspace) is only opened, and
+     * each matrix is read when it is first selected; a Matrix Market (.mtx) file or a text
+     * file is parsed straight away.
      * 
-     * @param file The file containing the name and string form of a matrix, in the form 
-     * "name1 \n stringMatrix 2 \n name2 \n stringMatrix2". stringMatrices are of the form "1,2,3;4,5,6",
-     * where commas seperate values and semicolons seperate rows.
+     * @param file Either a workspace file, a Matrix Market file named after its matrix, or a text file containing the name and string form of
+     * a matrix, in the form "name1 \n stringMatrix 2 \n name2 \n stringMatrix2". stringMatrices are
+     * of the form "1,2,3;4,5,6", where commas seperate values and semicolons seperate rows.
      * 
      * @throws IOException if the file is not found or cannot be read.
      */
     private void readFromFile(File file) throws IOException {
-        // read the file
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        
-        String name = br.readLine();
-        String strMatrix = br.readLine();
-        
         boolean renamed = false;
         
-        while(name != null && strMatrix != null) {
-           
-            // check if the matrices list contains a matrix with that name already
-            for (Matrix existinMatrix : matrices) 
-            {
-                int i = 1;
-                // while loop to add a number to the new matrix in case it's already named a1 or something like that
-                while (existinMatrix.getName().equals(name))
-                {
-                    renamed = true;
-                    name += i + "";
-                    ++i;
-                }
+        if (Workspace.isWorkspace(file)) {
+            Workspace workspace = Workspace.open(file);
+            for (int i = 0; i < workspace.size(); ++i) {
+                String storedName = workspace.getName(i);
+                String name = matrices.putStoredUnique(storedName, workspace, storedName);
+                renamed |= !name.equals(storedName);
             }
-
-            // put the matrix in the list
-            Matrix matrix = new Matrix(strMatrix, name);
-            matrices.add(matrix);
+        }
+        else if (file.getName().endsWith(".mtx")) {
+            String storedName = file.getName().substring(0, file.getName().length() - 4);
+            int[] percent = { -1 };
+            // mostly-zero files stay sparse, rather than being expanded to every entry
+            Matrix matrix = MatrixMarket.read(file, (done, total) -> {
+                int now = total == 0 ? 100 : (int) (100 * done / total);
+                if (now / 10 != percent[0] / 10) {
+                    System.out.println(now + "%");
+                }
+                percent[0] = now;
+            });
+            String name = matrices.putUnique(storedName, matrix);
+            matrix.setName(name);
+            renamed |= !name.equals(storedName);
+        }
+        else {
+            // read the file
+            BufferedReader br = new BufferedReader(new FileReader(file));
+            
+            String name = br.readLine();
+            String strMatrix = br.readLine();
             
-            // finish out the priming read
-            name = br.readLine();
-            strMatrix = br.readLine();
+            while(name != null && strMatrix != null) {
+                // put the matrix in the list
+                Matrix matrix = new Matrix(strMatrix);
+                String newName = matrices.putUnique(name, matrix);
+                matrix.setName(newName);
+                renamed |= !newName.equals(name);
+                
+                // finish out the priming read
+                name = br.readLine();
+                strMatrix = br.readLine();
+            }
+            br.close();
         }
         // tell the user if we had to rename anything
         if (renamed) {
             System.out.println("One or more of the matrices had to be renamed");
         }
-        br.close();
     }
     public static void debug() {
         // reduced == true
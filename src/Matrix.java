@@ -10,6 +10,10 @@ public class Matrix
 {
     /** The actual matrix, stored as an ArrayList of rows, which are Number[]'s */
     private ArrayList<Number[]> matrix;
+    /** Dense primitive storage, used instead of matrix when every entry is a double */
+    private DenseDoubleMatrix dense;
+    /** Compressed sparse storage, used instead of matrix for doubles that are mostly zero */
+    private SparseMatrix sparse;
     /** The number of rows in the matrix */
     private int numRows;
     /** The number of columns in the matrix */
@@ -33,11 +37,13 @@ public class Matrix
     {
         this.matrix = stringToMatrix(stringMatrix);
         this.name = name;
+        compact();
     }
     public Matrix(String stringMatrix)
     {
         this.matrix = stringToMatrix(stringMatrix);
         name = "";
+        compact();
     }
 
     public Matrix(ArrayList<Number[]> matrix, String name)
@@ -55,6 +61,61 @@ public class Matrix
         numColumns = matrix.get(0).length;
         name = "";
     }
+
+    /**
+     * Constructor. Used to create a matrix backed by dense double storage
+     * 
+     * @param dense
+     * @param name
+     */
+    public Matrix(DenseDoubleMatrix dense, String name)
+    {
+        this.dense = dense;
+        numRows = dense.getRows();
+        numColumns = dense.getColumns();
+        this.name = name;
+    }
+
+    public Matrix(DenseDoubleMatrix dense)
+    {
+        this(dense, "");
+    }
+
+    /**
+     * Constructor. Used to create a matrix backed by sparse double storage
+     * 
+     * @param sparse
+     * @param name
+     */
+    public Matrix(SparseMatrix sparse, String name)
+    {
+        this.sparse = sparse;
+        numRows = sparse.getRows();
+        numColumns = sparse.getColumns();
+        this.name = name;
+    }
+
+    public Matrix(SparseMatrix sparse)
+    {
+        this(sparse, "");
+    }
+
+    /**
+     * Switches to dense double storage if every entry of the matrix is a double
+     */
+    private void compact()
+    {
+        for (Number[] row : matrix)
+        {
+            for (Number number : row)
+            {
+                if (!number.getClass().equals(Double.class))
+                    return;
+            }
+        }
+        dense = DenseDoubleMatrix.fromRows(matrix);
+        matrix = null;
+    }
     
     private ArrayList<Number[]> stringToMatrix(String toParse)
     {
@@ -94,15 +155,15 @@ public class Matrix
                 {
                     // split it so we have the numerator and denominator
                     String[] fractionString = strRow[index].split("/");
-                    // convert the String[] to ints
-                    int numerator = Integer.parseInt(fractionString[0]);
-                    int denominator = Integer.parseInt(fractionString[1]);
-                    number = new Rational(numerator, denominator);
+                    // convert the String[] to longs
+                    long numerator = Long.parseLong(fractionString[0]);
+                    long denominator = Long.parseLong(fractionString[1]);
+                    number = Rational.of(numerator, denominator);
                 }
                 else
                 {
                     // otherwise, create a rational with the parsed number and 1 as the denominator
-                    number = new Rational(Integer.parseInt(strRow[index]), 1);
+                    number = Rational.of(Long.parseLong(strRow[index]), 1);
                 }
 
                 rationalRow[index] = number;
@@ -119,28 +180,19 @@ public class Matrix
      */
     public Matrix clone()
     {
-        ArrayList<Number[]> toReturn = new ArrayList<>();
+        if (dense != null)
+            return new Matrix(dense.clone(), name);
+        // sparse storage is never changed, so it can be shared
+        if (sparse != null)
+            return new Matrix(sparse, name);
+
+        ArrayList<Number[]> toReturn = new ArrayList<>(numRows);
 
-        // create a copy of each element - requires two loops
+        // copy the rows - the entries themselves are Rationals and Doubles, which never
+        // change, so they are shared rather than copied
         for (Number[] row : matrix)
         {
-            Number[] newRow = new Number[numColumns];
-            for (int j = 0; j < numColumns; ++j)
-            {
-                // makes a copy of the rationals
-                if (row[j].getClass().equals(Rational.class))
-                {
-                    // typcasting is bad but we checked for it
-                    Rational number = (Rational) row[j];
-                    newRow[j] = number.clone();
-                }
-                else // otherwise, it's a double, so we don't need to do anything
-                {
-                    double number = (double) row[j];
-                    newRow[j] = new Double(number);
-                }
-            }
-            toReturn.add(newRow);
+            toReturn.add(row.clone());
         }
 
         return new Matrix(toReturn, name);
@@ -152,22 +204,22 @@ public class Matrix
      */
     @Override
     public String toString() {
-        String stringMatrix = "";
-        for (Number[] row : this.matrix) {
+        StringBuilder stringMatrix = new StringBuilder();
+        for (Number[] row : getMatrix()) {
             for (Number number : row) {
                 if (number.getClass().equals(Rational.class))
                 {
                     String strNumber = number.toString();  
-                    stringMatrix = stringMatrix + String.format("%-6s", strNumber);
+                    stringMatrix.append(String.format("%-6s", strNumber));
                 }
                 else
                 {
-                    stringMatrix += String.format("%-6.2f", number);
+                    stringMatrix.append(String.format("%-6.2f", number));
                 }
             }
-            stringMatrix += "\n";
+            stringMatrix.append("\n");
         }
-        return stringMatrix;
+        return stringMatrix.toString();
     }
     
     /**
@@ -175,27 +227,69 @@ public class Matrix
      * @return
      */
     public String getStringVerision() {
-        String strMatrix = "";
-        for (Number[] row : matrix) {
+        StringBuilder strMatrix = new StringBuilder();
+        for (Number[] row : getMatrix()) {
+            // a ";" ends every row but the last
+            if (strMatrix.length() > 0)
+                strMatrix.append(ROW_DELINEATOR);
             for (int i = 0; i < row.length; ++i) {
-                strMatrix += row[i] + COLUMN_DELINEATOR;
+                if (i > 0)
+                    strMatrix.append(COLUMN_DELINEATOR);
+                strMatrix.append(row[i]);
             }
-            // remove the extra comma at the end of the line
-            int last = strMatrix.length() - 1;
-            strMatrix = strMatrix.substring(0, last);
-            // adds a ";" to indicate the end of the row
-            strMatrix += ROW_DELINEATOR;
         }
-        // remove the extra semicolon at the end of the matrix
-        int last = strMatrix.length() - 1;
-        strMatrix = strMatrix.substring(0, last);
-        
-        return strMatrix;
+        return strMatrix.toString();
     }
-    /** @return the matrix */
+    /**
+     * @return the matrix. If it is stored densely or sparsely it is boxed into new
+     *         rows, and keeps its storage, so changes to them do not stick - see convertToRows.
+     */
     public ArrayList<Number[]> getMatrix() {
+        if (dense != null)
+            return dense.toRows();
+        if (sparse != null)
+            return sparse.toRows();
         return this.matrix;
     }
+    /**
+     * Switches a densely or sparsely stored matrix to rows for good, for callers that
+     * change the rows in place. Dense and sparse matrices lose their fast kernels, so
+     * only convert when the rows really are going to be changed
+     * @return the rows, which are the storage from now on, so changes to them stick
+     */
+    public ArrayList<Number[]> convertToRows() {
+        if (dense != null) {
+            matrix = dense.toRows();
+            dense = null;
+        }
+        if (sparse != null) {
+            matrix = sparse.toRows();
+            sparse = null;
+        }
+        return this.matrix;
+    }
+    /** @return the dense double storage, or null if this matrix is not stored densely */
+    public DenseDoubleMatrix getDense() {
+        return this.dense;
+    }
+    /** @return true if this matrix is stored densely as doubles */
+    public boolean isDense() {
+        return this.dense != null;
+    }
+    /** @return the sparse double storage, or null if this matrix is not stored sparsely */
+    public SparseMatrix getSparse() {
+        return this.sparse;
+    }
+    /** @return true if this matrix is stored sparsely as doubles */
+    public boolean isSparse() {
+        return this.sparse != null;
+    }
+    /** @return the entries as dense doubles - a copy if they are stored sparsely - or null if they are stored as rows */
+    private DenseDoubleMatrix doubles() {
+        if (sparse != null)
+            return sparse.toDense();
+        return dense;
+    }
     /** @return the number of rows of the matrix */
     public int getRows() {
         return this.numRows;
@@ -217,9 +311,22 @@ public class Matrix
     public void add(Matrix matrix) throws MatrixException {
         if (numRows != matrix.getRows() || numColumns != matrix.getColumns())
             throw new MatrixException("Cannot add, matrices are not the same size");
+        if (sparse != null && matrix.isSparse()) {
+            sparse = sparse.add(matrix.getSparse());
+            return;
+        }
+        DenseDoubleMatrix left = doubles();
+        DenseDoubleMatrix right = matrix.doubles();
+        if (left != null && right != null) {
+            left.add(right);
+            dense = left;
+            sparse = null;
+            return;
+        }
+        ArrayList<Number[]> rows = convertToRows();
         ArrayList<Number[]> toAdd = matrix.getMatrix();
         for (int i = 0; i < numRows; ++i) {
-            Number[] row = this.matrix.get(i);
+            Number[] row = rows.get(i);
             Number[] rowToAdd = toAdd.get(i);
             for (int j = 0; j < numColumns; ++j) {
                 if (row[j].getClass().equals(Rational.class) && rowToAdd[j].getClass().equals(Rational.class))
@@ -229,39 +336,81 @@ public class Matrix
             }
         }
     }
+    /**
+     * Multiplies this matrix by matrix (this * matrix), replacing this matrix
+     * with the product
+     * @param matrix the right operand
+     * @throws MatrixException if the dimensions don't line up
+     */
     public void multiply(Matrix matrix) throws MatrixException {
         if (numColumns != matrix.getRows())
             throw new MatrixException("Cannot multiple, matrices do not have corresponding dimmensions");
+        if (sparse != null && matrix.isSparse()) {
+            sparse = sparse.multiply(matrix.getSparse());
+            numColumns = sparse.getColumns();
+            return;
+        }
+        DenseDoubleMatrix left = doubles();
+        DenseDoubleMatrix right = matrix.doubles();
+        if (left != null && right != null) {
+            dense = left.multiply(right);
+            sparse = null;
+            numColumns = dense.getColumns();
+            return;
+        }
+        ArrayList<Number[]> rows = getMatrix();
         ArrayList<Number[]> toMultiply = matrix.getMatrix();
-        // multiply columns of toMuliply by the rows of this
-        for (int i = 0; i < matrix.getRows(); ++i) {
-            Number[] row = this.matrix.get(i);
-            Number[] rowToBuild;
-            for (int j = 0; j < matrix.getColumns(); ++j) {
-                rowToBuild = new Number[row.length];
-                // build rowToBuild
-                for (int k = 0; k < rowToBuild.length; ++k) {
-                    rowToBuild[k] = Rational.zero;
-                } 
-                // build the column to do the dot product over
-                Number[] columnToMultiply = new Number[matrix.getRows()];
-                for (int k = 0; k < matrix.getRows(); ++k ) {
-                    columnToMultiply[k] = toMultiply.get(k)[j];
-                }
-                
+        if (isAllRational(rows) && isAllRational(toMultiply)) {
+            RationalMatrix product = MatrixMultiply.multiply(RationalMatrix.fromRows(rows),
+                    RationalMatrix.fromRows(toMultiply));
+            this.matrix = product.toRows();
+            dense = null;
+            sparse = null;
+            numColumns = product.getColumns();
+            return;
+        }
+        // mixed rationals and doubles - each entry stays a Rational as long as every term is
+        ArrayList<Number[]> product = new ArrayList<>();
+        int newColumns = matrix.getColumns();
+        for (int i = 0; i < numRows; ++i) {
+            Number[] row = rows.get(i);
+            Number[] rowToBuild = new Number[newColumns];
+            for (int j = 0; j < newColumns; ++j) {
                 // do the dot product on the row / column
-                for (int k = 0; k < columnToMultiply.length; ++k) {
-                    if (row[j].getClass().equals(Rational.class) 
-                            && columnToMultiply[k].getClass().equals(Rational.class)
-                            && rowToBuild[k].getClass().equals(Rational.class))
-                        rowToBuild[k] = ((Rational)rowToBuild[k])
-                                .plus(
-                                        ((Rational) row[k]).times((Rational) columnToMultiply[k]));
-                    else
-                        rowToBuild[k] = rowToBuild[k].doubleValue() 
-                                + ( row[k].doubleValue() * columnToMultiply[k].doubleValue());
-                }               
+                Rational rationalSum = Rational.zero;
+                double doubleSum = 0.0;
+                boolean rational = true;
+                for (int k = 0; k < numColumns; ++k) {
+                    Number term = toMultiply.get(k)[j];
+                    if (rational && row[k].getClass().equals(Rational.class)
+                            && term.getClass().equals(Rational.class)) {
+                        rationalSum = rationalSum.plus(((Rational) row[k]).times((Rational) term));
+                    } else {
+                        if (rational) {
+                            doubleSum = rationalSum.doubleValue();
+                            rational = false;
+                        }
+                        doubleSum += row[k].doubleValue() * term.doubleValue();
+                    }
+                }
+                rowToBuild[j] = rational ? rationalSum : (Number) doubleSum;
+            }
+            product.add(rowToBuild);
+        }
+        this.matrix = product;
+        dense = null;
+        sparse = null;
+        numColumns = newColumns;
+    }
+    
+    /** @return true if every entry of the rows is a Rational */
+    static boolean isAllRational(ArrayList<Number[]> rows) {
+        for (Number[] row : rows) {
+            for (Number number : row) {
+                if (!number.getClass().equals(Rational.class))
+                    return false;
             }
         }
+        return true;
     }
 }
\ No newline at end of file
@@ -7,20 +7,11 @@ public class Matrix2
     private int numColumns;
     private String name;
     // finals to limit object creation
-    private static final Rational ZERO = new Rational(0, 1);
-    private static final Rational ONE = new Rational(1, 1);
+    private static final Rational ZERO = Rational.zero;
+    private static final Rational ONE = Rational.one;
     
-    // All of these are for the printRowOperations method
-    // and for better displaying the reduced matrix
-    private enum rowOperation {
-        swap,
-        scale,
-        add,
-        none;
-    }
-    private rowOperation currentRowOperation;
-    private Rational rationalScaleFactor;
-    private boolean toPrint = false;
+    // records the row operations while rref is printing them, otherwise null
+    private RowOperationTrace trace;
 
     
     public Matrix2(ArrayList<Rational[]> matrix, int rows, int columns, String name)
@@ -67,10 +58,10 @@ public class Matrix2
                     // convert the String[] to ints
                     int numerator = Integer.parseInt(fractionString[0]);
                     int denominator = Integer.parseInt(fractionString[1]);
-                    number = new Rational(numerator, denominator);
+                    number = Rational.of(numerator, denominator);
                 } else {
                     // otherwise, create a rational with the parsed number and 1 as the denominator
-                    number = new Rational(Integer.parseInt(strRow[index]), 1);
+                    number = Rational.of(Integer.parseInt(strRow[index]), 1);
                 }
                 
                 rationalRow[index] = number;
@@ -83,7 +74,8 @@ public class Matrix2
     public void rref(boolean toPrint)
     {
         if (toPrint) {
-            this.toPrint = true;
+            trace = new RowOperationTrace(numRows * numRows);
+            trace.start(numRows);
         }
         
         // TODO: create a deep clone of the matrix
@@ -102,7 +94,6 @@ public class Matrix2
             // If the first number of the first row is zero, we need to swap some things
             if (workingRowIndex == 0 && workingRow[0].equals(ZERO)) {
                 // find an appropriate row, then swap it
-                currentRowOperation = rowOperation.swap;
                 toReduce = swapRows(toReduce, 0, findRowsToSwap(toReduce, 0));
             }
             
@@ -136,12 +127,10 @@ public class Matrix2
             // If the term is not a one, scale the row so that it is.
             // TODO: Add a check for if the entry is alread one for efficency reasons
             if (!workingRow[workingColumnIndex].equals(ZERO)) {
-                
-                // printing things out
-                currentRowOperation = rowOperation.scale;
-                displayRowOperations(workingRowIndex, 0); // the 0 doesn't alter it, just didn't want to deal with overloading
-
                 Rational scaleFactor = findScaleFactor(workingRow[workingColumnIndex], ONE);
+                if (trace != null) {
+                    trace.scale(workingRowIndex, scaleFactor);
+                }
                 
                 workingRow = scaleRow(workingRow, scaleFactor);
 
@@ -150,8 +139,7 @@ public class Matrix2
             }
             
             // now that the term is a leading 1, reduce the rest of the column
-            // passes workingRowIndex so that it we can call diplayRowOperations
-            // this isn't the best way to do it, but it's *A* way to do it, and I'm lazy
+            // passes workingRowIndex so that the operations can be traced
             reduceColumn(toReduce, workingRowIndex, workingColumnIndex, workingRowIndex);
             
 
@@ -167,31 +155,19 @@ public class Matrix2
                         
         }
         // Congrats, matrix is reduced!        
-    }
-    
-    
-    private void displayRowOperations(int row1, int row2) {
-        if (!toPrint) {
-            return;
-        }
-        
-        switch (currentRowOperation) {
-            case swap : System.out.println("R " + row1 + " <-> R" + row2);
-                break;
-            case scale : System.out.println(rationalScaleFactor + " R" + row1 + " -> R" + row1);
-                break;
-            case add : System.out.println(rationalScaleFactor + " R" + row1 + " + R" + row2 + " -> R" + row2);
-                break;
-            case none : break;
+        // print the steps now, rather than slowing down the elimination with them
+        if (trace != null) {
+            System.out.print(trace.render());
+            trace = null;
         }
     }
+    
     private int findRowsToSwap(ArrayList<Rational[]> toSearch, int rowToSwap) {
         // Look for a row that doesn't start with a zero.
         // If we find one, swap it with the row in question.
         int i = 0;
         for (Rational[] toCheck : toSearch) {
             if (!toCheck[0].equals(ZERO)) {
-                displayRowOperations(rowToSwap, i);
                 return i;
             }
             ++i;
@@ -206,12 +182,13 @@ public class Matrix2
         Rational[] temp = toSwap.get(row1);
         toSwap.set(row1, toSwap.get(row2));
         toSwap.set(row2, temp);
+        if (trace != null) {
+            trace.swap(row1, row2);
+        }
         return toSwap;
     }
     private Rational findScaleFactor(Rational termToReduce, Rational toReduceTo) {
-        Rational scaleFactor = toReduceTo.divides(termToReduce);
-        rationalScaleFactor = scaleFactor;
-        return scaleFactor;
+        return toReduceTo.divides(termToReduce);
     }
     private Rational[] scaleRow(Rational[] toScale, Rational scaleFactor) {
         Rational[] newRow = new Rational[toScale.length];
@@ -231,12 +208,11 @@ public class Matrix2
     }
     private Rational[] scaleAndAddRows(Rational[] toScaleAndAdd, Rational[] toAddTo, int columnIndex, int toScaleAndAddRowNum,
             int toAddtoRowNum) {  
-        
-        currentRowOperation = rowOperation.add; 
-        displayRowOperations(toScaleAndAddRowNum, toAddtoRowNum);
-        
         // creates a the Rational that, when multiplied to toScaleAndAdd and then added to toAddTo, will make the column entry 0
-        Rational scaleFactor = new Rational(-1, 1).times(findScaleFactor(toScaleAndAdd[columnIndex], toAddTo[columnIndex]));       
+        Rational scaleFactor = findScaleFactor(toScaleAndAdd[columnIndex], toAddTo[columnIndex]).negate();       
+        if (trace != null) {
+            trace.add(scaleFactor, toScaleAndAddRowNum, toAddtoRowNum);
+        }
         Rational[] rowToAdd =  scaleRow(toScaleAndAdd, scaleFactor);
         Rational[] toReturn = addRows(rowToAdd, toAddTo);
         return toReturn;
@@ -254,7 +230,7 @@ public class Matrix2
             // get the row we're going to modify so that we can pass it to scaleAndAdd
             Rational[] rowToReduce = toReduce.get(i);
             // then reduce (aka scaleAndAdd) that row, then set the replace the old row with the new row in the matrix
-            // passes in the row numbers so that displayRowOperations can be called from scaleAndAddRows
+            // passes in the row numbers so that scaleAndAddRows can trace the operation
             toReduce.set(i, scaleAndAddRows(workingRow, rowToReduce, columnIndex, workingRowIndex, modifyingRow));
         }
         return toReduce;
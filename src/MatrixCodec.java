@@ -0,0 +1,401 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * A compact binary form for matrices. Each matrix is written as:
+ *   element type (byte) - DOUBLES, RATIONALS or MIXED
+ *   rows, columns (varints)
+ *   the entries, row by row
+ * For DOUBLES every entry is a raw 8-byte IEEE double. Otherwise each entry
+ * starts with a varint whose low two bits are a tag:
+ *   INTEGER   the rest of the varint is the zig-zagged value
+ *   FRACTION  the rest of the varint is the zig-zagged numerator, then the denominator follows as a varint
+ *   BIG       the numerator and denominator follow as length-prefixed two's-complement bytes
+ *   DOUBLE    a raw 8-byte IEEE double follows (MIXED only)
+ * Varints are 7 bits per byte, low bits first, with the top bit set on every byte
+ * but the last, so small numbers - the common case - take a byte or two.
+ *
+ * A Writer and a Reader stream matrices through a reusable ByteBuffer, to or from
+ * a channel, so a file of any size is handled in fixed memory. A Reader can also
+ * read straight out of a ByteBuffer, such as a mapped file.
+ */
+public class MatrixCodec
+{
+    /** Every entry is a double */
+    public static final byte DOUBLES = 0;
+    /** Every entry is a Rational */
+    public static final byte RATIONALS = 1;
+    /** Rationals and doubles */
+    public static final byte MIXED = 2;
+
+    private static final int INTEGER = 0;
+    private static final int FRACTION = 1;
+    private static final int BIG = 2;
+    private static final int DOUBLE = 3;
+
+    /** The largest magnitude that still fits in a tagged varint */
+    private static final long SMALL_LIMIT = 1L << 60;
+    /** The most bytes one entry can need, apart from BIG ones */
+    private static final int MAX_ENTRY_SIZE = 20;
+    /** The default size of a Writer's or Reader's buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes matrices to a channel, through a buffer
+     */
+    public static class Writer
+    {
+        private final WritableByteChannel channel;
+        private ByteBuffer buffer;
+        /** the bytes handed to the channel so far */
+        private long flushed;
+
+        public Writer(WritableByteChannel channel)
+        {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        /** @return the number of bytes written so far, including any still in the buffer */
+        public long position()
+        {
+            return flushed + buffer.position();
+        }
+
+        /**
+         * Writes one matrix
+         *
+         * @param matrix the matrix to write
+         * @throws IOException if the channel cannot be written
+         */
+        public void write(Matrix matrix) throws IOException
+        {
+            if (matrix.isDense() || matrix.isSparse())
+            {
+                writeDoubles(DenseDoubleMatrix.fromMatrix(matrix));
+                return;
+            }
+            ArrayList<Number[]> rows = matrix.getMatrix();
+            byte type = elementType(rows);
+            ensure(11);
+            buffer.put(type);
+            putVarint(matrix.getRows());
+            putVarint(matrix.getColumns());
+            for (Number[] row : rows)
+            {
+                for (Number number : row)
+                {
+                    if (type == DOUBLES)
+                    {
+                        ensure(8);
+                        buffer.putDouble(number.doubleValue());
+                    }
+                    else
+                    {
+                        writeEntry(number);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copies an already encoded matrix (eg from Workspace) without decoding it
+         */
+        public void writeEncoded(ByteBuffer encoded) throws IOException
+        {
+            ByteBuffer source = encoded.duplicate();
+            while (source.hasRemaining())
+            {
+                ensure(1);
+                int length = Math.min(source.remaining(), buffer.remaining());
+                ByteBuffer chunk = source.slice(source.position(), length);
+                buffer.put(chunk);
+                source.position(source.position() + length);
+            }
+        }
+
+        /**
+         * Hands everything buffered to the channel
+         */
+        public void flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void writeDoubles(DenseDoubleMatrix dense) throws IOException
+        {
+            ensure(11);
+            buffer.put(DOUBLES);
+            putVarint(dense.getRows());
+            putVarint(dense.getColumns());
+            double[] data = dense.getData();
+            int next = 0;
+            while (next < data.length)
+            {
+                ensure(8);
+                // as many as fit, in one bulk copy
+                int length = Math.min(data.length - next, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(data, next, length);
+                buffer.position(buffer.position() + 8 * length);
+                next += length;
+            }
+        }
+
+        private void writeEntry(Number number) throws IOException
+        {
+            if (!(number instanceof Rational))
+            {
+                ensure(9);
+                putVarint(DOUBLE);
+                buffer.putDouble(number.doubleValue());
+                return;
+            }
+            Rational rational = (Rational) number;
+            if (!rational.isBig())
+            {
+                long numerator = rational.numerator();
+                long denominator = rational.denominator();
+                if (-SMALL_LIMIT < numerator && numerator < SMALL_LIMIT)
+                {
+                    ensure(MAX_ENTRY_SIZE);
+                    long zigZag = (numerator << 1) ^ (numerator >> 63);
+                    if (denominator == 1)
+                    {
+                        putVarint(zigZag << 2 | INTEGER);
+                    }
+                    else
+                    {
+                        putVarint(zigZag << 2 | FRACTION);
+                        putVarint(denominator);
+                    }
+                    return;
+                }
+            }
+            byte[] numerator = rational.bigNumerator().toByteArray();
+            byte[] denominator = rational.bigDenominator().toByteArray();
+            ensure(3 * 10 + numerator.length + denominator.length);
+            putVarint(BIG);
+            putVarint(numerator.length);
+            buffer.put(numerator);
+            putVarint(denominator.length);
+            buffer.put(denominator);
+        }
+
+        /** makes sure there are at least size bytes free in the buffer */
+        private void ensure(int size) throws IOException
+        {
+            if (buffer.remaining() >= size)
+                return;
+            flush();
+            if (buffer.capacity() < size)
+                buffer = ByteBuffer.allocate(size);
+        }
+
+        private void putVarint(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    /**
+     * Reads matrices from a channel or a ByteBuffer
+     */
+    public static class Reader
+    {
+        /** null when reading straight from a buffer */
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        public Reader(ReadableByteChannel channel)
+        {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+        }
+
+        /**
+         * Reads from the buffer's position up to its limit. The buffer itself is not
+         * changed
+         */
+        public Reader(ByteBuffer encoded)
+        {
+            this.channel = null;
+            this.buffer = encoded.duplicate();
+        }
+
+        /**
+         * @return true if there is another matrix to read
+         */
+        public boolean hasNext() throws IOException
+        {
+            return buffer.hasRemaining() || fill();
+        }
+
+        /**
+         * Reads one matrix
+         *
+         * @return the matrix
+         * @throws IOException if the channel cannot be read, or the data is damaged
+         */
+        public Matrix read() throws IOException
+        {
+            byte type = readByte();
+            int rows = readSize();
+            int columns = readSize();
+            if (type == DOUBLES)
+            {
+                double[] data = new double[Math.multiplyExact(rows, columns)];
+                int next = 0;
+                while (next < data.length)
+                {
+                    if (buffer.remaining() < 8 && !fill())
+                        throw new EOFException("The matrix data ends early");
+                    int length = Math.min(data.length - next, buffer.remaining() / 8);
+                    buffer.asDoubleBuffer().get(data, next, length);
+                    buffer.position(buffer.position() + 8 * length);
+                    next += length;
+                }
+                return new Matrix(new DenseDoubleMatrix(data, rows, columns));
+            }
+            if (type != RATIONALS && type != MIXED)
+                throw new IOException("Unknown element type " + type);
+            ArrayList<Number[]> matrix = new ArrayList<>(rows);
+            for (int i = 0; i < rows; ++i)
+            {
+                Number[] row = new Number[columns];
+                for (int j = 0; j < columns; ++j)
+                {
+                    row[j] = readEntry();
+                }
+                matrix.add(row);
+            }
+            return new Matrix(matrix);
+        }
+
+        private Number readEntry() throws IOException
+        {
+            long header = readVarint();
+            int tag = (int) (header & 3);
+            long zigZag = header >>> 2;
+            long value = (zigZag >>> 1) ^ -(zigZag & 1);
+            switch (tag)
+            {
+                case INTEGER:
+                    return Rational.of(value, 1);
+                case FRACTION:
+                    long denominator = readVarint();
+                    if (denominator <= 0)
+                        throw new IOException("Bad denominator " + Long.toUnsignedString(denominator));
+                    return Rational.of(value, denominator);
+                case BIG:
+                    BigInteger numerator = new BigInteger(readBytes());
+                    BigInteger bigDenominator = new BigInteger(readBytes());
+                    if (bigDenominator.signum() <= 0)
+                        throw new IOException("Bad denominator " + bigDenominator);
+                    return Rational.of(numerator, bigDenominator);
+                default:
+                    return Double.longBitsToDouble(readLong());
+            }
+        }
+
+        private int readSize() throws IOException
+        {
+            long size = readVarint();
+            if (size < 0 || size > Integer.MAX_VALUE)
+                throw new IOException("Bad matrix size " + size);
+            return (int) size;
+        }
+
+        private long readVarint() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IOException("Bad varint");
+        }
+
+        private long readLong() throws IOException
+        {
+            long value = 0;
+            for (int i = 0; i < 8; ++i)
+            {
+                value = value << 8 | (readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        private byte[] readBytes() throws IOException
+        {
+            byte[] bytes = new byte[readSize()];
+            for (int i = 0; i < bytes.length; ++i)
+            {
+                bytes[i] = readByte();
+            }
+            return bytes;
+        }
+
+        private byte readByte() throws IOException
+        {
+            if (!buffer.hasRemaining() && !fill())
+                throw new EOFException("The matrix data ends early");
+            return buffer.get();
+        }
+
+        /**
+         * Reads more from the channel, keeping what has not been read yet
+         *
+         * @return false if there was nothing more to read
+         */
+        private boolean fill() throws IOException
+        {
+            if (channel == null)
+                return false;
+            buffer.compact();
+            int read = channel.read(buffer);
+            buffer.flip();
+            return read > 0;
+        }
+    }
+
+    /**
+     * @return the element type of the rows
+     */
+    private static byte elementType(ArrayList<Number[]> rows)
+    {
+        boolean anyRational = false;
+        boolean anyDouble = false;
+        for (Number[] row : rows)
+        {
+            for (Number number : row)
+            {
+                if (number instanceof Rational)
+                    anyRational = true;
+                else
+                    anyDouble = true;
+            }
+        }
+        if (!anyRational)
+            return DOUBLES;
+        return anyDouble ? MIXED : RATIONALS;
+    }
+}
@@ -0,0 +1,696 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A formula of matrices - sums, products, scalings, transposes and inverses -
+ * that is only worked out when evaluate() is called. Building one costs nothing
+ * but a node per operation (sizes are checked as it is built), and evaluating
+ * it all at once lets the work be planned:
+ *
+ * - a subexpression that appears more than once, even if it was built twice, is
+ *   worked out once (a + b and b + a count as the same)
+ * - the transpose of a transpose, and a scaling of a scaling, cancel out before
+ *   anything is computed
+ * - for all-double (dense) matrices, a sum of scaled terms is fused into one pass
+ *   over memory, and scaled products are added straight into that result by the
+ *   multiply kernel (see MatrixMultiply.multiplyAdd), so a * b + c makes no
+ *   matrix for a * b and needs no separate add
+ * - a result is worked out in place of an intermediate that is not needed again,
+ *   or in a freed buffer of the same size, rather than in a new one
+ *
+ * Exact (Rational) matrices get the same sharing and reuse, but not the fusion.
+ *
+ * The matrices a formula is built from are read, never changed, and must not be
+ * changed until it has been evaluated. For example:
+ *
+ *   Matrix result = MatrixExpression.of(a).times(MatrixExpression.of(b)).plus(MatrixExpression.of(c)).evaluate();
+ */
+public final class MatrixExpression
+{
+    /** The kinds of node */
+    private enum Op
+    {
+        LEAF, ADD, MULTIPLY, SCALE, TRANSPOSE, INVERSE;
+    }
+
+    private final Op op;
+    private final Matrix leaf;
+    private final MatrixExpression left;
+    private final MatrixExpression right;
+    private final Number factor;
+    private final int rows;
+    private final int columns;
+
+    private MatrixExpression(Op op, Matrix leaf, MatrixExpression left, MatrixExpression right, Number factor,
+            int rows, int columns)
+    {
+        this.op = op;
+        this.leaf = leaf;
+        this.left = left;
+        this.right = right;
+        this.factor = factor;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * @return the expression for a matrix, which is not copied
+     */
+    public static MatrixExpression of(Matrix matrix)
+    {
+        return new MatrixExpression(Op.LEAF, matrix, null, null, null, matrix.getRows(), matrix.getColumns());
+    }
+
+    /**
+     * @return this + other
+     * @throws MatrixException if they are not the same size
+     */
+    public MatrixExpression plus(MatrixExpression other) throws MatrixException
+    {
+        if (rows != other.rows || columns != other.columns)
+            throw new MatrixException("Cannot add, matrices are not the same size");
+        return new MatrixExpression(Op.ADD, null, this, other, null, rows, columns);
+    }
+
+    /**
+     * @return this * other
+     * @throws MatrixException if the sizes do not line up
+     */
+    public MatrixExpression times(MatrixExpression other) throws MatrixException
+    {
+        if (columns != other.rows)
+            throw new MatrixException("Cannot multiple, matrices do not have corresponding dimmensions");
+        return new MatrixExpression(Op.MULTIPLY, null, this, other, null, rows, other.columns);
+    }
+
+    /**
+     * @return factor * this. A Rational factor keeps exact entries exact
+     */
+    public MatrixExpression scale(Number factor)
+    {
+        return new MatrixExpression(Op.SCALE, null, this, null, factor, rows, columns);
+    }
+
+    /**
+     * @return the transpose of this
+     */
+    public MatrixExpression transpose()
+    {
+        return new MatrixExpression(Op.TRANSPOSE, null, this, null, null, columns, rows);
+    }
+
+    /**
+     * @return the inverse of this. Whether there is one is only found out by evaluate()
+     * @throws MatrixException if this is not square
+     */
+    public MatrixExpression inverse() throws MatrixException
+    {
+        if (rows != columns)
+            throw new MatrixException("The matrix is not square, so the identity does not exist!");
+        return new MatrixExpression(Op.INVERSE, null, this, null, null, rows, columns);
+    }
+
+    /** @return the number of rows of the result */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /** @return the number of columns of the result */
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Works the formula out
+     *
+     * @return a new matrix, which shares nothing with the ones the formula was built from
+     * @throws MatrixException if an inverse does not exist
+     */
+    public Matrix evaluate() throws MatrixException
+    {
+        return new Evaluation(this).run();
+    }
+
+    /**
+     * @return the formula, with matrices by name, eg "((A * B) + 2 C')"
+     */
+    @Override
+    public String toString()
+    {
+        switch (op)
+        {
+            case LEAF:
+                return leaf.getName() == null || leaf.getName().isEmpty() ? "?" : leaf.getName();
+            case ADD:
+                return "(" + left + " + " + right + ")";
+            case MULTIPLY:
+                return "(" + left + " * " + right + ")";
+            case SCALE:
+                return factor + " " + left;
+            case TRANSPOSE:
+                return left + "'";
+            default:
+                return left + "^-1";
+        }
+    }
+
+    /**
+     * One evaluation: the formula as a DAG of distinct nodes, numbered so that
+     * every node comes after the nodes it uses, and the values worked out so far
+     */
+    private static final class Evaluation
+    {
+        // the nodes, by number
+        private final List<Op> ops = new ArrayList<>();
+        private final List<Matrix> leaves = new ArrayList<>();
+        private final List<Number> factors = new ArrayList<>();
+        private final List<int[]> shapes = new ArrayList<>();
+        private final List<int[]> children = new ArrayList<>();
+        /** for each node, how many uses of its value are still to come */
+        private int[] uses;
+
+        /** node numbers, by the op, children and factor that make a node what it is */
+        private final HashMap<List<Object>, Integer> numbers = new HashMap<>();
+        private final IdentityHashMap<Matrix, Integer> leafNumbers = new IdentityHashMap<>();
+        private final IdentityHashMap<MatrixExpression, Integer> visited = new IdentityHashMap<>();
+        private final int root;
+        private final boolean dense;
+
+        // dense values: the entries, row-major, and whether they are a buffer this evaluation owns
+        private double[][] buffers;
+        private boolean[] owned;
+        /** owned buffers no longer needed, by length */
+        private final HashMap<Integer, ArrayDeque<double[]>> free = new HashMap<>();
+
+        // exact values
+        private Matrix[] values;
+
+        Evaluation(MatrixExpression expression)
+        {
+            root = number(expression);
+            int size = ops.size();
+            uses = new int[size];
+            ++uses[root];
+            countUses(root, new boolean[size]);
+            boolean allDense = true;
+            for (Matrix leaf : leaves)
+            {
+                allDense &= leaf == null || leaf.isDense();
+            }
+            dense = allDense;
+        }
+
+        /**
+         * @return the number of the node the expression comes to, adding it (and
+         * the nodes it uses) if there is not one already
+         */
+        private int number(MatrixExpression e)
+        {
+            Integer known = visited.get(e);
+            if (known != null)
+                return known;
+            int n;
+            switch (e.op)
+            {
+                case LEAF:
+                {
+                    Integer leaf = leafNumbers.get(e.leaf);
+                    if (leaf == null)
+                    {
+                        leaf = add(Op.LEAF, e.leaf, null, new int[0], e.rows, e.columns, List.of(Op.LEAF, ops.size()));
+                        leafNumbers.put(e.leaf, leaf);
+                    }
+                    n = leaf;
+                    break;
+                }
+                case ADD:
+                {
+                    int a = number(e.left);
+                    int b = number(e.right);
+                    // a + b is b + a
+                    int low = Math.min(a, b);
+                    int high = Math.max(a, b);
+                    n = add(Op.ADD, null, null, new int[] { low, high }, e.rows, e.columns, List.of(Op.ADD, low, high));
+                    break;
+                }
+                case MULTIPLY:
+                {
+                    int a = number(e.left);
+                    int b = number(e.right);
+                    n = add(Op.MULTIPLY, null, null, new int[] { a, b }, e.rows, e.columns, List.of(Op.MULTIPLY, a, b));
+                    break;
+                }
+                case SCALE:
+                {
+                    int a = number(e.left);
+                    Number factor = e.factor;
+                    // f (g x) is (f g) x
+                    if (ops.get(a) == Op.SCALE)
+                    {
+                        factor = times(factor, factors.get(a));
+                        a = children.get(a)[0];
+                    }
+                    n = add(Op.SCALE, null, factor, new int[] { a }, e.rows, e.columns, List.of(Op.SCALE, a, factor));
+                    break;
+                }
+                case TRANSPOSE:
+                {
+                    int a = number(e.left);
+                    // x'' is x
+                    if (ops.get(a) == Op.TRANSPOSE)
+                        n = children.get(a)[0];
+                    else
+                        n = add(Op.TRANSPOSE, null, null, new int[] { a }, e.rows, e.columns, List.of(Op.TRANSPOSE, a));
+                    break;
+                }
+                default:
+                {
+                    int a = number(e.left);
+                    n = add(Op.INVERSE, null, null, new int[] { a }, e.rows, e.columns, List.of(Op.INVERSE, a));
+                    break;
+                }
+            }
+            visited.put(e, n);
+            return n;
+        }
+
+        /** @return the number of the node with the key, adding it if it is new */
+        private int add(Op op, Matrix leaf, Number factor, int[] uses, int rows, int columns, List<Object> key)
+        {
+            Integer known = numbers.get(key);
+            if (known != null)
+                return known;
+            int n = ops.size();
+            ops.add(op);
+            leaves.add(leaf);
+            factors.add(factor);
+            children.add(uses);
+            shapes.add(new int[] { rows, columns });
+            numbers.put(key, n);
+            return n;
+        }
+
+        /** counts, for every node reachable from n, the nodes that use it */
+        private void countUses(int n, boolean[] counted)
+        {
+            if (counted[n])
+                return;
+            counted[n] = true;
+            for (int child : children.get(n))
+            {
+                ++uses[child];
+                countUses(child, counted);
+            }
+        }
+
+        Matrix run() throws MatrixException
+        {
+            int[] shape = shapes.get(root);
+            if (dense)
+            {
+                buffers = new double[ops.size()][];
+                owned = new boolean[ops.size()];
+                double[] result = evaluateDense(root);
+                if (!owned[root])
+                    result = result.clone();
+                return new Matrix(new DenseDoubleMatrix(result, shape[0], shape[1]));
+            }
+            values = new Matrix[ops.size()];
+            Matrix result = evaluateExact(root);
+            if (ops.get(root) == Op.LEAF)
+                result = result.clone();
+            return result;
+        }
+
+        // ---- dense ----
+
+        /**
+         * A term of a fused sum: coefficient times a node - either a value, or (if
+         * product is set) a product whose operands are the node's children
+         */
+        private static final class Term
+        {
+            final double coefficient;
+            final int node;
+            final boolean product;
+
+            Term(double coefficient, int node, boolean product)
+            {
+                this.coefficient = coefficient;
+                this.node = node;
+                this.product = product;
+            }
+        }
+
+        private double[] evaluateDense(int n) throws MatrixException
+        {
+            if (buffers[n] != null)
+                return buffers[n];
+            int[] shape = shapes.get(n);
+            int length = shape[0] * shape[1];
+            double[] result;
+            switch (ops.get(n))
+            {
+                case LEAF:
+                    buffers[n] = leaves.get(n).getDense().getData();
+                    return buffers[n];
+                case TRANSPOSE:
+                {
+                    int child = children.get(n)[0];
+                    double[] source = evaluateDense(child);
+                    result = take(length);
+                    // the child is shape[1] x shape[0]
+                    for (int i = 0; i < shape[1]; ++i)
+                    {
+                        for (int j = 0; j < shape[0]; ++j)
+                        {
+                            result[j * shape[1] + i] = source[i * shape[0] + j];
+                        }
+                    }
+                    release(child);
+                    break;
+                }
+                case INVERSE:
+                {
+                    int child = children.get(n)[0];
+                    result = new DenseDoubleMatrix(evaluateDense(child), shape[0], shape[1]).inverse().getData();
+                    release(child);
+                    break;
+                }
+                default:
+                    result = evaluateSum(n, length);
+                    break;
+            }
+            buffers[n] = result;
+            owned[n] = true;
+            return result;
+        }
+
+        /**
+         * Works out a sum, scaling or product, with as much of the formula under it
+         * as is used nowhere else, in one pass plus the products
+         */
+        private double[] evaluateSum(int n, int length) throws MatrixException
+        {
+            List<Term> terms = new ArrayList<>();
+            expand(n, 1.0, n, terms);
+            // work out every value the terms need first, so their buffers are settled
+            List<Term> values = new ArrayList<>();
+            List<Term> products = new ArrayList<>();
+            for (Term term : terms)
+            {
+                if (term.product)
+                {
+                    evaluateDense(children.get(term.node)[0]);
+                    evaluateDense(children.get(term.node)[1]);
+                    products.add(term);
+                }
+                else
+                {
+                    evaluateDense(term.node);
+                    values.add(term);
+                }
+            }
+
+            // write in place of a value that is not needed after this, if there is one
+            double[] result = null;
+            Term inPlace = null;
+            for (Term term : values)
+            {
+                if (owned[term.node] && uses[term.node] == 1)
+                {
+                    inPlace = term;
+                    result = buffers[term.node];
+                    break;
+                }
+            }
+            if (result == null)
+                result = take(length);
+
+            // the values, fused into one pass
+            if (values.isEmpty())
+            {
+                Arrays.fill(result, 0.0);
+            }
+            else if (!(values.size() == 1 && inPlace != null && inPlace.coefficient == 1.0))
+            {
+                int count = values.size();
+                double[][] sources = new double[count][];
+                double[] coefficients = new double[count];
+                for (int t = 0; t < count; ++t)
+                {
+                    sources[t] = buffers[values.get(t).node];
+                    coefficients[t] = values.get(t).coefficient;
+                }
+                for (int i = 0; i < length; ++i)
+                {
+                    double sum = 0.0;
+                    for (int t = 0; t < count; ++t)
+                    {
+                        sum += coefficients[t] * sources[t][i];
+                    }
+                    result[i] = sum;
+                }
+            }
+
+            // then the products, added in by the multiply kernel
+            for (Term term : products)
+            {
+                int a = children.get(term.node)[0];
+                int b = children.get(term.node)[1];
+                int[] aShape = shapes.get(a);
+                int[] bShape = shapes.get(b);
+                MatrixMultiply.multiplyAdd(term.coefficient, new DenseDoubleMatrix(buffers[a], aShape[0], aShape[1]),
+                        new DenseDoubleMatrix(buffers[b], bShape[0], bShape[1]), result);
+            }
+
+            for (Term term : values)
+            {
+                if (term == inPlace)
+                {
+                    // its buffer is the result now
+                    --uses[term.node];
+                    buffers[term.node] = null;
+                    owned[term.node] = false;
+                }
+                else
+                {
+                    release(term.node);
+                }
+            }
+            for (Term term : products)
+            {
+                release(children.get(term.node)[0]);
+                release(children.get(term.node)[1]);
+            }
+            return result;
+        }
+
+        /**
+         * Breaks node m, times coefficient, into terms, opening up sums, scalings and
+         * products that are used only here (n is the node being worked out)
+         */
+        private void expand(int m, double coefficient, int n, List<Term> terms)
+        {
+            boolean open = m == n || (uses[m] == 1 && buffers[m] == null);
+            Op op = ops.get(m);
+            if (open && op == Op.ADD)
+            {
+                expand(children.get(m)[0], coefficient, n, terms);
+                expand(children.get(m)[1], coefficient, n, terms);
+            }
+            else if (open && op == Op.SCALE)
+            {
+                expand(children.get(m)[0], coefficient * factors.get(m).doubleValue(), n, terms);
+            }
+            else if (open && op == Op.MULTIPLY)
+            {
+                terms.add(new Term(coefficient, m, true));
+            }
+            else
+            {
+                terms.add(new Term(coefficient, m, false));
+            }
+        }
+
+        /** @return a buffer of the length, a freed one if there is one */
+        private double[] take(int length)
+        {
+            ArrayDeque<double[]> freed = free.get(length);
+            return freed == null || freed.isEmpty() ? new double[length] : freed.pop();
+        }
+
+        /** notes one use of node n's value is over, freeing its buffer after the last */
+        private void release(int n)
+        {
+            if (--uses[n] == 0 && owned[n])
+            {
+                free.computeIfAbsent(buffers[n].length, length -> new ArrayDeque<>()).push(buffers[n]);
+                buffers[n] = null;
+                owned[n] = false;
+            }
+        }
+
+        // ---- exact ----
+
+        private Matrix evaluateExact(int n) throws MatrixException
+        {
+            if (values[n] != null)
+                return values[n];
+            int[] use = children.get(n);
+            Matrix result;
+            switch (ops.get(n))
+            {
+                case LEAF:
+                    result = leaves.get(n);
+                    break;
+                case ADD:
+                {
+                    Matrix a = evaluateExact(use[0]);
+                    Matrix b = evaluateExact(use[1]);
+                    // add into whichever side is not needed after this
+                    if (reusable(use[0]) && use[0] != use[1])
+                    {
+                        a.add(b);
+                        result = a;
+                        values[use[0]] = null;
+                    }
+                    else if (reusable(use[1]) && use[0] != use[1])
+                    {
+                        b.add(a);
+                        result = b;
+                        values[use[1]] = null;
+                    }
+                    else
+                    {
+                        result = a.clone();
+                        result.add(b);
+                    }
+                    break;
+                }
+                case MULTIPLY:
+                {
+                    Matrix a = evaluateExact(use[0]);
+                    Matrix b = evaluateExact(use[1]);
+                    // multiply puts the product in new storage, so a shallow wrapper keeps a as it is
+                    if (a.isDense())
+                        result = new Matrix(a.getDense());
+                    else if (a.isSparse())
+                        result = new Matrix(a.getSparse());
+                    else
+                        result = new Matrix(a.getMatrix());
+                    result.multiply(b);
+                    break;
+                }
+                case SCALE:
+                {
+                    Matrix a = evaluateExact(use[0]);
+                    boolean inPlace = reusable(use[0]);
+                    result = scale(a, factors.get(n), inPlace);
+                    if (inPlace)
+                        values[use[0]] = null;
+                    break;
+                }
+                case TRANSPOSE:
+                    result = transpose(evaluateExact(use[0]));
+                    break;
+                default:
+                    result = MatrixMath.identity(evaluateExact(use[0]));
+                    break;
+            }
+            for (int child : use)
+            {
+                // once nothing else needs a value, let it go
+                if (--uses[child] == 0)
+                    values[child] = null;
+            }
+            values[n] = result;
+            return result;
+        }
+
+        /** @return true if node n's value was made here and this is its last use */
+        private boolean reusable(int n)
+        {
+            return uses[n] == 1 && ops.get(n) != Op.LEAF;
+        }
+
+        private static Matrix scale(Matrix matrix, Number factor, boolean inPlace)
+        {
+            if (matrix.isDense())
+            {
+                DenseDoubleMatrix dense = inPlace ? matrix.getDense() : matrix.getDense().clone();
+                double[] data = dense.getData();
+                double f = factor.doubleValue();
+                for (int i = 0; i < data.length; ++i)
+                {
+                    data[i] *= f;
+                }
+                return inPlace ? matrix : new Matrix(dense);
+            }
+            // sparse storage is never changed, so it is scaled into new storage either way
+            if (matrix.isSparse())
+                return new Matrix(matrix.getSparse().scale(factor.doubleValue()));
+            ArrayList<Number[]> rows = matrix.getMatrix();
+            ArrayList<Number[]> scaled = inPlace ? rows : new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); ++i)
+            {
+                Number[] row = rows.get(i);
+                Number[] target = inPlace ? row : new Number[row.length];
+                for (int j = 0; j < row.length; ++j)
+                {
+                    target[j] = times(factor, row[j]);
+                }
+                if (!inPlace)
+                    scaled.add(target);
+            }
+            return inPlace ? matrix : new Matrix(scaled);
+        }
+
+        private static Matrix transpose(Matrix matrix)
+        {
+            int rows = matrix.getRows();
+            int columns = matrix.getColumns();
+            if (matrix.isDense())
+            {
+                double[] data = matrix.getDense().getData();
+                double[] transposed = new double[data.length];
+                for (int i = 0; i < rows; ++i)
+                {
+                    for (int j = 0; j < columns; ++j)
+                    {
+                        transposed[j * rows + i] = data[i * columns + j];
+                    }
+                }
+                return new Matrix(new DenseDoubleMatrix(transposed, columns, rows));
+            }
+            if (matrix.isSparse())
+                return new Matrix(matrix.getSparse().transpose());
+            ArrayList<Number[]> source = matrix.getMatrix();
+            ArrayList<Number[]> transposed = new ArrayList<>(columns);
+            for (int j = 0; j < columns; ++j)
+            {
+                Number[] row = new Number[rows];
+                for (int i = 0; i < rows; ++i)
+                {
+                    row[i] = source.get(i)[j];
+                }
+                transposed.add(row);
+            }
+            return new Matrix(transposed);
+        }
+    }
+
+    /** the product, exact if both are Rationals - otherwise a double, as in Matrix */
+    private static Number times(Number a, Number b)
+    {
+        if (a instanceof Rational && b instanceof Rational)
+            return ((Rational) a).times((Rational) b);
+        return a.doubleValue() * b.doubleValue();
+    }
+}
@@ -0,0 +1,670 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes Matrix Market (.mtx) files, the exchange format used by most
+ * other numerical tools. A file starts with a header line
+ *   %%MatrixMarket matrix coordinate|array real|integer|pattern general|symmetric|skew-symmetric
+ * then any number of % comment lines, then the sizes, then the entries:
+ *   coordinate  "rows columns entries", then one "row column value" line per entry,
+ *               indexed from 1, in any order (pattern files have no values - every
+ *               listed entry is 1)
+ *   array       "rows columns", then every value, column by column
+ * A symmetric or skew-symmetric file only lists the lower triangle; the rest is
+ * filled in by mirroring it (negated, for skew-symmetric).
+ *
+ * Files are streamed through a fixed-size buffer and parsed byte by byte, straight
+ * into the arrays of a SparseMatrix or DenseDoubleMatrix, so the only memory used
+ * is the matrix itself, whatever the size of the file. Complex matrices are not
+ * supported.
+ */
+public class MatrixMarket
+{
+    /** Told how far through a file a read has got */
+    public interface ProgressListener
+    {
+        /**
+         * @param bytesDone the bytes read so far
+         * @param bytesTotal the size of the file
+         */
+        void progress(long bytesDone, long bytesTotal);
+    }
+
+    /** The largest fraction of its entries a coordinate file can list and still be read sparsely by read */
+    public static final double SPARSE_DENSITY = 0.1;
+
+    private static final String BANNER = "%%MatrixMarket";
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** The longest number token that is parsed */
+    private static final int MAX_TOKEN = 128;
+    /** Every power of ten that a double holds exactly */
+    private static final double[] POW10 = new double[23];
+
+    static
+    {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; ++i)
+        {
+            POW10[i] = POW10[i - 1] * 10.0;
+        }
+    }
+
+    private MatrixMarket()
+    {
+    }
+
+    /**
+     * Reads a file into whichever storage suits it: a coordinate file that lists at
+     * most SPARSE_DENSITY of the entries is read sparsely, and anything else densely.
+     * The choice is made from the header, so the file is only read once
+     *
+     * @param file the .mtx file
+     * @param listener told the progress of the read, or null
+     * @return the matrix
+     * @throws IOException if the file cannot be read, or is not a matrix this can read
+     */
+    public static Matrix read(File file, ProgressListener listener) throws IOException
+    {
+        try (Tokenizer in = new Tokenizer(file, listener))
+        {
+            Header header = in.readHeader();
+            int rows = in.nextInt();
+            int columns = in.nextInt();
+            if (!header.coordinate)
+                return new Matrix(readArray(in, header, rows, columns));
+            int entries = in.nextInt();
+            long stored = header.symmetry == Symmetry.GENERAL ? entries : 2L * entries;
+            if (stored <= SPARSE_DENSITY * rows * columns)
+                return new Matrix(readCoordinateSparse(in, header, rows, columns, entries));
+            return new Matrix(readCoordinateDense(in, header, rows, columns, entries));
+        }
+    }
+
+    /**
+     * Reads a file into sparse storage
+     *
+     * @param file the .mtx file
+     * @param listener told the progress of the read, or null
+     * @return the matrix
+     * @throws IOException if the file cannot be read, or is not a matrix this can read
+     */
+    public static SparseMatrix readSparse(File file, ProgressListener listener) throws IOException
+    {
+        try (Tokenizer in = new Tokenizer(file, listener))
+        {
+            Header header = in.readHeader();
+            int rows = in.nextInt();
+            int columns = in.nextInt();
+            if (!header.coordinate)
+            {
+                // an array file lists every entry, so it is no smaller read densely
+                return SparseMatrix.fromDense(readArray(in, header, rows, columns));
+            }
+            return readCoordinateSparse(in, header, rows, columns, in.nextInt());
+        }
+    }
+
+    /**
+     * Reads the entries of a coordinate file into sparse storage
+     */
+    private static SparseMatrix readCoordinateSparse(Tokenizer in, Header header, int rows, int columns,
+            int entries) throws IOException
+    {
+        long capacity = header.symmetry == Symmetry.GENERAL ? entries : 2L * entries;
+        if (capacity > Integer.MAX_VALUE - 8)
+            throw new IOException("Too many entries: " + capacity);
+        int[] entryRows = new int[(int) capacity];
+        int[] entryColumns = new int[(int) capacity];
+        double[] entryValues = new double[(int) capacity];
+        int count = 0;
+        for (int k = 0; k < entries; ++k)
+        {
+            int i = in.nextIndex(rows);
+            int j = in.nextIndex(columns);
+            double value = header.pattern ? 1.0 : in.nextDouble();
+            entryRows[count] = i;
+            entryColumns[count] = j;
+            entryValues[count++] = value;
+            if (i != j && header.symmetry != Symmetry.GENERAL)
+            {
+                entryRows[count] = j;
+                entryColumns[count] = i;
+                entryValues[count++] = header.symmetry == Symmetry.SKEW ? -value : value;
+            }
+        }
+        in.finish();
+        return SparseMatrix.fromEntries(rows, columns, entryRows, entryColumns, entryValues, count);
+    }
+
+    /**
+     * Reads a file into dense storage
+     *
+     * @param file the .mtx file
+     * @param listener told the progress of the read, or null
+     * @return the matrix
+     * @throws IOException if the file cannot be read, or is not a matrix this can read
+     */
+    public static DenseDoubleMatrix readDense(File file, ProgressListener listener) throws IOException
+    {
+        try (Tokenizer in = new Tokenizer(file, listener))
+        {
+            Header header = in.readHeader();
+            int rows = in.nextInt();
+            int columns = in.nextInt();
+            if (!header.coordinate)
+                return readArray(in, header, rows, columns);
+            return readCoordinateDense(in, header, rows, columns, in.nextInt());
+        }
+    }
+
+    /**
+     * Reads the entries of a coordinate file into dense storage
+     */
+    private static DenseDoubleMatrix readCoordinateDense(Tokenizer in, Header header, int rows, int columns,
+            int entries) throws IOException
+    {
+        DenseDoubleMatrix matrix = newDense(rows, columns);
+        double[] data = matrix.getData();
+        for (int k = 0; k < entries; ++k)
+        {
+            int i = in.nextIndex(rows);
+            int j = in.nextIndex(columns);
+            double value = header.pattern ? 1.0 : in.nextDouble();
+            data[i * columns + j] += value;
+            if (i != j && header.symmetry != Symmetry.GENERAL)
+                data[j * columns + i] += header.symmetry == Symmetry.SKEW ? -value : value;
+        }
+        in.finish();
+        return matrix;
+    }
+
+    /**
+     * Reads the values of an array file, which come column by column
+     */
+    private static DenseDoubleMatrix readArray(Tokenizer in, Header header, int rows, int columns)
+            throws IOException
+    {
+        if (header.pattern)
+            throw new IOException("An array file cannot be a pattern");
+        if (header.symmetry != Symmetry.GENERAL && rows != columns)
+            throw new IOException("A symmetric matrix must be square");
+        DenseDoubleMatrix matrix = newDense(rows, columns);
+        double[] data = matrix.getData();
+        for (int j = 0; j < columns; ++j)
+        {
+            int first;
+            if (header.symmetry == Symmetry.GENERAL)
+                first = 0;
+            else if (header.symmetry == Symmetry.SYMMETRIC)
+                first = j;
+            else
+                // the diagonal of a skew-symmetric matrix is zero, and is left out
+                first = j + 1;
+            for (int i = first; i < rows; ++i)
+            {
+                double value = in.nextDouble();
+                data[i * columns + j] = value;
+                if (i != j && header.symmetry != Symmetry.GENERAL)
+                    data[j * columns + i] = header.symmetry == Symmetry.SKEW ? -value : value;
+            }
+        }
+        in.finish();
+        return matrix;
+    }
+
+    private static DenseDoubleMatrix newDense(int rows, int columns) throws IOException
+    {
+        if ((long) rows * columns > Integer.MAX_VALUE - 8)
+            throw new IOException("Too large to hold densely: " + rows + "x" + columns);
+        return new DenseDoubleMatrix(rows, columns);
+    }
+
+    /**
+     * Writes a matrix in coordinate form, listing only its nonzero entries
+     *
+     * @param matrix the matrix
+     * @param file the .mtx file to create (or replace)
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeSparse(SparseMatrix matrix, File file) throws IOException
+    {
+        try (Output out = new Output(file))
+        {
+            out.put(BANNER + " matrix coordinate real general\n");
+            out.putLong(matrix.getRows()).put(' ').putLong(matrix.getColumns()).put(' ')
+                    .putLong(matrix.nonZeros()).put('\n');
+            int[] rowStart = matrix.getRowStart();
+            int[] columnIndex = matrix.getColumnIndex();
+            double[] values = matrix.getValues();
+            for (int i = 0; i < matrix.getRows(); ++i)
+            {
+                for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+                {
+                    out.putLong(i + 1).put(' ').putLong(columnIndex[k] + 1).put(' ').putDouble(values[k]).put('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a matrix in array form, column by column
+     *
+     * @param matrix the matrix
+     * @param file the .mtx file to create (or replace)
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeDense(DenseDoubleMatrix matrix, File file) throws IOException
+    {
+        int rows = matrix.getRows();
+        int columns = matrix.getColumns();
+        double[] data = matrix.getData();
+        try (Output out = new Output(file))
+        {
+            out.put(BANNER + " matrix array real general\n");
+            out.putLong(rows).put(' ').putLong(columns).put('\n');
+            for (int j = 0; j < columns; ++j)
+            {
+                for (int i = 0; i < rows; ++i)
+                {
+                    out.putDouble(data[i * columns + j]).put('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes any matrix - in coordinate form if it is stored sparsely, otherwise in
+     * array form. Rationals are written as the nearest double
+     *
+     * @param matrix the matrix
+     * @param file the .mtx file to create (or replace)
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Matrix matrix, File file) throws IOException
+    {
+        if (matrix.isSparse())
+            writeSparse(matrix.getSparse(), file);
+        else
+            writeDense(DenseDoubleMatrix.fromMatrix(matrix), file);
+    }
+
+    private enum Symmetry
+    {
+        GENERAL, SYMMETRIC, SKEW
+    }
+
+    /** What the header line says */
+    private static class Header
+    {
+        boolean coordinate;
+        boolean pattern;
+        Symmetry symmetry;
+    }
+
+    /**
+     * Reads a file a buffer at a time, and splits it into numbers
+     */
+    private static class Tokenizer implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ProgressListener listener;
+        private final long size;
+        /** the bytes read from the channel so far */
+        private long read;
+        /** the characters of the current number, for the slow path */
+        private final byte[] token = new byte[MAX_TOKEN];
+
+        Tokenizer(File file, ProgressListener listener) throws IOException
+        {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.listener = listener;
+            this.size = channel.size();
+            buffer.flip();
+        }
+
+        /**
+         * Reads and checks the header line, then skips the comments after it
+         */
+        Header readHeader() throws IOException
+        {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = next()) != -1 && c != '\n')
+            {
+                line.append((char) c);
+            }
+            String[] words = line.toString().trim().toLowerCase().split("\\s+");
+            if (words.length != 5 || !words[0].equals(BANNER.toLowerCase()) || !words[1].equals("matrix"))
+                throw new IOException("Not a Matrix Market matrix file");
+            Header header = new Header();
+            switch (words[2])
+            {
+                case "coordinate":
+                    header.coordinate = true;
+                    break;
+                case "array":
+                    header.coordinate = false;
+                    break;
+                default:
+                    throw new IOException("Unknown format " + words[2]);
+            }
+            switch (words[3])
+            {
+                case "real":
+                case "integer":
+                case "double":
+                    header.pattern = false;
+                    break;
+                case "pattern":
+                    header.pattern = true;
+                    break;
+                default:
+                    throw new IOException("Unsupported field " + words[3]);
+            }
+            switch (words[4])
+            {
+                case "general":
+                    header.symmetry = Symmetry.GENERAL;
+                    break;
+                case "symmetric":
+                    header.symmetry = Symmetry.SYMMETRIC;
+                    break;
+                case "skew-symmetric":
+                    header.symmetry = Symmetry.SKEW;
+                    break;
+                default:
+                    throw new IOException("Unsupported symmetry " + words[4]);
+            }
+            return header;
+        }
+
+        /**
+         * @param limit one more than the largest index allowed
+         * @return the next index, converted to count from 0
+         */
+        int nextIndex(int limit) throws IOException
+        {
+            int index = nextInt();
+            if (index < 1 || index > limit)
+                throw new IOException("Index " + index + " is out of range");
+            return index - 1;
+        }
+
+        int nextInt() throws IOException
+        {
+            int c = skipSpace();
+            if (c < '0' || c > '9')
+                throw new IOException("Expected a whole number at byte " + (read - buffer.remaining() - 1));
+            long value = 0;
+            do
+            {
+                value = value * 10 + (c - '0');
+                if (value > Integer.MAX_VALUE)
+                    throw new IOException("Number too large");
+                c = next();
+            } while (c >= '0' && c <= '9');
+            endToken(c);
+            return (int) value;
+        }
+
+        /**
+         * Parses the next number. While its digits fit in a double's mantissa and its
+         * power of ten is one a double holds exactly, the result is a single exactly
+         * rounded multiply or divide; anything else goes through Double.parseDouble
+         */
+        double nextDouble() throws IOException
+        {
+            int c = skipSpace();
+            int length = 0;
+            while (c != -1 && c > ' ')
+            {
+                if (length == MAX_TOKEN)
+                    throw new IOException("Number too long");
+                token[length++] = (byte) c;
+                c = next();
+            }
+            endToken(c);
+            if (length == 0)
+                throw new EOFException("The file ends early");
+
+            int at = 0;
+            boolean negative = false;
+            if (token[at] == '-' || token[at] == '+')
+                negative = token[at++] == '-';
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean anyDigit = false;
+            for (; at < length && token[at] >= '0' && token[at] <= '9'; ++at)
+            {
+                anyDigit = true;
+                if (mantissa != 0 || token[at] != '0')
+                {
+                    mantissa = mantissa * 10 + (token[at] - '0');
+                    ++digits;
+                }
+                if (digits > 18)
+                    return slowDouble(length);
+            }
+            if (at < length && token[at] == '.')
+            {
+                for (++at; at < length && token[at] >= '0' && token[at] <= '9'; ++at)
+                {
+                    anyDigit = true;
+                    if (mantissa != 0 || token[at] != '0')
+                    {
+                        mantissa = mantissa * 10 + (token[at] - '0');
+                        ++digits;
+                    }
+                    --exponent;
+                    if (digits > 18)
+                        return slowDouble(length);
+                }
+            }
+            if (!anyDigit)
+                return slowDouble(length);
+            if (at < length && (token[at] == 'e' || token[at] == 'E' || token[at] == 'd' || token[at] == 'D'))
+            {
+                ++at;
+                boolean negativeExponent = false;
+                if (at < length && (token[at] == '-' || token[at] == '+'))
+                    negativeExponent = token[at++] == '-';
+                int power = 0;
+                int start = at;
+                for (; at < length && token[at] >= '0' && token[at] <= '9'; ++at)
+                {
+                    power = power * 10 + (token[at] - '0');
+                    if (power > 10000)
+                        return slowDouble(length);
+                }
+                if (at == start)
+                    return slowDouble(length);
+                exponent += negativeExponent ? -power : power;
+            }
+            if (at != length || mantissa >= 1L << 53 || exponent < -22 || exponent > 22)
+                return slowDouble(length);
+            double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+            return negative ? -value : value;
+        }
+
+        /** Double.parseDouble, after turning Fortran's "1.5D3" into "1.5E3" */
+        private double slowDouble(int length) throws IOException
+        {
+            String text = new String(token, 0, length, StandardCharsets.US_ASCII).replace('d', 'e').replace('D', 'E');
+            try
+            {
+                return Double.parseDouble(text);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Not a number: " + text);
+            }
+        }
+
+        /**
+         * Checks nothing but space and comments is left
+         */
+        void finish() throws IOException
+        {
+            if (skipSpace() != -1)
+                throw new IOException("There are more entries than the size line says");
+            if (listener != null)
+                listener.progress(size, size);
+        }
+
+        /** a number must be followed by space or the end of the file */
+        private void endToken(int c) throws IOException
+        {
+            if (c != -1 && c > ' ')
+                throw new IOException("Unexpected '" + (char) c + "' in a number");
+        }
+
+        /**
+         * @return the first byte that is not space or part of a comment, or -1 at the end of the file
+         */
+        private int skipSpace() throws IOException
+        {
+            int c = next();
+            while (true)
+            {
+                if (c == '%')
+                {
+                    while (c != -1 && c != '\n')
+                    {
+                        c = next();
+                    }
+                }
+                else if (c == -1 || c > ' ')
+                {
+                    return c;
+                }
+                c = next();
+            }
+        }
+
+        /**
+         * @return the next byte, or -1 at the end of the file
+         */
+        private int next() throws IOException
+        {
+            if (!buffer.hasRemaining() && !fill())
+                return -1;
+            return buffer.get();
+        }
+
+        private boolean fill() throws IOException
+        {
+            buffer.clear();
+            int n = channel.read(buffer);
+            buffer.flip();
+            if (n <= 0)
+                return false;
+            read += n;
+            if (listener != null)
+                listener.progress(read, size);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes ASCII text to a file through a fixed-size buffer
+     */
+    private static class Output implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /** room for the digits of a long */
+        private final byte[] digits = new byte[20];
+
+        Output(File file) throws IOException
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        Output put(char c) throws IOException
+        {
+            ensure(1);
+            buffer.put((byte) c);
+            return this;
+        }
+
+        Output put(String text) throws IOException
+        {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); ++i)
+            {
+                buffer.put((byte) text.charAt(i));
+            }
+            return this;
+        }
+
+        Output putLong(long value) throws IOException
+        {
+            ensure(digits.length);
+            if (value < 0)
+            {
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            int at = digits.length;
+            do
+            {
+                digits[--at] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            buffer.put(digits, at, digits.length - at);
+            return this;
+        }
+
+        /** the shortest text that reads back as exactly the same double */
+        Output putDouble(double value) throws IOException
+        {
+            if (value == (long) value && Math.abs(value) < 1e15)
+                return putLong((long) value);
+            return put(Double.toString(value));
+        }
+
+        private void ensure(int size) throws IOException
+        {
+            if (buffer.remaining() >= size)
+                return;
+            flush();
+        }
+
+        private void flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                flush();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+}
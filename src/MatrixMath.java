@@ -10,6 +10,69 @@ import java.util.ArrayList;
  */
 public class MatrixMath
 {
+    /** The fewest rows worth giving to one thread during parallel elimination */
+    private static final int ELIMINATION_GRAIN = 32;
+    /** Matrices with fewer rows than this are always eliminated on one thread */
+    private static int parallelThreshold = 256;
+
+    /**
+     * The ways exact (Rational) matrices can be reduced
+     */
+    public enum Engine
+    {
+        /** Gauss-Jordan elimination over the rationals - see rref(Matrix) */
+        GAUSS_JORDAN,
+        /** Fraction-free elimination over the integers - see BareissElimination */
+        BAREISS,
+        /** Elimination modulo many primes, rebuilt by the CRT - see MultiModularElimination */
+        MULTI_MODULAR;
+    }
+
+    /**
+     * Finds and returns the identity of the matrix, using the given engine for
+     * exact matrices. Does not change the original matrix
+     * 
+     * @return The identity (if it exists) of the matrix
+     */
+    public static Matrix identity(Matrix matrix, Engine engine) throws MatrixException {
+        if (engine == Engine.BAREISS && usesEngine(matrix))
+            return BareissElimination.inverse(matrix);
+        if (engine == Engine.MULTI_MODULAR && usesEngine(matrix))
+            return MultiModularElimination.inverse(matrix);
+        return identity(matrix);
+    }
+
+    /**
+     * Row-reduces the matrix, using the given engine for exact matrices. Unlike
+     * rref(Matrix), the Bareiss and multi-modular engines do not change the original matrix
+     * 
+     * @return the matrix in row-reduced echelon form
+     */
+    public static Matrix rref(Matrix matrix, Engine engine) {
+        if (engine == Engine.GAUSS_JORDAN || !usesEngine(matrix))
+            return rref(matrix);
+        long start = MatrixMetrics.now();
+        long rationals = MatrixMetrics.rrefStarted();
+        Matrix reduced;
+        if (engine == Engine.BAREISS) {
+            MatrixMetrics.rref(MatrixMetrics.Route.BAREISS);
+            reduced = BareissElimination.rref(matrix);
+        } else {
+            MatrixMetrics.rref(MatrixMetrics.Route.MULTI_MODULAR);
+            reduced = MultiModularElimination.rref(matrix);
+        }
+        MatrixMetrics.rrefDone(MatrixMetrics.now() - start, rationals);
+        return reduced;
+    }
+
+    /**
+     * @return true if the engine matters for the matrix: dense and sparse matrices
+     * are all doubles, and have kernels of their own whatever the engine
+     */
+    private static boolean usesEngine(Matrix matrix) {
+        return !matrix.isDense() && !matrix.isSparse();
+    }
+
     /**
      * Finds and returns the identity of the matrix
      * Does not change the original matrix
@@ -17,72 +80,62 @@ public class MatrixMath
      * @return The identity (if it exists) of the matrix
      */
     public static Matrix identity(Matrix matrix) throws MatrixException {
-        // check if the identity CAN exist:
-        if (matrix.getColumns() != matrix.getRows())
+        int n = matrix.getRows();
+        if (matrix.getColumns() != n)
             throw new MatrixException("The matrix is not square, so the identity does not exist!");
-        if (!isIdentity(rref(matrix.clone())))
+        // one elimination of [A | I]: the matrix is singular exactly when some column
+        // of A has no pivot, so there is no need to reduce A on its own first
+        if (matrix.isDense())
+            return new Matrix(matrix.getDense().inverse());
+        // the inverse of a sparse matrix is dense, as a rule
+        if (matrix.isSparse())
+            return new Matrix(matrix.getSparse().toDense().inverse());
+        ArrayList<Number[]> rows = matrix.getMatrix();
+        if (Matrix.isAllRational(rows))
+            return new Matrix(RationalMatrix.fromRows(rows).inverse().toRows());
+        ArrayList<Number[]> workspace = addIdentity(rows);
+        if (reduce(workspace, n, true, null) < n)
             throw new MatrixException("The identity does not exist!");
-        return removeIdentity(rref(addIdentity(matrix.clone())));        
+        return removeIdentity(workspace);
     }
     
-    private static Matrix removeIdentity(Matrix matrix) {
-        ArrayList<Number[]> toRemove = matrix.getMatrix();
-        // for the first half of the columns of the matrix, remove the column
-        for (int index = 0; index < toRemove.size(); ++index) {
-            Number[] row = toRemove.get(index);
+    private static Matrix removeIdentity(ArrayList<Number[]> toRemove) {
+        // keep the second half of the columns of each row
+        ArrayList<Number[]> inverse = new ArrayList<>(toRemove.size());
+        for (Number[] row : toRemove) {
             Number[] newRow = new Number[row.length / 2];
-            for (int i = row.length / 2, j = 0; i < row.length; ++i, ++j) {
-                newRow[j] = row[i];
-            }
-            toRemove.set(index, newRow);
+            System.arraycopy(row, row.length / 2, newRow, 0, newRow.length);
+            inverse.add(newRow);
         }
-        return new Matrix(toRemove);
+        return new Matrix(inverse);
     }
     
-    private static Matrix addIdentity(Matrix matrix) {
-        ArrayList<Number[]> toAdd = matrix.getMatrix();
+    /**
+     * @return a copy of the rows, each followed by the matching row of the identity
+     */
+    private static ArrayList<Number[]> addIdentity(ArrayList<Number[]> rows) {
+        int n = rows.size();
+        ArrayList<Number[]> toAdd = new ArrayList<>(n);
         // for each row in the matrix
-        for (int i = 0; i < toAdd.size(); ++i) {
-            Number[] row = toAdd.get(i);
-            
-            // create a new row with double the number of columns
-            Number[] newRow = new Number[2 * matrix.getColumns()];
+        for (int i = 0; i < n; ++i) {
+            Number[] row = rows.get(i);
             
-            // copy over all the data that exists in the old row
-            for (int j = 0; j < matrix.getColumns(); ++j) {
-                newRow[j] = row[j];
-            }
+            // create a new row with double the number of columns, and copy the old row in
+            Number[] newRow = new Number[2 * row.length];
+            System.arraycopy(row, 0, newRow, 0, row.length);
             // add on the identity to the row
-            for (int j = 0 ; j < matrix.getColumns(); ++j) {
+            for (int j = 0 ; j < row.length; ++j) {
                 // if the row is the same as the column (on the diagonal)
                 if (j == i) {
-                    newRow[j + matrix.getColumns()] = Rational.one;
+                    newRow[j + row.length] = Rational.one;
                 } else {
-                    newRow[j + matrix.getColumns()] = Rational.zero;
+                    newRow[j + row.length] = Rational.zero;
                 }
                 
             }
-            // put the new row in the matrix
-            toAdd.set(i, newRow);
-        }
-        return new Matrix(toAdd);
-    }
-    
-    private static boolean isIdentity(Matrix matrix) {
-        ArrayList<Number[]> toCheck = matrix.getMatrix();
-        for (int i = 0; i < toCheck.size(); ++i) {
-            for (int j = 0; j < toCheck.size(); ++j) {
-                if (i == j && Double.compare(toCheck.get(i)[i].doubleValue(), 1.0) != 0) { // true iff the value at A[ii] != 1
-                    System.out.println("[" + i + ", " + j + " ] = " + toCheck.get(i)[i] + "!= 1  !!!");
-                    return false; 
-                }
-                else if (i != j && Double.compare(toCheck.get(i)[j].doubleValue(), 0.0) != 0) {// true iff the value at A[ij] != 0
-                    System.out.println("[" + i + ", " + j + "] = " + toCheck.get(i)[j] + "!= 0  !!!");
-                    return false;
-                }
-            }
+            toAdd.add(newRow);
         }
-        return true;
+        return toAdd;
     }
     
     /**
@@ -94,142 +147,329 @@ public class MatrixMath
      */
     public static Matrix rref(Matrix matrix)
     {
-        int numCols = matrix.getColumns();
-        int numRows = matrix.getRows();
-        
+        // with metrics off these are constants, and the timing disappears
+        long start = MatrixMetrics.now();
+        long rationals = MatrixMetrics.rrefStarted();
+        Matrix reduced = rrefRouted(matrix);
+        MatrixMetrics.rrefDone(MatrixMetrics.now() - start, rationals);
+        return reduced;
+    }
+
+    /**
+     * Row-reduces the matrix with the fastest kernel for its entries
+     */
+    private static Matrix rrefRouted(Matrix matrix)
+    {
+        // all doubles - use the primitive kernel, which never boxes
+        if (matrix.isDense())
+        {
+            MatrixMetrics.rref(MatrixMetrics.Route.DENSE);
+            DenseDoubleMatrix dense = matrix.getDense();
+            dense.rref();
+            return new Matrix(dense);
+        }
+
+        // mostly zeros - the sparse elimination only touches the rows with an entry in each pivot column
+        if (matrix.isSparse())
+        {
+            MatrixMetrics.rref(MatrixMetrics.Route.SPARSE);
+            return new Matrix(matrix.getSparse().rref());
+        }
+
+        // all rationals - use the packed kernel, which only creates a Rational
+        // for the entries that outgrow a long
+        if (Matrix.isAllRational(matrix.getMatrix()))
+        {
+            MatrixMetrics.rref(MatrixMetrics.Route.RATIONAL);
+            RationalMatrix packed = RationalMatrix.fromRows(matrix.getMatrix());
+            packed.rref();
+            return new Matrix(packed.toRows());
+        }
+
+        MatrixMetrics.rref(MatrixMetrics.Route.GENERAL);
         ArrayList<Number[]> toReduce = matrix.getMatrix();
-        
-        /*
-         * if (toClone) { toReduce = matrix.clone(); } else { toReduce =
-         * matrix.getMatrix(); }
-         */
-        boolean reduced = checkIfReduced(toReduce);
+        reduce(toReduce, matrix.getColumns(), false, null);
+        // Congrats, matrix is reduced!
+        return new Matrix(toReduce);
+    }
+
+    /**
+     * Row-reduces the matrix, recording every row operation in the trace (which is
+     * cleared first), so the steps can be shown or replayed afterwards. The fast
+     * dense and rational kernels do not record, so this always uses the general
+     * elimination, one thread
+     * 
+     * @param matrix
+     *            The matrix to convert to it's row-reduced echelon form
+     * @param trace
+     *            where to record the row operations
+     * @return the row-reduced matrix
+     */
+    public static Matrix rref(Matrix matrix, RowOperationTrace trace)
+    {
+        trace.start(matrix.getRows());
+        ArrayList<Number[]> toReduce = matrix.convertToRows();
+        reduce(toReduce, matrix.getColumns(), false, trace);
+        return new Matrix(toReduce);
+    }
+
+    /**
+     * Gauss-Jordan elimination of mixed rows, in place, looking for pivots only in
+     * the first pivotColumns columns - the rest are carried along
+     * 
+     * @param stopAtFreeColumn if set, give up at the first column without a pivot
+     * @param trace where to record the row operations, or null
+     * @return the number of pivots found
+     */
+    private static int reduce(ArrayList<Number[]> toReduce, int pivotColumns, boolean stopAtFreeColumn,
+            RowOperationTrace trace)
+    {
+        int numRows = toReduce.size();
 
-        // create a counter so we know which rows and columns are covered
+        // the cursor: rows above workingRowIndex already have their leading ones, and
+        // every column left of workingColumnIndex is finished. Each column is visited
+        // once, so we know we're done when we run off the matrix - no need to rescan it.
         int workingRowIndex = 0;
-        int workingColumnIndex = 0;
 
-        while (!reduced)
+        for (int workingColumnIndex = 0; workingColumnIndex < pivotColumns && workingRowIndex < numRows; ++workingColumnIndex)
         {
-            Number[] workingRow = toReduce.get(workingRowIndex);
-
-            // first, check for proper cascading. Determine the leading terms (first non-zero terms)
-            // of each row, then put them in an ArrayList. If it isn't sorted, swap rows so that it is.
-            ArrayList<Integer> leadingTermList = new ArrayList<>();
-            for (int i = 0; i < numRows; ++i) {
-                for (int j = 0; j <= numCols; ++j) {
-                    if (j == numCols) {
-                        leadingTermList.add(numCols + 1); // if it's a row of all zeros, this will move it to the bottom
-                    }
-                    else if (!(Double.compare(toReduce.get(i)[j].doubleValue(), 0.0) == 0)) { // if the number != 0
-                        leadingTermList.add(j);
-                        break;
-                    }
-                }
-            }
-            // cascade the rows
-            cascadeRows(toReduce, leadingTermList);
-            
-            // need to find the index of the leading term
-            int leadingTermIndex = -1;
-            for (int i = 0; i < workingRow.length; ++i) {
-                if (!(Double.compare(workingRow[i].doubleValue(), 0.0) == 0)) {
-                    leadingTermIndex = i;
+            // find a row at or below the cursor with a non-zero entry in this column
+            long searchStart = MatrixMetrics.now();
+            int pivotRowIndex = -1;
+            for (int i = workingRowIndex; i < numRows; ++i)
+            {
+                if (!isZero(toReduce.get(i)[workingColumnIndex]))
+                {
+                    pivotRowIndex = i;
                     break;
                 }
             }
-            
-            workingColumnIndex = leadingTermIndex;
-            
-            /*
-            // this will make sense later
-            int tempVariable = workingColumnIndex;
-            
-            
-            // If the working term of the row is a zero and it's not the first row -
-            // that is, if the row reduction leads to a column without a leading one
-            // but the working row has a one in the next column over ( or a couple columns
-            // over)
-            // we need to increment workingColumnIndex, then workingRow until we hit a non-zero index so we
-            // don't divide by zero
-            while (Double.compare(workingRow[workingColumnIndex].doubleValue(), 0.0) == 0)
+            long searchEnd = MatrixMetrics.now();
+            MatrixMetrics.pivotSearch(searchEnd - searchStart);
+            // nothing to pivot on, so this column doesn't get a leading one
+            if (pivotRowIndex == -1)
             {
-                // make sure we don't continue doing this off the end of the matrix
-                // if we hit go past the end and haven't found anything, it's a zero row, break
-                // the while loop
-                if (workingColumnIndex + 1 < numCols)
-                    ++workingColumnIndex;
-                else
-                {
-                    // if it is off the end of the matrix, reset the column index and increment the
-                    // row index
-                    // swap rows so that the zero row is at the bottom - this will cause problems if
-                    // the
-                    // matrix has multiple zero rows
-                    workingColumnIndex = tempVariable;
-                    ++workingRowIndex;
-                    // swapRows(toReduce, workingRowIndex, numRows - 1);
-                }
+                if (stopAtFreeColumn)
+                    return workingRowIndex;
+                continue;
             }
-            */
-            
-
-            // Now that the first (working) term is non-zero (hopefully), we can start doing
-            // things.
-            // If the term is not a one, scale the row so that it is.
-            if (!(Double.compare(workingRow[workingColumnIndex].doubleValue(), 1.0) == 0))
+            if (pivotRowIndex != workingRowIndex)
             {
+                swapRows(toReduce, workingRowIndex, pivotRowIndex);
+                if (trace != null)
+                    trace.swap(workingRowIndex, pivotRowIndex);
+            }
 
-                // printing things out
-                // currentRowOperation = rowOperation.scale;
-                // displayRowOperations(workingRowIndex, 0); // the 0 doesn't alter it, just
-                // didn't want to deal with overloading
+            Number[] workingRow = toReduce.get(workingRowIndex);
 
-                Number scaleFactor = findScaleFactor(workingRow[workingColumnIndex], new Rational(1, 1));
-                
-                if (!(Double.compare(scaleFactor.doubleValue(), 0.0) == 0))
-                {
-                    workingRow = scaleRow(workingRow, scaleFactor);
-                    toReduce.set(workingRowIndex, workingRow);
-                }   
+            // If the term is not a one, scale the row so that it is.
+            if (!isOne(workingRow[workingColumnIndex]))
+            {
+                Number scaleFactor = findScaleFactor(workingRow[workingColumnIndex], Rational.one);
+                workingRow = scaleRow(workingRow, scaleFactor);
+                toReduce.set(workingRowIndex, workingRow);
+                if (trace != null)
+                    trace.scale(workingRowIndex, scaleFactor);
             }
 
             // now that the term is a leading 1, reduce the rest of the column
-            // passes workingRowIndex so that it we can call diplayRowOperations
-            // this isn't the best way to do it, but it's *A* way to do it, and I'm lazy
-            reduceColumn(toReduce, workingRowIndex, workingColumnIndex, workingRowIndex);
+            reduceColumn(toReduce, workingRowIndex, workingColumnIndex, trace);
+            MatrixMetrics.elimination(MatrixMetrics.now() - searchEnd);
 
-            // remove all the weird "negative zeros"
-            // toReduce = removeNegativeZeros(toReduce);
+            ++workingRowIndex;
+        }
+        return workingRowIndex;
+    }
 
-            // check if we should go further
-            reduced = checkIfReduced(toReduce);
+    /**
+     * Finds the rank with forward elimination alone - to row echelon form - which
+     * skips the back substitution half of rref and costs about a third as much. Does
+     * not change the matrix
+     * 
+     * @return the rank of the matrix
+     */
+    public static int rank(Matrix matrix)
+    {
+        if (matrix.isDense())
+            return matrix.getDense().rank();
+        if (matrix.isSparse())
+            return matrix.getSparse().rank();
+        ArrayList<Number[]> rows = matrix.getMatrix();
+        if (Matrix.isAllRational(rows))
+            return RationalMatrix.fromRows(rows).rank();
+        // elimination only ever replaces rows, so a copy of the list is enough
+        return echelon(new ArrayList<>(rows), matrix.getColumns());
+    }
 
-            ++workingColumnIndex;
-            ++workingRowIndex;
+    /**
+     * Finds the rank, using the given engine for exact matrices. Does not change
+     * the matrix
+     * 
+     * @return the rank of the matrix
+     */
+    public static int rank(Matrix matrix, Engine engine)
+    {
+        if (engine == Engine.BAREISS && usesEngine(matrix))
+            return BareissElimination.rank(matrix);
+        if (engine == Engine.MULTI_MODULAR && usesEngine(matrix))
+            return MultiModularElimination.rank(matrix);
+        return rank(matrix);
+    }
 
-        }
-        // Congrats, matrix is reduced!
-        return new Matrix(toReduce);
+    /**
+     * Finds the determinant with forward elimination alone: it is the product of
+     * the pivots, negated once for every row swap. All-Rational matrices give an
+     * exact Rational. Any double makes the answer inexact anyway, so the rest give a
+     * Double, from the dense kernel - its partial pivoting keeps the rounding down,
+     * where the first non-zero pivot might be a rounded zero. Does not change the matrix
+     * 
+     * @return the determinant
+     * @throws MatrixException if the matrix is not square
+     */
+    public static Number determinant(Matrix matrix) throws MatrixException
+    {
+        int n = matrix.getRows();
+        if (matrix.getColumns() != n)
+            throw new MatrixException("The matrix is not square, so the determinant does not exist!");
+        if (matrix.isDense())
+            return matrix.getDense().determinant();
+        if (matrix.isSparse())
+            return matrix.getSparse().toDense().determinant();
+        ArrayList<Number[]> rows = matrix.getMatrix();
+        if (Matrix.isAllRational(rows))
+            return RationalMatrix.fromRows(rows).determinant();
+        return DenseDoubleMatrix.fromRows(rows).determinant();
+    }
+
+    /**
+     * Finds the determinant, using the given engine for exact matrices. Does not
+     * change the matrix
+     * 
+     * @return the determinant
+     * @throws MatrixException if the matrix is not square
+     */
+    public static Number determinant(Matrix matrix, Engine engine) throws MatrixException
+    {
+        if (engine == Engine.BAREISS && usesEngine(matrix))
+            return BareissElimination.determinant(matrix);
+        if (engine == Engine.MULTI_MODULAR && usesEngine(matrix))
+            return MultiModularElimination.determinant(matrix);
+        return determinant(matrix);
     }
 
-    private static void cascadeRows(ArrayList<Number[]> toSwap, ArrayList<Integer> order) {
-        for (int i = 0; i < order.size() - 1; ++i) {
-            if (order.get(i) > order.get(i + 1)) {
-                // search for the appropriate place to swap the row into
-                for (int j = i; j < order.size(); ++j) {
-                    if (order.get(j) < order.get(i)) {
-                        swapRows(toSwap, j , i);
-                        // swap them in order
-                        int temp = order.get(i);
-                        order.set(i, order.get(j));
-                        order.set(j, temp);
-                        i = -1; // reset the search
-                        break;
-                    }
+    /**
+     * Gaussian elimination of mixed rows to row echelon form, in place. Only the
+     * rows below each pivot are cleared
+     * 
+     * @return the number of pivots found
+     */
+    private static int echelon(ArrayList<Number[]> toReduce, int pivotColumns)
+    {
+        int numRows = toReduce.size();
+        int workingRowIndex = 0;
+
+        for (int workingColumnIndex = 0; workingColumnIndex < pivotColumns && workingRowIndex < numRows; ++workingColumnIndex)
+        {
+            int pivotRowIndex = -1;
+            for (int i = workingRowIndex; i < numRows; ++i)
+            {
+                if (!isZero(toReduce.get(i)[workingColumnIndex]))
+                {
+                    pivotRowIndex = i;
+                    break;
                 }
             }
+            if (pivotRowIndex == -1)
+                continue;
+            if (pivotRowIndex != workingRowIndex)
+                swapRows(toReduce, workingRowIndex, pivotRowIndex);
+
+            // scale to a leading one as reduce does, so the rows below get exactly the
+            // arithmetic they would in rref - with doubles about, anything else could
+            // round a zero the rref would find into a tiny pivot, or the other way round
+            Number[] workingRow = toReduce.get(workingRowIndex);
+            if (!isOne(workingRow[workingColumnIndex]))
+                toReduce.set(workingRowIndex, scaleRow(workingRow, findScaleFactor(workingRow[workingColumnIndex], Rational.one)));
+            eliminateBelow(toReduce, workingRowIndex, workingColumnIndex);
+            ++workingRowIndex;
         }
+        return workingRowIndex;
+    }
+
+    /**
+     * Clears the column from every row below rowIndex. As in reduceColumn, big
+     * matrices split the rows across threads
+     */
+    private static void eliminateBelow(ArrayList<Number[]> toReduce, int rowIndex, int columnIndex)
+    {
+        int numRows = toReduce.size();
+        Number[] workingRow = toReduce.get(rowIndex);
+        ParallelRows.forEach(rowIndex + 1, numRows, eliminationGrain(numRows), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; ++i)
+            {
+                Number[] rowToReduce = toReduce.get(i);
+                // already clear, so there is nothing to add
+                if (isZero(rowToReduce[columnIndex]))
+                    continue;
+                toReduce.set(i, scaleAndAddRows(workingRow, rowToReduce, columnIndex, rowIndex, i, null));
+            }
+        });
+    }
+
+    /**
+     * Row-reduces the matrix, then, if verify is set, double checks the result with
+     * the full checkIfReduced scan. The reduction itself never needs that scan, so it
+     * is only worth paying for while debugging.
+     * 
+     * @param matrix
+     *            The matrix to convert to it's row-reduced echelon form
+     * @param verify
+     *            whether to check the result
+     * @return the row-reduced matrix
+     * @throws MatrixException if verification was requested and failed
+     */
+    public static Matrix rref(Matrix matrix, boolean verify) throws MatrixException
+    {
+        Matrix reduced = rref(matrix);
+        if (verify)
+            verifyReduced(reduced);
+        return reduced;
+    }
+
+    /**
+     * Checks that a matrix is in row-reduced echelon form with checkIfReduced
+     * 
+     * @param reduced the matrix to check
+     * @throws MatrixException if it is not
+     */
+    public static void verifyReduced(Matrix reduced) throws MatrixException
+    {
+        // check a copy, so that dense matrices stay dense
+        if (!checkIfReduced(reduced.clone().getMatrix()))
+            throw new MatrixException("Verification failed, the matrix is not in row-reduced echelon form!");
+    }
+
+    /**
+     * @return true if the number is zero. Rationals are checked exactly, since a tiny
+     * enough Rational has a doubleValue of 0
+     */
+    private static boolean isZero(Number number)
+    {
+        if (number.getClass().equals(Rational.class))
+            return ((Rational) number).signum() == 0;
+        // == rather than Double.compare, so that -0.0 counts as zero too
+        return number.doubleValue() == 0.0;
+    }
+
+    /**
+     * @return true if the number is one. As with isZero, Rationals are checked exactly,
+     * since a Rational within an ulp of one has a doubleValue of 1
+     */
+    private static boolean isOne(Number number)
+    {
+        if (number.getClass().equals(Rational.class))
+            return number.equals(Rational.one);
+        return Double.compare(number.doubleValue(), 1.0) == 0;
     }
 
     private static ArrayList<Number[]> swapRows(ArrayList<Number[]> toSwap, int row1, int row2)
@@ -243,7 +483,7 @@ public class MatrixMath
     private static Number findScaleFactor(Number termToReduce, Number toReduceTo)
     {
         // check that termToReduce isn't already zero - we don't need to do anything in that case
-        if (Double.compare(termToReduce.doubleValue(), 0.0) == 0) {
+        if (isZero(termToReduce)) {
            return Rational.zero;  // do nothing
         }
         // it's prefered that everything is a rational.
@@ -288,38 +528,64 @@ public class MatrixMath
     }
 
     private static ArrayList<Number[]> reduceColumn(ArrayList<Number[]> toReduce, int rowIndex, int columnIndex,
-            int workingRowIndex)
+            RowOperationTrace trace)
     {
         // for each row, find the scale factor then add the rows.
         // skip the current working row
+        // once the working row is fixed every other row can be reduced independently,
+        // so big matrices split the rows across threads - unless they are being traced,
+        // which has to happen in order
         int numRows = toReduce.size();
-        int modifyingRow;
         Number[] workingRow = toReduce.get(rowIndex);
-        for (int i = 0; i < numRows; ++i)
-        {
-            if (i == rowIndex)
+        int grain = trace == null ? eliminationGrain(numRows) : numRows;
+        ParallelRows.forEach(0, numRows, grain, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; ++i)
             {
-                continue;
+                if (i == rowIndex)
+                {
+                    continue;
+                }
+                // get the row we're going to modify so that we can pass it to scaleAndAdd
+                Number[] rowToReduce = toReduce.get(i);
+                // then reduce (aka scaleAndAdd) that row, then set the replace the old row with
+                // the new row in the matrix
+                // passes in the row numbers so that the operation can be traced
+                toReduce.set(i, scaleAndAddRows(workingRow, rowToReduce, columnIndex, rowIndex, i, trace));
             }
-            modifyingRow = i;
-            // get the row we're going to modify so that we can pass it to scaleAndAdd
-            Number[] rowToReduce = toReduce.get(i);
-            // then reduce (aka scaleAndAdd) that row, then set the replace the old row with
-            // the new row in the matrix
-            // passes in the row numbers so that displayRowOperations can be called from
-            // scaleAndAddRows
-            toReduce.set(i, scaleAndAddRows(workingRow, rowToReduce, columnIndex, workingRowIndex, modifyingRow));
-        }
+        });
         return toReduce;
     }
 
-    private static Number[] scaleAndAddRows(Number[] toScaleAndAdd, Number[] toAddTo, int columnIndex,
-            int toScaleAndAddRowNum, int toAddtoRowNum)
+    /**
+     * Sets the number of rows at which elimination starts splitting rows across
+     * threads (see ParallelRows for the pool it uses). Below it, elimination stays
+     * on the calling thread.
+     * 
+     * @param rows the new threshold
+     */
+    public static void setParallelThreshold(int rows)
     {
+        parallelThreshold = rows;
+    }
+
+    /** @return the number of rows at which elimination goes parallel */
+    public static int getParallelThreshold()
+    {
+        return parallelThreshold;
+    }
 
-        // TODO
-        // currentRowOperation = rowOperation.add;
-        // displayRowOperations(toScaleAndAddRowNum, toAddtoRowNum);
+    /**
+     * @return how many rows to give each elimination task - all of them if the
+     * matrix is under the parallel threshold
+     */
+    static int eliminationGrain(int numRows)
+    {
+        return numRows < parallelThreshold ? numRows : ELIMINATION_GRAIN;
+    }
+
+    private static Number[] scaleAndAddRows(Number[] toScaleAndAdd, Number[] toAddTo, int columnIndex,
+            int toScaleAndAddRowNum, int toAddtoRowNum, RowOperationTrace trace)
+    {
         Number scaleFactor;
         if (toScaleAndAdd[columnIndex].getClass().equals(Rational.class)
                 && toAddTo[columnIndex].getClass().equals(Rational.class))
@@ -330,7 +596,7 @@ public class MatrixMath
             Number rationalScaleFactor = 
                     findScaleFactor((Rational) toScaleAndAdd[columnIndex], (Rational) toAddTo[columnIndex]);
             if (rationalScaleFactor.getClass().equals(Rational.class)) { // this if is technically unecessary but java hates me
-                scaleFactor = new Rational(-1, 1).times((Rational) rationalScaleFactor);
+                scaleFactor = ((Rational) rationalScaleFactor).negate();
             }
             else {
                 scaleFactor = Rational.zero; // sentinal(?)
@@ -338,8 +604,12 @@ public class MatrixMath
         }
         else
         { // use doubles and be sad
+            MatrixMetrics.doubleFactorFallback();
             scaleFactor = -1 * findScaleFactor(toScaleAndAdd[columnIndex], toAddTo[columnIndex]).doubleValue();
         }
+        // adding zero times a row is not worth showing
+        if (trace != null && !isZero(scaleFactor))
+            trace.add(scaleFactor, toScaleAndAddRowNum, toAddtoRowNum);
         Number[] rowToAdd = scaleRow(toScaleAndAdd, scaleFactor);
         Number[] toReturn = addRows(rowToAdd, toAddTo);
         return toReturn;
@@ -357,6 +627,7 @@ public class MatrixMath
             }
             else
             { // use doubles and be sad
+                MatrixMetrics.doubleEntryFallback();
                 newRow[i] = toAdd[i].doubleValue() + toAddTo[i].doubleValue();
             }
         }
@@ -390,13 +661,13 @@ public class MatrixMath
             for (int j = 0; j < numCols; ++j)
             {
                 Number num = toCheck.get(i)[j];
-                if (Double.compare(num.doubleValue(), 1.0) == 0)
+                if (isOne(num))
                 {
                     // if we haven't exited yet, it's got a leading one
                     // so we're good
                     break;
                 }
-                else if (Double.compare(num.doubleValue(), 0.0) == 0)
+                else if (isZero(num))
                 {
                     // if it's a zero, keep looking for a one
                     continue;
@@ -423,7 +694,7 @@ public class MatrixMath
             int leadingOneIndex = -1; // sentinal
             for (int index = 0; index < numCols; ++index)
             {
-                if (Double.compare(workingRow[index].doubleValue(), 1.0) == 0)
+                if (isOne(workingRow[index]))
                 {
                     leadingOneIndex = index;
                     break;
@@ -446,7 +717,7 @@ public class MatrixMath
                     continue;
                 }
                 Number[] checkingRow = toCheck.get(j);
-                if (!(Double.compare(checkingRow[leadingOneIndex].doubleValue(), 0.0) == 0))
+                if (!isZero(checkingRow[leadingOneIndex]))
                     return false;
             }
 
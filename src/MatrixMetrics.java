@@ -0,0 +1,363 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and histograms around the hot paths of elimination: which kernel each
+ * rref goes to, how long it takes, how many Rationals it creates, how many gcd
+ * steps run, how often exact arithmetic falls back to doubles, and how the time of
+ * the general elimination splits between looking for pivots and eliminating.
+ *
+ * Everything is off unless the JVM is started with -Dmatrix.metrics=true. The
+ * switch is a static final, so when it is off the JIT drops the counting
+ * completely. When it is on, the counts are published as the MBean
+ * "LinearAlgebra:type=MatrixMetrics" (see View), for jconsole or any other JMX
+ * client, the first time anything is counted. Counters are LongAdders, so threads
+ * counting at the same time do not fight over one cache line.
+ */
+public final class MatrixMetrics
+{
+    /** Whether anything is counted */
+    public static final boolean ENABLED = Boolean.getBoolean("matrix.metrics");
+
+    /** The name the MBean is registered under */
+    public static final String OBJECT_NAME = "LinearAlgebra:type=MatrixMetrics";
+
+    /** The kernels MatrixMath.rref hands a matrix to */
+    public enum Route
+    {
+        /** all doubles - DenseDoubleMatrix */
+        DENSE,
+        /** all doubles, mostly zeros - SparseMatrix */
+        SPARSE,
+        /** all Rationals - RationalMatrix */
+        RATIONAL,
+        /** a mix of doubles and Rationals - the general elimination */
+        GENERAL,
+        /** BareissElimination */
+        BAREISS,
+        /** MultiModularElimination */
+        MULTI_MODULAR;
+    }
+
+    /**
+     * What the MBean shows. Histograms are counts per power of two: element i
+     * counts the values v with 2^(i-1) <= v < 2^i (element 0 counts zeros)
+     */
+    public interface View
+    {
+        /** @return the number of rref calls, by Route */
+        long[] getRrefCallsByRoute();
+
+        /** @return the names of the routes, in the order of getRrefCallsByRoute */
+        String[] getRoutes();
+
+        /** @return a histogram of how long each rref took, in nanoseconds */
+        long[] getRrefNanosHistogram();
+
+        /** @return the mean time of an rref, in nanoseconds */
+        double getRrefMeanNanos();
+
+        /**
+         * @return a histogram of how many Rationals each rref created. Exact only while
+         * one rref runs at a time, since Rationals made by other threads are counted too
+         */
+        long[] getRationalsPerRrefHistogram();
+
+        /** @return the number of Rationals created */
+        long getRationalsCreated();
+
+        /** @return the number of steps of Euclid's algorithm in Rational */
+        long getGcdSteps();
+
+        /** @return the number of row additions in the general elimination whose factor had to be a double */
+        long getDoubleFactorFallbacks();
+
+        /** @return the number of entries the general elimination added as doubles */
+        long getDoubleEntryFallbacks();
+
+        /** @return the time the general elimination spent looking for pivots, in nanoseconds */
+        long getPivotSearchNanos();
+
+        /** @return the time the general elimination spent eliminating, in nanoseconds */
+        long getEliminationNanos();
+
+        /** sets every count back to zero */
+        void reset();
+    }
+
+    /**
+     * A histogram of non-negative longs by power of two
+     */
+    static final class Histogram
+    {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder sum = new LongAdder();
+
+        Histogram()
+        {
+            for (int i = 0; i < buckets.length; ++i)
+            {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value)
+        {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(value, 0))].increment();
+            sum.add(value);
+        }
+
+        /** @return the counts, without the empty buckets past the last used one */
+        long[] snapshot()
+        {
+            long[] counts = new long[buckets.length];
+            int length = 0;
+            for (int i = 0; i < counts.length; ++i)
+            {
+                counts[i] = buckets[i].sum();
+                if (counts[i] != 0)
+                    length = i + 1;
+            }
+            return Arrays.copyOf(counts, length);
+        }
+
+        double mean()
+        {
+            long count = 0;
+            for (LongAdder bucket : buckets)
+            {
+                count += bucket.sum();
+            }
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        void reset()
+        {
+            for (LongAdder bucket : buckets)
+            {
+                bucket.reset();
+            }
+            sum.reset();
+        }
+    }
+
+    private static final Route[] ROUTES = Route.values();
+    private static final LongAdder[] rrefCalls = new LongAdder[ROUTES.length];
+    private static final Histogram rrefNanos = new Histogram();
+    private static final Histogram rationalsPerRref = new Histogram();
+    private static final LongAdder rationalsCreated = new LongAdder();
+    private static final LongAdder gcdSteps = new LongAdder();
+    private static final LongAdder doubleFactorFallbacks = new LongAdder();
+    private static final LongAdder doubleEntryFallbacks = new LongAdder();
+    private static final LongAdder pivotSearchNanos = new LongAdder();
+    private static final LongAdder eliminationNanos = new LongAdder();
+
+    static
+    {
+        for (int i = 0; i < rrefCalls.length; ++i)
+        {
+            rrefCalls[i] = new LongAdder();
+        }
+        if (ENABLED)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(new Published(), View.class), new ObjectName(OBJECT_NAME));
+            }
+            catch (JMException e)
+            {
+                // already registered by another copy of the class, or no MBean server - the counts still work
+            }
+        }
+    }
+
+    private MatrixMetrics()
+    {
+    }
+
+    /** counts an rref sent to route */
+    static void rref(Route route)
+    {
+        if (ENABLED)
+            rrefCalls[route.ordinal()].increment();
+    }
+
+    /**
+     * @return the number of Rationals created so far, to hand back to rrefDone
+     * once the rref is finished
+     */
+    static long rrefStarted()
+    {
+        return ENABLED ? rationalsCreated.sum() : 0;
+    }
+
+    /** records an rref that took nanos, and started when rrefStarted returned rationals */
+    static void rrefDone(long nanos, long rationals)
+    {
+        if (ENABLED)
+        {
+            rrefNanos.record(nanos);
+            rationalsPerRref.record(rationalsCreated.sum() - rationals);
+        }
+    }
+
+    /** counts a new Rational */
+    static void rationalCreated()
+    {
+        if (ENABLED)
+            rationalsCreated.increment();
+    }
+
+    /** counts one step of Euclid's algorithm */
+    static void gcdStep()
+    {
+        if (ENABLED)
+            gcdSteps.increment();
+    }
+
+    /** counts a row addition whose factor was worked out with doubles, because an entry was not exact */
+    static void doubleFactorFallback()
+    {
+        if (ENABLED)
+            doubleFactorFallbacks.increment();
+    }
+
+    /** counts an entry added with doubles, because it was not exact */
+    static void doubleEntryFallback()
+    {
+        if (ENABLED)
+            doubleEntryFallbacks.increment();
+    }
+
+    /** adds time spent looking for a pivot */
+    static void pivotSearch(long nanos)
+    {
+        if (ENABLED)
+            pivotSearchNanos.add(nanos);
+    }
+
+    /** adds time spent eliminating a column */
+    static void elimination(long nanos)
+    {
+        if (ENABLED)
+            eliminationNanos.add(nanos);
+    }
+
+    /** @return the current time for timing a hot path, or 0 if nothing is counted */
+    static long now()
+    {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return the counts, the same ones the MBean shows - all zero if metrics are off
+     */
+    public static View get()
+    {
+        return new Published();
+    }
+
+    /**
+     * Reads the counters for the MBean
+     */
+    private static final class Published implements View
+    {
+        @Override
+        public long[] getRrefCallsByRoute()
+        {
+            long[] calls = new long[ROUTES.length];
+            for (int i = 0; i < calls.length; ++i)
+            {
+                calls[i] = rrefCalls[i].sum();
+            }
+            return calls;
+        }
+
+        @Override
+        public String[] getRoutes()
+        {
+            String[] names = new String[ROUTES.length];
+            for (int i = 0; i < names.length; ++i)
+            {
+                names[i] = ROUTES[i].name();
+            }
+            return names;
+        }
+
+        @Override
+        public long[] getRrefNanosHistogram()
+        {
+            return rrefNanos.snapshot();
+        }
+
+        @Override
+        public double getRrefMeanNanos()
+        {
+            return rrefNanos.mean();
+        }
+
+        @Override
+        public long[] getRationalsPerRrefHistogram()
+        {
+            return rationalsPerRref.snapshot();
+        }
+
+        @Override
+        public long getRationalsCreated()
+        {
+            return rationalsCreated.sum();
+        }
+
+        @Override
+        public long getGcdSteps()
+        {
+            return gcdSteps.sum();
+        }
+
+        @Override
+        public long getDoubleFactorFallbacks()
+        {
+            return doubleFactorFallbacks.sum();
+        }
+
+        @Override
+        public long getDoubleEntryFallbacks()
+        {
+            return doubleEntryFallbacks.sum();
+        }
+
+        @Override
+        public long getPivotSearchNanos()
+        {
+            return pivotSearchNanos.sum();
+        }
+
+        @Override
+        public long getEliminationNanos()
+        {
+            return eliminationNanos.sum();
+        }
+
+        @Override
+        public void reset()
+        {
+            for (LongAdder calls : rrefCalls)
+            {
+                calls.reset();
+            }
+            rrefNanos.reset();
+            rationalsPerRref.reset();
+            rationalsCreated.reset();
+            gcdSteps.reset();
+            doubleFactorFallbacks.reset();
+            doubleEntryFallbacks.reset();
+            pivotSearchNanos.reset();
+            eliminationNanos.reset();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Matrix multiplication kernels. Both kernels split the rows of the product into
+ * blocks and run the blocks across a ForkJoinPool (see ParallelRows).
+ *
+ * The double kernel copies the right operand into BLOCK x BLOCK panels, each
+ * stored contiguously, then works through the product one tile at a time so a
+ * panel and a strip of the result stay in cache while they are reused. The
+ * exact kernel transposes the right operand so every entry is a dot product of
+ * two contiguous rows.
+ */
+public class MatrixMultiply
+{
+    /** The edge length of a tile - a 64 x 64 panel of doubles is 32KB */
+    public static final int BLOCK = 64;
+    /** The fewest rows worth giving to one task in the exact kernel */
+    private static final int RATIONAL_GRAIN = 8;
+
+    /**
+     * @return a * b
+     */
+    public static DenseDoubleMatrix multiply(DenseDoubleMatrix a, DenseDoubleMatrix b) throws MatrixException
+    {
+        double[] product = new double[a.getRows() * b.getColumns()];
+        multiplyAdd(1.0, a, b, product);
+        return new DenseDoubleMatrix(product, a.getRows(), b.getColumns());
+    }
+
+    /**
+     * Adds alpha * a * b to product, in place - so a sum or scaling of a product
+     * costs no extra pass over memory (see MatrixExpression)
+     *
+     * @param product the row-major a.getRows() x b.getColumns() array to add to
+     */
+    public static void multiplyAdd(double alpha, DenseDoubleMatrix a, DenseDoubleMatrix b, double[] product)
+            throws MatrixException
+    {
+        if (a.getColumns() != b.getRows())
+            throw new MatrixException("Cannot multiple, matrices do not have corresponding dimmensions");
+        final int rows = a.getRows();
+        final int n = a.getColumns();
+        final int m = b.getColumns();
+        if (product.length != rows * m)
+            throw new IllegalArgumentException("Expected " + rows * m + " entries, got " + product.length);
+        final double[] left = a.getData();
+        final double[] panels = pack(b.getData(), n, m);
+        ParallelRows.forEach(0, rows, BLOCK, (fromRow, toRow) -> {
+            multiplyRows(alpha, left, panels, product, n, m, fromRow, toRow);
+        });
+    }
+
+    /**
+     * @return a * b, exactly
+     */
+    public static RationalMatrix multiply(RationalMatrix a, RationalMatrix b) throws MatrixException
+    {
+        if (a.getColumns() != b.getRows())
+            throw new MatrixException("Cannot multiple, matrices do not have corresponding dimmensions");
+        final RationalMatrix bTransposed = b.transpose();
+        final RationalMatrix product = new RationalMatrix(a.getRows(), b.getColumns());
+        ParallelRows.forEach(0, a.getRows(), RATIONAL_GRAIN, (fromRow, toRow) -> {
+            RationalMatrix.multiplyRows(a, bTransposed, product, fromRow, toRow);
+        });
+        return product;
+    }
+
+    /**
+     * Copies the n x m row-major matrix b into BLOCK x BLOCK panels. The panel for
+     * rows [k0, k0 + BLOCK) and columns [j0, j0 + BLOCK) starts at k0 * m + j0 * kb,
+     * where kb is the number of rows in that panel (less than BLOCK only at the bottom
+     * edge), and is itself row-major with jb columns.
+     */
+    private static double[] pack(double[] b, int n, int m)
+    {
+        double[] panels = new double[n * m];
+        for (int k0 = 0; k0 < n; k0 += BLOCK)
+        {
+            int kb = Math.min(BLOCK, n - k0);
+            for (int j0 = 0; j0 < m; j0 += BLOCK)
+            {
+                int jb = Math.min(BLOCK, m - j0);
+                int panel = k0 * m + j0 * kb;
+                for (int k = 0; k < kb; ++k)
+                {
+                    System.arraycopy(b, (k0 + k) * m + j0, panels, panel + k * jb, jb);
+                }
+            }
+        }
+        return panels;
+    }
+
+    /**
+     * Adds alpha times rows [fromRow, toRow) of the product to product, one tile at a time
+     */
+    private static void multiplyRows(double alpha, double[] a, double[] panels, double[] product, int n, int m,
+            int fromRow, int toRow)
+    {
+        for (int i0 = fromRow; i0 < toRow; i0 += BLOCK)
+        {
+            int iEnd = Math.min(i0 + BLOCK, toRow);
+            for (int j0 = 0; j0 < m; j0 += BLOCK)
+            {
+                int jb = Math.min(BLOCK, m - j0);
+                for (int k0 = 0; k0 < n; k0 += BLOCK)
+                {
+                    int kb = Math.min(BLOCK, n - k0);
+                    int panel = k0 * m + j0 * kb;
+                    for (int i = i0; i < iEnd; ++i)
+                    {
+                        int aOffset = i * n + k0;
+                        int productOffset = i * m + j0;
+                        for (int k = 0; k < kb; ++k)
+                        {
+                            double aik = alpha * a[aOffset + k];
+                            if (aik == 0.0)
+                                continue;
+                            int panelOffset = panel + k * jb;
+                            // streams along a panel row and a product row - the JIT vectorizes this
+                            for (int j = 0; j < jb; ++j)
+                            {
+                                product[productOffset + j] += aik * panels[panelOffset + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named matrices, safe to share between threads. A name can hold a matrix, or a
+ * matrix still in a workspace file, which is read the first time it is asked for
+ * (once, however many threads ask at the same time). Names are listed in the
+ * order they were added.
+ *
+ * The registry only guards the names: a Matrix itself is not thread-safe, so
+ * anything that shares the registry must not change a matrix it gets from it -
+ * clone it, or put a new matrix under the name instead.
+ */
+public class MatrixRegistry
+{
+    /**
+     * What a name holds
+     */
+    private static class Entry
+    {
+        /** when the entry was added, for listing in order */
+        final long sequence;
+        /** the workspace the matrix is in, or null once it has been read */
+        private Workspace workspace;
+        private String storedName;
+        private Matrix matrix;
+
+        Entry(long sequence, Matrix matrix)
+        {
+            this.sequence = sequence;
+            this.matrix = matrix;
+        }
+
+        Entry(long sequence, Workspace workspace, String storedName)
+        {
+            this.sequence = sequence;
+            this.workspace = workspace;
+            this.storedName = storedName;
+        }
+
+        synchronized Matrix get(String name) throws IOException
+        {
+            if (matrix == null)
+            {
+                Matrix loaded = workspace.load(storedName);
+                if (loaded == null)
+                    throw new IOException("The workspace has no matrix named " + storedName);
+                matrix = loaded;
+                matrix.setName(name);
+                workspace = null;
+                storedName = null;
+            }
+            return matrix;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Adds a matrix under a name, replacing whatever had that name
+     */
+    public void put(String name, Matrix matrix)
+    {
+        entries.put(name, new Entry(sequence.incrementAndGet(), matrix));
+    }
+
+    /**
+     * Adds a matrix from a workspace file under a name, replacing whatever had that
+     * name. It is not read until it is asked for
+     */
+    public void putStored(String name, Workspace workspace, String storedName)
+    {
+        entries.put(name, new Entry(sequence.incrementAndGet(), workspace, storedName));
+    }
+
+    /**
+     * Adds a matrix under the name, or if the name is taken, under the name with the
+     * smallest number that makes it unique added on
+     *
+     * @return the name it was added under
+     */
+    public String putUnique(String name, Matrix matrix)
+    {
+        return putUnique(name, new Entry(0, matrix));
+    }
+
+    /**
+     * Adds a matrix from a workspace file, renaming it as putUnique(String, Matrix) does
+     *
+     * @return the name it was added under
+     */
+    public String putStoredUnique(String name, Workspace workspace, String storedName)
+    {
+        return putUnique(name, new Entry(0, workspace, storedName));
+    }
+
+    private String putUnique(String name, Entry entry)
+    {
+        String unique = name;
+        for (int i = 1;; ++i)
+        {
+            Entry numbered = entry.matrix != null ? new Entry(sequence.incrementAndGet(), entry.matrix)
+                    : new Entry(sequence.incrementAndGet(), entry.workspace, entry.storedName);
+            if (entries.putIfAbsent(unique, numbered) == null)
+                return unique;
+            unique = name + i;
+        }
+    }
+
+    /**
+     * @return the matrix with the name, reading it from its workspace file if need
+     * be, or null if there is none
+     * @throws IOException if the matrix cannot be read from its workspace file
+     */
+    public Matrix get(String name) throws IOException
+    {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.get(name);
+    }
+
+    /**
+     * @return true if there is a matrix with the name
+     */
+    public boolean contains(String name)
+    {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Removes a name
+     *
+     * @return true if there was a matrix with the name
+     */
+    public boolean remove(String name)
+    {
+        return entries.remove(name) != null;
+    }
+
+    /**
+     * @return every name, in the order they were added
+     */
+    public List<String> names()
+    {
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        snapshot.sort(Comparator.comparingLong(e -> e.getValue().sequence));
+        List<String> names = new ArrayList<>(snapshot.size());
+        for (Map.Entry<String, Entry> e : snapshot)
+        {
+            names.add(e.getKey());
+        }
+        return names;
+    }
+
+    /**
+     * Writes matrices to a workspace file. One still in its workspace file is
+     * copied across without being decoded
+     *
+     * @param names the matrices to write
+     * @throws IOException if a name is not in the registry, or a file cannot be used
+     */
+    public void writeTo(Workspace.Writer writer, List<String> names) throws IOException
+    {
+        for (String name : names)
+        {
+            Entry entry = entries.get(name);
+            if (entry == null)
+                throw new IOException("There is no matrix named " + name);
+            Workspace workspace;
+            String storedName;
+            Matrix matrix;
+            synchronized (entry)
+            {
+                workspace = entry.workspace;
+                storedName = entry.storedName;
+                matrix = entry.matrix;
+            }
+            if (workspace != null)
+                writer.add(name, workspace, storedName);
+            else
+                writer.add(name, matrix);
+        }
+    }
+}
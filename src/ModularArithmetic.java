@@ -0,0 +1,314 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * Arithmetic modulo word-sized primes, and the tools for getting exact answers
+ * back out of it: the Chinese Remainder Theorem, to combine the residues of a
+ * number modulo several primes into its residue modulo their product, and
+ * rational reconstruction, to recover a fraction from its residue.
+ *
+ * Every prime is below 2^31, so a product of two residues fits in a long and
+ * nothing here needs more than long arithmetic.
+ */
+public class ModularArithmetic
+{
+    /** Every prime handed out is below this */
+    private static final long PRIME_LIMIT = 1L << 31;
+    /** The primes handed out so far, largest first */
+    private static final ArrayList<Long> primes = new ArrayList<>();
+
+    private ModularArithmetic()
+    {
+    }
+
+    /**
+     * @param k from 0 up
+     * @return the k'th largest prime below 2^31
+     */
+    public static long prime(int k)
+    {
+        synchronized (primes)
+        {
+            long candidate = primes.isEmpty() ? PRIME_LIMIT - 1 : primes.get(primes.size() - 1) - 2;
+            while (primes.size() <= k)
+            {
+                if (isPrime(candidate))
+                    primes.add(candidate);
+                candidate -= 2;
+            }
+            return primes.get(k);
+        }
+    }
+
+    /** trial division - quick enough for numbers below 2^31, which have no factor past 46341 */
+    private static boolean isPrime(long n)
+    {
+        if (n % 2 == 0)
+            return n == 2;
+        for (long d = 3; d * d <= n; d += 2)
+        {
+            if (n % d == 0)
+                return false;
+        }
+        return n > 1;
+    }
+
+    /**
+     * @return x mod p, from 0 to p - 1
+     */
+    public static long mod(BigInteger x, long p)
+    {
+        if (x.bitLength() < 63)
+            return Math.floorMod(x.longValue(), p);
+        return x.mod(BigInteger.valueOf(p)).longValue();
+    }
+
+    /**
+     * @return a / b mod p, from 0 to p - 1, or -1 if b is divisible by p
+     */
+    public static long mod(Rational x, long p)
+    {
+        long denominator = x.isBig() ? mod(x.bigDenominator(), p) : Math.floorMod(x.denominator(), p);
+        if (denominator == 0)
+            return -1;
+        long numerator = x.isBig() ? mod(x.bigNumerator(), p) : Math.floorMod(x.numerator(), p);
+        return numerator * inverse(denominator, p) % p;
+    }
+
+    /**
+     * @return the constant reduce needs to work mod p: floor(2^64 / p)
+     */
+    public static long barrett(long p)
+    {
+        return Long.divideUnsigned(-1L, p);
+    }
+
+    /**
+     * x mod p by Barrett reduction - two multiplies instead of a division, which
+     * is several times slower. The quotient it estimates is at most one short, so
+     * one subtraction puts the remainder right
+     *
+     * @param x from 0 to 2^62, such as a residue plus the product of two residues
+     * @param barrett barrett(p)
+     * @return x mod p
+     */
+    public static long reduce(long x, long p, long barrett)
+    {
+        long r = x - Math.multiplyHigh(x, barrett) * p;
+        return r >= p ? r - p : r;
+    }
+
+    /**
+     * @param a from 1 to p - 1
+     * @return the b with a * b = 1 mod p
+     */
+    public static long inverse(long a, long p)
+    {
+        // extended Euclid, keeping only the coefficient of a
+        long r0 = p;
+        long r1 = a;
+        long t0 = 0;
+        long t1 = 1;
+        while (r1 != 0)
+        {
+            long q = r0 / r1;
+            long r = r0 - q * r1;
+            r0 = r1;
+            r1 = r;
+            long t = t0 - q * t1;
+            t0 = t1;
+            t1 = t;
+        }
+        if (r0 != 1)
+            throw new ArithmeticException(a + " has no inverse mod " + p);
+        return t0 < 0 ? t0 + p : t0;
+    }
+
+    /**
+     * Inverts a square matrix mod p, by Gauss-Jordan elimination of [A | I]
+     *
+     * @param a the matrix, row by row, with entries from 0 to p - 1
+     * @param n the size of the matrix
+     * @return the inverse mod p, row by row, or null if the matrix is singular mod p
+     */
+    public static long[] inverse(long[] a, int n, long p)
+    {
+        int width = 2 * n;
+        long barrett = barrett(p);
+        long[] work = new long[n * width];
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(a, i * n, work, i * width, n);
+            work[i * width + n + i] = 1;
+        }
+        for (int column = 0; column < n; ++column)
+        {
+            int found = -1;
+            for (int i = column; i < n && found < 0; ++i)
+            {
+                if (work[i * width + column] != 0)
+                    found = i;
+            }
+            if (found < 0)
+                return null;
+            int pivotStart = column * width;
+            if (found != column)
+            {
+                for (int j = column; j < width; ++j)
+                {
+                    long temp = work[found * width + j];
+                    work[found * width + j] = work[pivotStart + j];
+                    work[pivotStart + j] = temp;
+                }
+            }
+            long scale = inverse(work[pivotStart + column], p);
+            for (int j = column; j < width; ++j)
+            {
+                work[pivotStart + j] = reduce(work[pivotStart + j] * scale, p, barrett);
+            }
+            for (int i = 0; i < n; ++i)
+            {
+                int rowStart = i * width;
+                long factor = work[rowStart + column];
+                if (i == column || factor == 0)
+                    continue;
+                long negated = p - factor;
+                for (int j = column; j < width; ++j)
+                {
+                    work[rowStart + j] = reduce(work[rowStart + j] + negated * work[pivotStart + j], p, barrett);
+                }
+            }
+        }
+        long[] inverse = new long[n * n];
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(work, i * width + n, inverse, i * n, n);
+        }
+        return inverse;
+    }
+
+    /**
+     * Combines residues by the Chinese Remainder Theorem
+     *
+     * @param x a residue mod m, from 0 to m - 1
+     * @param m the modulus x is known to, which p does not divide
+     * @param mInverse the inverse of m mod p
+     * @param r a residue mod p
+     * @param p a prime
+     * @return the number from 0 to m * p - 1 that is x mod m and r mod p
+     */
+    public static BigInteger combine(BigInteger x, BigInteger m, long mInverse, long r, long p)
+    {
+        long t = Math.floorMod(r - mod(x, p), p) * mInverse % p;
+        return t == 0 ? x : x.add(m.multiply(BigInteger.valueOf(t)));
+    }
+
+    /**
+     * @return x mod m as the residue closest to zero, from -m/2 to m/2
+     */
+    public static BigInteger symmetric(BigInteger x, BigInteger m)
+    {
+        return x.shiftLeft(1).compareTo(m) > 0 ? x.subtract(m) : x;
+    }
+
+    /**
+     * Rational reconstruction (Wang's algorithm): finds the fraction a/b with
+     * a/b = x mod m and |a|, |b| no more than sqrt(m/2). Such a fraction is unique
+     * when it exists, so once m is more than twice the product of the largest
+     * possible numerator and denominator of a number, its residue determines it.
+     *
+     * @param x a residue mod m, from 0 to m - 1
+     * @param m the modulus
+     * @return the fraction, or null if there is none that small
+     */
+    public static Rational reconstruct(BigInteger x, BigInteger m)
+    {
+        return reconstruct(x, m, reconstructionLimit(m));
+    }
+
+    /**
+     * @return sqrt(m/2), the largest numerator or denominator that reconstruction mod m can find
+     */
+    public static BigInteger reconstructionLimit(BigInteger m)
+    {
+        return m.shiftRight(1).sqrt();
+    }
+
+    /**
+     * Rational reconstruction, with the limit already worked out
+     *
+     * @param limit reconstructionLimit(m)
+     * @return the same as reconstruct(x, m)
+     */
+    public static Rational reconstruct(BigInteger x, BigInteger m, BigInteger limit)
+    {
+        // the fast case - x is a small integer, positive or negative
+        BigInteger s = symmetric(x, m);
+        if (s.abs().compareTo(limit) <= 0)
+            return Rational.of(s, BigInteger.ONE);
+        // run extended Euclid on (m, x) until the remainder drops to the limit
+        BigInteger r0 = m;
+        BigInteger r1 = x;
+        BigInteger t0 = BigInteger.ZERO;
+        BigInteger t1 = BigInteger.ONE;
+        while (r1.compareTo(limit) > 0)
+        {
+            BigInteger[] qr = r0.divideAndRemainder(r1);
+            r0 = r1;
+            r1 = qr[1];
+            BigInteger t = t0.subtract(qr[0].multiply(t1));
+            t0 = t1;
+            t1 = t;
+        }
+        if (t1.signum() == 0 || t1.abs().compareTo(limit) > 0 || !r1.gcd(t1).equals(BigInteger.ONE))
+            return null;
+        return Rational.of(r1, t1);
+    }
+
+    /**
+     * Rational reconstruction, trying a likely denominator first. The entries of
+     * a reduced matrix mostly share one denominator, and when x times it is a small
+     * residue the answer takes one multiply rather than a run of Euclid
+     *
+     * @param limit reconstructionLimit(m)
+     * @param denominator the denominator to try, which must be positive
+     * @return the same as reconstruct(x, m)
+     */
+    public static Rational reconstruct(BigInteger x, BigInteger m, BigInteger limit, BigInteger denominator)
+    {
+        if (denominator.compareTo(limit) <= 0)
+        {
+            BigInteger numerator = symmetric(x.multiply(denominator).mod(m), m);
+            if (numerator.abs().compareTo(limit) <= 0)
+                return Rational.of(numerator, denominator);
+        }
+        return reconstruct(x, m, limit);
+    }
+
+    /**
+     * @return an upper bound on log2 of the Hadamard bound of the rows: the
+     * product of their lengths, which no square submatrix's determinant can exceed
+     * (rows of zeros are left out of the product)
+     */
+    public static double log2HadamardBound(BigInteger[][] rows)
+    {
+        double bits = 0;
+        for (BigInteger[] row : rows)
+        {
+            int longest = 0;
+            int nonZeros = 0;
+            for (BigInteger entry : row)
+            {
+                if (entry.signum() != 0)
+                {
+                    longest = Math.max(longest, entry.bitLength());
+                    ++nonZeros;
+                }
+            }
+            // |row| <= sqrt(nonZeros) * 2^longest
+            if (nonZeros > 0)
+                bits += longest + 0.5 * Math.log(nonZeros) / Math.log(2);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,467 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact row reduction by working modulo many primes. The matrix is scaled to
+ * integers (as in BareissElimination), then reduced modulo a batch of word-sized
+ * primes at once - each prime is an independent Gauss-Jordan elimination in long
+ * arithmetic, and the batch runs in parallel on ParallelRows' pool. The residues
+ * are combined by the Chinese Remainder Theorem, and every entry of the answer is
+ * rebuilt by rational reconstruction (see ModularArithmetic).
+ *
+ * A prime that divides one of the matrix's minors can lose a pivot, or find it in
+ * a later column. That never makes its pivot columns look better than the true
+ * ones, so only the primes with the most, and earliest, pivots are kept.
+ *
+ * The rank and the determinant are proven: primes are added until their product
+ * passes the Hadamard bound. The RREF and inverse stop as soon as every entry
+ * reconstructs and a further batch of primes leaves the answer unchanged, which is
+ * usually long before the number of primes the bound calls for.
+ */
+public class MultiModularElimination
+{
+    /** how many entries to reconstruct in a single task */
+    private static final int RECONSTRUCT_GRAIN = 256;
+
+    /**
+     * The matrix of integers being reduced, in longs when every entry fits
+     */
+    private static class IntegerRows
+    {
+        final int numRows;
+        final int numCols;
+        /** the entries, row by row, or null if some entry does not fit in a long */
+        final long[] small;
+        final BigInteger[][] big;
+        /** log2 of the Hadamard bound of the rows */
+        final double boundBits;
+
+        IntegerRows(BigInteger[][] rows)
+        {
+            numRows = rows.length;
+            numCols = numRows == 0 ? 0 : rows[0].length;
+            big = rows;
+            boundBits = ModularArithmetic.log2HadamardBound(rows);
+            long[] entries = new long[numRows * numCols];
+            for (int i = 0; i < numRows && entries != null; ++i)
+            {
+                for (int j = 0; j < numCols; ++j)
+                {
+                    if (rows[i][j].bitLength() >= 63)
+                    {
+                        entries = null;
+                        break;
+                    }
+                    entries[i * numCols + j] = rows[i][j].longValue();
+                }
+            }
+            small = entries;
+        }
+
+        /** @return the matrix mod p, row by row */
+        long[] reduce(long p)
+        {
+            long[] a = new long[numRows * numCols];
+            for (int i = 0; i < numRows; ++i)
+            {
+                for (int j = 0; j < numCols; ++j)
+                {
+                    int index = i * numCols + j;
+                    a[index] = small != null ? Math.floorMod(small[index], p) : ModularArithmetic.mod(big[i][j], p);
+                }
+            }
+            return a;
+        }
+    }
+
+    /**
+     * One prime's elimination
+     */
+    private static class Image
+    {
+        long prime;
+        /** the reduced matrix, row by row */
+        long[] entries;
+        /** the pivot column of each of the first rank rows */
+        int[] pivots;
+        int rank;
+        /** the determinant mod prime, if the matrix is square */
+        long determinant;
+
+        /**
+         * @return negative if this image's pivots are better - more of them, or in
+         * earlier columns - than the other's, positive if they are worse
+         */
+        int compareProfile(Image other)
+        {
+            if (rank != other.rank)
+                return other.rank - rank;
+            return Arrays.compare(pivots, 0, rank, other.pivots, 0, rank);
+        }
+    }
+
+    private MultiModularElimination()
+    {
+    }
+
+    /**
+     * Row-reduces the matrix. Does not change the original matrix
+     *
+     * @param matrix the matrix to reduce
+     * @return the matrix in row-reduced echelon form, as Rationals
+     */
+    public static Matrix rref(Matrix matrix)
+    {
+        IntegerRows rows = new IntegerRows(BareissElimination.toIntegerRows(matrix, null));
+        return reconstruct(rows, rows.numCols, 0, 0);
+    }
+
+    /**
+     * @return the rank of the matrix
+     */
+    public static int rank(Matrix matrix)
+    {
+        IntegerRows rows = new IntegerRows(BareissElimination.toIntegerRows(matrix, null));
+        int fullRank = Math.min(rows.numRows, rows.numCols);
+        // a prime can only lose rank, by dividing every minor of the full size -
+        // which it cannot do once the primes tried multiply to more than the bound
+        int rank = 0;
+        double bits = 0;
+        for (int k = 0; rank < fullRank && bits <= rows.boundBits; k += batchSize())
+        {
+            for (Image image : eliminate(rows, rows.numCols, false, k, batchSize()))
+            {
+                rank = Math.max(rank, image.rank);
+                bits += Math.log(image.prime) / Math.log(2);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @return the determinant of the (square) matrix
+     */
+    public static Rational determinant(Matrix matrix) throws MatrixException
+    {
+        int n = matrix.getRows();
+        if (n != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so the determinant does not exist!");
+        BigInteger[] rowScales = new BigInteger[n];
+        IntegerRows rows = new IntegerRows(BareissElimination.toIntegerRows(matrix, rowScales));
+        // every prime gives the determinant mod itself, and once the modulus is more
+        // than twice the bound the symmetric residue is the determinant
+        BigInteger modulus = BigInteger.ONE;
+        BigInteger determinant = BigInteger.ZERO;
+        double bits = 0;
+        for (int k = 0; bits <= rows.boundBits + 1; k += batchSize())
+        {
+            for (Image image : eliminate(rows, n, false, k, batchSize()))
+            {
+                long inverse = ModularArithmetic.inverse(ModularArithmetic.mod(modulus, image.prime), image.prime);
+                determinant = ModularArithmetic.combine(determinant, modulus, inverse, image.determinant, image.prime);
+                modulus = modulus.multiply(BigInteger.valueOf(image.prime));
+                bits += Math.log(image.prime) / Math.log(2);
+            }
+        }
+        BigInteger scale = BigInteger.ONE;
+        for (BigInteger rowScale : rowScales)
+        {
+            scale = scale.multiply(rowScale);
+        }
+        return Rational.of(ModularArithmetic.symmetric(determinant, modulus), scale);
+    }
+
+    /**
+     * Finds the inverse of the matrix. Does not change the original matrix
+     *
+     * @return the inverse of the matrix
+     * @throws MatrixException if the matrix is not square or not invertible
+     */
+    public static Matrix inverse(Matrix matrix) throws MatrixException
+    {
+        int n = matrix.getRows();
+        if (n != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so the identity does not exist!");
+        // with S the row scales, reduce [S*A | S]: the right half ends up as A^-1
+        BigInteger[] rowScales = new BigInteger[n];
+        BigInteger[][] integerRows = BareissElimination.toIntegerRows(matrix, rowScales);
+        BigInteger[][] augmented = new BigInteger[n][2 * n];
+        for (int i = 0; i < n; ++i)
+        {
+            System.arraycopy(integerRows[i], 0, augmented[i], 0, n);
+            for (int j = 0; j < n; ++j)
+            {
+                augmented[i][n + j] = i == j ? rowScales[i] : BigInteger.ZERO;
+            }
+        }
+        Matrix inverse = reconstruct(new IntegerRows(augmented), n, n, n);
+        if (inverse == null)
+            throw new MatrixException("The identity does not exist!");
+        return inverse;
+    }
+
+    /**
+     * Finds the RREF of the rows (searching only the first pivotColumns columns
+     * for pivots) by reconstruction from its images mod many primes
+     *
+     * @param fromColumn the first column to return
+     * @param requiredRank if the rank turns out to be less than this, null is returned
+     * @return columns [fromColumn, numCols) of the RREF
+     */
+    private static Matrix reconstruct(IntegerRows rows, int pivotColumns, int fromColumn, int requiredRank)
+    {
+        // bits for the pivots to be right, and for the reconstruction to be unique
+        double profileBits = rows.boundBits;
+        double reconstructBits = 2 * rows.boundBits + 1;
+
+        Image best = null;
+        int[] positions = null;
+        BigInteger[] residues = null;
+        BigInteger modulus = BigInteger.ONE;
+        double triedBits = 0;
+        double keptBits = 0;
+        // a complete reconstruction, waiting to be confirmed by the next batch of primes
+        Rational[] candidate = null;
+        boolean confirmed = false;
+        int failed = -1;
+        for (int k = 0;; k += batchSize())
+        {
+            for (Image image : eliminate(rows, pivotColumns, true, k, batchSize()))
+            {
+                triedBits += Math.log(image.prime) / Math.log(2);
+                int comparison = best == null ? -1 : image.compareProfile(best);
+                if (comparison > 0)
+                    continue;
+                if (comparison < 0)
+                {
+                    // better pivots - everything so far came from unlucky primes
+                    best = image;
+                    positions = entryPositions(image, rows.numCols);
+                    residues = new BigInteger[positions.length];
+                    Arrays.fill(residues, BigInteger.ZERO);
+                    modulus = BigInteger.ONE;
+                    keptBits = 0;
+                    candidate = null;
+                    failed = -1;
+                }
+                if (candidate != null)
+                {
+                    confirmed = true;
+                    for (int e = 0; e < positions.length && candidate != null; ++e)
+                    {
+                        if (ModularArithmetic.mod(candidate[e], image.prime) != image.entries[positions[e]])
+                            candidate = null;
+                    }
+                }
+                long inverse = ModularArithmetic.inverse(ModularArithmetic.mod(modulus, image.prime), image.prime);
+                for (int e = 0; e < positions.length; ++e)
+                {
+                    residues[e] = ModularArithmetic.combine(residues[e], modulus, inverse,
+                            image.entries[positions[e]], image.prime);
+                }
+                modulus = modulus.multiply(BigInteger.valueOf(image.prime));
+                keptBits += Math.log(image.prime) / Math.log(2);
+            }
+            if (best.rank < requiredRank)
+            {
+                if (triedBits > profileBits)
+                    return null;
+                continue;
+            }
+            if (candidate != null && confirmed)
+            {
+                // agreeing with more primes proves nothing while every prime so far
+                // might divide a pivot, so the pivots themselves have to be settled first
+                if (triedBits > profileBits)
+                    return toMatrix(rows, best, positions, candidate, fromColumn);
+                continue;
+            }
+            // the entry that failed last time is the likeliest to fail again, so it is tried on its own first
+            if (failed >= 0 && ModularArithmetic.reconstruct(residues[failed], modulus) == null)
+                continue;
+            Rational[] values = new Rational[positions.length];
+            failed = reconstructAll(residues, modulus, values);
+            if (failed >= 0)
+                continue;
+            if (triedBits > profileBits && keptBits > reconstructBits)
+                return toMatrix(rows, best, positions, values, fromColumn);
+            candidate = values;
+            confirmed = false;
+        }
+    }
+
+    /**
+     * Reconstructs every entry from its residue, in parallel. Each piece of the
+     * entries keeps its own running denominator to try first
+     *
+     * @param values where to put the entries
+     * @return the first entry that could not be reconstructed, or -1 if none failed
+     */
+    private static int reconstructAll(BigInteger[] residues, BigInteger modulus, Rational[] values)
+    {
+        BigInteger limit = ModularArithmetic.reconstructionLimit(modulus);
+        AtomicInteger failed = new AtomicInteger(Integer.MAX_VALUE);
+        ParallelRows.forEach(0, residues.length, RECONSTRUCT_GRAIN, (from, to) -> {
+            BigInteger denominator = BigInteger.ONE;
+            // entries past one that has already failed are not worth the work
+            for (int e = from; e < to && e < failed.get(); ++e)
+            {
+                values[e] = ModularArithmetic.reconstruct(residues[e], modulus, limit, denominator);
+                if (values[e] == null)
+                {
+                    failed.accumulateAndGet(e, Math::min);
+                    return;
+                }
+                if (denominator.mod(values[e].bigDenominator()).signum() != 0)
+                {
+                    BigInteger next = values[e].bigDenominator();
+                    denominator = denominator.divide(denominator.gcd(next)).multiply(next);
+                }
+            }
+        });
+        return failed.get() == Integer.MAX_VALUE ? -1 : failed.get();
+    }
+
+    /**
+     * @return the indexes in the image of the entries that have to be reconstructed -
+     * those in the first rank rows, outside the pivot columns
+     */
+    private static int[] entryPositions(Image image, int numCols)
+    {
+        boolean[] pivotColumn = new boolean[numCols];
+        for (int i = 0; i < image.rank; ++i)
+        {
+            pivotColumn[image.pivots[i]] = true;
+        }
+        int[] positions = new int[image.rank * numCols];
+        int count = 0;
+        for (int i = 0; i < image.rank; ++i)
+        {
+            for (int j = 0; j < numCols; ++j)
+            {
+                if (!pivotColumn[j])
+                    positions[count++] = i * numCols + j;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private static Matrix toMatrix(IntegerRows rows, Image best, int[] positions, Rational[] values, int fromColumn)
+    {
+        int numCols = rows.numCols;
+        Rational[] entries = new Rational[rows.numRows * numCols];
+        for (int i = 0; i < best.rank; ++i)
+        {
+            entries[i * numCols + best.pivots[i]] = Rational.one;
+        }
+        for (int e = 0; e < positions.length; ++e)
+        {
+            entries[positions[e]] = values[e];
+        }
+        ArrayList<Number[]> result = new ArrayList<>(rows.numRows);
+        for (int i = 0; i < rows.numRows; ++i)
+        {
+            Number[] row = new Number[numCols - fromColumn];
+            for (int j = fromColumn; j < numCols; ++j)
+            {
+                Rational entry = entries[i * numCols + j];
+                row[j - fromColumn] = entry != null ? entry : Rational.zero;
+            }
+            result.add(row);
+        }
+        return new Matrix(result);
+    }
+
+    /** @return how many primes to eliminate with at once - enough to keep the pool busy */
+    private static int batchSize()
+    {
+        return Math.max(2, ParallelRows.getPool().getParallelism());
+    }
+
+    /**
+     * Eliminates the rows mod primes [first, first + count), in parallel
+     *
+     * @param jordan true to clear above each pivot too, giving the RREF; false to
+     * stop at echelon form, which is enough for the rank and determinant
+     */
+    private static Image[] eliminate(IntegerRows rows, int pivotColumns, boolean jordan, int first, int count)
+    {
+        Image[] images = new Image[count];
+        ParallelRows.forEach(0, count, 1, (from, to) -> {
+            for (int k = from; k < to; ++k)
+            {
+                images[k] = eliminate(rows, pivotColumns, jordan, ModularArithmetic.prime(first + k));
+            }
+        });
+        return images;
+    }
+
+    /**
+     * Gauss-Jordan elimination mod p, searching only the first pivotColumns columns
+     * for pivots. Each pivot row is scaled so the pivot is 1
+     */
+    private static Image eliminate(IntegerRows rows, int pivotColumns, boolean jordan, long p)
+    {
+        int numRows = rows.numRows;
+        int numCols = rows.numCols;
+        long[] a = rows.reduce(p);
+        long barrett = ModularArithmetic.barrett(p);
+        Image image = new Image();
+        image.prime = p;
+        image.entries = a;
+        image.pivots = new int[Math.min(numRows, pivotColumns)];
+        long determinant = 1;
+        int pivotRow = 0;
+        for (int column = 0; column < pivotColumns && pivotRow < numRows; ++column)
+        {
+            int found = -1;
+            for (int i = pivotRow; i < numRows; ++i)
+            {
+                if (a[i * numCols + column] != 0)
+                {
+                    found = i;
+                    break;
+                }
+            }
+            if (found == -1)
+                continue;
+            int pivotStart = pivotRow * numCols;
+            if (found != pivotRow)
+            {
+                for (int j = column; j < numCols; ++j)
+                {
+                    long temp = a[found * numCols + j];
+                    a[found * numCols + j] = a[pivotStart + j];
+                    a[pivotStart + j] = temp;
+                }
+                determinant = p - determinant;
+            }
+            long pivot = a[pivotStart + column];
+            determinant = determinant * pivot % p;
+            long scale = ModularArithmetic.inverse(pivot, p);
+            for (int j = column; j < numCols; ++j)
+            {
+                a[pivotStart + j] = ModularArithmetic.reduce(a[pivotStart + j] * scale, p, barrett);
+            }
+            for (int i = jordan ? 0 : pivotRow + 1; i < numRows; ++i)
+            {
+                int rowStart = i * numCols;
+                long factor = a[rowStart + column];
+                if (i == pivotRow || factor == 0)
+                    continue;
+                // subtracting factor times the pivot row is adding (p - factor) times it
+                long negated = p - factor;
+                for (int j = column; j < numCols; ++j)
+                {
+                    a[rowStart + j] = ModularArithmetic.reduce(a[rowStart + j] + negated * a[pivotStart + j], p, barrett);
+                }
+            }
+            image.pivots[pivotRow++] = column;
+        }
+        image.rank = pivotRow;
+        image.determinant = pivotRow < Math.min(numRows, pivotColumns) ? 0 : determinant;
+        return image;
+    }
+}
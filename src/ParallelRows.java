@@ -0,0 +1,89 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits work over a range of rows across a ForkJoinPool. The range is halved
+ * until a piece is no bigger than the grain size, and each piece is handed to
+ * the kernel. Ranges no bigger than the grain, or a pool with a single thread,
+ * just run the kernel on the calling thread.
+ */
+public class ParallelRows
+{
+    /**
+     * The work to do on a range of rows
+     */
+    public interface RowKernel
+    {
+        /**
+         * does the work for rows [fromRow, toRow)
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    /** The pool the row ranges run on */
+    private static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Changes the pool that row ranges run on (the common pool by default)
+     *
+     * @param newPool
+     */
+    public static void setPool(ForkJoinPool newPool)
+    {
+        pool = newPool;
+    }
+
+    /** @return the pool that row ranges run on */
+    public static ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Runs kernel over rows [fromRow, toRow), in pieces of at most grain rows
+     *
+     * @param fromRow the first row
+     * @param toRow one past the last row
+     * @param grain the largest number of rows to give a single task
+     * @param kernel the work to do
+     */
+    public static void forEach(int fromRow, int toRow, int grain, RowKernel kernel)
+    {
+        if (toRow - fromRow <= grain || pool.getParallelism() <= 1)
+            kernel.apply(fromRow, toRow);
+        else
+            pool.invoke(new RowTask(fromRow, toRow, Math.max(1, grain), kernel));
+    }
+
+    /**
+     * Halves its range of rows until it is small enough to run directly
+     */
+    private static class RowTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 2806316475102651498L;
+        private final int fromRow;
+        private final int toRow;
+        private final int grain;
+        private final transient RowKernel kernel;
+
+        RowTask(int fromRow, int toRow, int grain, RowKernel kernel)
+        {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.grain = grain;
+            this.kernel = kernel;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (toRow - fromRow <= grain)
+            {
+                kernel.apply(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new RowTask(fromRow, middle, grain, kernel), new RowTask(middle, toRow, grain, kernel));
+        }
+    }
+}
@@ -4,60 +4,173 @@
  *
  *  @author https://introcs.cs.princeton.edu/java/92symbolic/Rational.java.html
  *      Edited by Jack Williams to extend Number
- *  Immutable ADT for Rational numbers. 
- * 
+ *  Immutable ADT for Rational numbers.
+ *
  *  Invariants
  *  -----------
  *   - gcd(num, den) = 1, i.e, the rational number is in reduced form
  *   - den >= 1, the denominator is always a positive integer
  *   - 0/1 is the unique representation of 0
  *
- *  We employ some tricks to stave of overflow, but if you
- *  need arbitrary precision rationals, use BigRational.java.
+ *  Values are held in longs while they fit. All long arithmetic is checked,
+ *  and a result that would overflow is computed with BigIntegers instead, so
+ *  only the values that actually need arbitrary precision pay for it. A
+ *  BigInteger-backed value that shrinks back into range is stored in longs again.
+ *
+ *  Small values - numerators up to 64 in size over denominators up to 16 - are
+ *  made once, up front. Rational.of and the arithmetic return those shared
+ *  instances instead of allocating (and reducing) new ones, since they make up
+ *  most of the entries of typical integer and textbook matrices.
  *
  ******************************************************************************/
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
 public class Rational extends Number implements Comparable<Rational> {
     /**
-     * Version 1
+     * Version 2 - long / BigInteger representation
+     */
+    private static final long serialVersionUID = -2206263945262317436L;
+    /** The largest numerator (in size) of the shared small values */
+    private static final int CACHE_NUMERATOR = 64;
+    /** The largest denominator of the shared small values */
+    private static final int CACHE_DENOMINATOR = 16;
+    /**
+     * The shared small values: n/d is at [d - 1][n + CACHE_NUMERATOR], for every n/d
+     * in range - so fractions that are not in lowest terms find their reduced
+     * form without a gcd
      */
-    private static final long serialVersionUID = 7092925719285588225L;
+    private static final Rational[][] CACHE = new Rational[CACHE_DENOMINATOR][2 * CACHE_NUMERATOR + 1];
+    static {
+        for (int d = 1; d <= CACHE_DENOMINATOR; ++d) {
+            for (int n = -CACHE_NUMERATOR; n <= CACHE_NUMERATOR; ++n) {
+                long g = gcd(n, d);
+                // the reduced form has a smaller denominator, so it is already made
+                CACHE[d - 1][n + CACHE_NUMERATOR] = g == 1 ? new Rational(n, d, true)
+                        : CACHE[(int) (d / g) - 1][(int) (n / g) + CACHE_NUMERATOR];
+            }
+        }
+    }
     /** Unique representation of zero */
-    public static Rational zero = new Rational(0, 1);
+    public static final Rational zero = of(0, 1);
     /** Unique representation of one */
-    public static Rational one = new Rational(1, 1);
+    public static final Rational one = of(1, 1);
     /** Numerator */
-    private int num;   // the numerator
+    private long num;   // the numerator
     /** Denominator */
-    private int den;   // the denominator
+    private long den;   // the denominator
+    /** Numerator, only used (non-null) when the value does not fit in longs */
+    private BigInteger bigNum;
+    /** Denominator, only used (non-null) when the value does not fit in longs */
+    private BigInteger bigDen;
 
     /** create and initialize a new Rational object */
     public Rational(int numerator, int denominator) {
+        this((long) numerator, (long) denominator);
+    }
+
+    /** create and initialize a new Rational object */
+    public Rational(long numerator, long denominator) {
+        MatrixMetrics.rationalCreated();
 
         if (denominator == 0) {
             throw new ArithmeticException("denominator is zero");
         }
+        // -Long.MIN_VALUE does not exist, so it can't be normalized in longs
+        if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {
+            setBig(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+            return;
+        }
 
         // reduce fraction
-        int g = gcd(numerator, denominator);
+        long g = gcd(numerator, denominator);
         num = numerator   / g;
         den = denominator / g;
 
         // needed only for negative numbers
         if (den < 0) { den = -den; num = -num; }
     }
-    /** 
+
+    /** stores numerator / denominator, which must already be in lowest terms with denominator >= 1 */
+    private Rational(long numerator, long denominator, boolean reduced) {
+        MatrixMetrics.rationalCreated();
+        num = numerator;
+        den = denominator;
+    }
+
+    /**
+     * @return numerator / denominator, as a shared instance if it is small - so
+     * prefer this to the constructor, which always allocates
+     */
+    public static Rational of(long numerator, long denominator) {
+        if (denominator == 0) {
+            throw new ArithmeticException("denominator is zero");
+        }
+        if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {
+            return new Rational(numerator, denominator);
+        }
+        if (denominator < 0) { denominator = -denominator; numerator = -numerator; }
+        Rational cached = cached(numerator, denominator);
+        if (cached != null) return cached;
+        long g = gcd(numerator, denominator);
+        if (g != 1) {
+            numerator /= g;
+            denominator /= g;
+            cached = cached(numerator, denominator);
+            if (cached != null) return cached;
+        }
+        return new Rational(numerator, denominator, true);
+    }
+
+    /** @return numerator / denominator - a shared instance if it is small */
+    public static Rational of(BigInteger numerator, BigInteger denominator) {
+        if (numerator.bitLength() < 63 && denominator.bitLength() < 63) {
+            return of(numerator.longValue(), denominator.longValue());
+        }
+        return new Rational(numerator, denominator);
+    }
+
+    /** @return the shared instance of numerator / denominator (denominator >= 1), or null if there is none */
+    private static Rational cached(long numerator, long denominator) {
+        if (denominator <= CACHE_DENOMINATOR && numerator >= -CACHE_NUMERATOR && numerator <= CACHE_NUMERATOR) {
+            return CACHE[(int) denominator - 1][(int) numerator + CACHE_NUMERATOR];
+        }
+        return null;
+    }
+
+    /** @return numerator / denominator, which must already be in lowest terms with denominator >= 1 */
+    private static Rational reduced(long numerator, long denominator) {
+        Rational cached = cached(numerator, denominator);
+        if (cached != null) return cached;
+        // Long.MIN_VALUE has no negation, so it is held in BigIntegers
+        if (numerator == Long.MIN_VALUE) return new Rational(numerator, denominator);
+        return new Rational(numerator, denominator, true);
+    }
+
+    /** create and initialize a new Rational object */
+    public Rational(BigInteger numerator, BigInteger denominator) {
+        MatrixMetrics.rationalCreated();
+        if (denominator.signum() == 0) {
+            throw new ArithmeticException("denominator is zero");
+        }
+        setBig(numerator, denominator);
+    }
+
+    /**
      * creates a Rational representation of the double object.
      * WARNING: will approximate values to best fit a fraction.
      */
     public Rational(Double value) {
+        MatrixMetrics.rationalCreated();
         if (value.equals(0.0)) {
             num = 0;
             den = 1;
         }
-        // if value is an integer (ie 2.0)
-        else if (value - (double) value.intValue() == 0) {
-            num = value.intValue();
+        // if value is an integer (ie 2.0) that fits in a long
+        else if (value - Math.rint(value) == 0 && Math.abs(value) < 0x1p62) {
+            num = value.longValue();
             den = 1;
         }
         else
@@ -65,26 +178,73 @@ public class Rational extends Number implements Comparable<Rational> {
             Rational rvalue = valueOf(value);
             num = rvalue.num;
             den = rvalue.den;
+            bigNum = rvalue.bigNum;
+            bigDen = rvalue.bigDen;
         }
     }
-    
+
     public Rational(Rational a) {
+       MatrixMetrics.rationalCreated();
        num = a.num;
        den = a.den;
+       bigNum = a.bigNum;
+       bigDen = a.bigDen;
+    }
+
+    /**
+     * reduces numerator / denominator and stores it, in longs if it fits
+     */
+    private void setBig(BigInteger numerator, BigInteger denominator) {
+        BigInteger g = numerator.gcd(denominator);
+        if (g.signum() != 0 && !g.equals(BigInteger.ONE)) {
+            numerator = numerator.divide(g);
+            denominator = denominator.divide(g);
+        }
+        if (denominator.signum() < 0) {
+            numerator = numerator.negate();
+            denominator = denominator.negate();
+        }
+        // bitLength() < 63 keeps Long.MIN_VALUE out of the long representation
+        if (numerator.bitLength() < 63 && denominator.bitLength() < 63) {
+            num = numerator.longValue();
+            den = denominator.longValue();
+        } else {
+            bigNum = numerator;
+            bigDen = denominator;
+        }
     }
-    
-    /** @return the numerator and denominator of (this) */
-    public int numerator()   { return num; }
-    public int denominator() { return den; }
+
+    /** @return true if this value is held in BigIntegers, because it does not fit in longs */
+    public boolean isBig() {
+        return bigNum != null;
+    }
+
+    /**
+     * @return the numerator and denominator of (this)
+     * @throws ArithmeticException if the value does not fit in longs (see isBig())
+     */
+    public long numerator() {
+        if (bigNum != null) throw new ArithmeticException("numerator does not fit in a long");
+        return num;
+    }
+    public long denominator() {
+        if (bigNum != null) throw new ArithmeticException("denominator does not fit in a long");
+        return den;
+    }
+
+    /** @return the numerator and denominator of (this), whichever way it is stored */
+    public BigInteger bigNumerator()   { return bigNum != null ? bigNum : BigInteger.valueOf(num); }
+    public BigInteger bigDenominator() { return bigDen != null ? bigDen : BigInteger.valueOf(den); }
 
     /** @return double precision representation of (this) */
     public double toDouble() {
-        return (double) num / den;
+        return doubleValue();
     }
 
     /** @return string representation of (this) */
     @Override
-    public String toString() { 
+    public String toString() {
+        if (bigNum != null) return bigDen.equals(BigInteger.ONE) ? bigNum.toString() : bigNum + "/" + bigDen;
         if (den == 1) return num + "";
         else          return num + "/" + den;
     }
@@ -92,29 +252,40 @@ public class Rational extends Number implements Comparable<Rational> {
     /** @return { -1, 0, +1 } if a < b, a = b, or a > b */
     public int compareTo(Rational b) {
         Rational a = this;
-        int lhs = a.num * b.den;
-        int rhs = a.den * b.num;
-        if (lhs < rhs) return -1;
-        if (lhs > rhs) return +1;
-        return 0;
+        if (a.bigNum == null && b.bigNum == null) {
+            try {
+                long lhs = Math.multiplyExact(a.num, b.den);
+                long rhs = Math.multiplyExact(a.den, b.num);
+                return Long.compare(lhs, rhs);
+            } catch (ArithmeticException e) {
+                // fall through to BigIntegers
+            }
+        }
+        BigInteger lhs = a.bigNumerator().multiply(b.bigDenominator());
+        BigInteger rhs = a.bigDenominator().multiply(b.bigNumerator());
+        return lhs.compareTo(rhs);
     }
 
     /** Checks if this Rational object's arithmatic value is
      *  equal to the arithmatic value of y - does NOT determine
      *  if the two are the same object, just if they represent the same
      *  value (ie (new Rational(0, 1)).equals(0.0) == true)
-     *  
+     *
      *  TODO: Implement what has been described above. Currently,
      *  this method checks that y is a Rational, so that isn't happening
-     *  
+     *
      *  @return is this Rational object arithmatically equal to y? */
     public boolean equals(Object y) {
+        // small values are shared, so equal ones are often the same object
+        if (y == this) return true;
         if (y == null) return false;
         if (y.getClass() != this.getClass()) return false;
         Rational b = (Rational) y;
-        return compareTo(b) == 0;
+        // both are in lowest terms, so equal values have equal representations
+        if (bigNum == null && b.bigNum == null) return num == b.num && den == b.den;
+        return bigNumerator().equals(b.bigNumerator()) && bigDenominator().equals(b.bigDenominator());
     }
-    
+
     /** hashCode consistent with equals() and compareTo()
      * (better to hash the numerator and denominator and combine)
      * @return the hashcode of (this).toString().hashCode()
@@ -125,32 +296,54 @@ public class Rational extends Number implements Comparable<Rational> {
 
     /** @return a new rational (r.num + s.num) / (r.den + s.den) */
     public static Rational mediant(Rational r, Rational s) {
-        return new Rational(r.num + s.num, r.den + s.den);
+        if (r.bigNum == null && s.bigNum == null) {
+            try {
+                return of(Math.addExact(r.num, s.num), Math.addExact(r.den, s.den));
+            } catch (ArithmeticException e) {
+                // fall through to BigIntegers
+            }
+        }
+        return new Rational(r.bigNumerator().add(s.bigNumerator()), r.bigDenominator().add(s.bigDenominator()));
     }
 
-    /** @return gcd(|m|, |n|) */
-    private static int gcd(int m, int n) {
+    /** @return gcd(|m|, |n|) - neither m nor n may be Long.MIN_VALUE */
+    private static long gcd(long m, long n) {
         if (m < 0) m = -m;
         if (n < 0) n = -n;
-        if (0 == n) return m;
-        else return gcd(n, m % n);
+        while (n != 0) {
+            MatrixMetrics.gcdStep();
+            long r = m % n;
+            m = n;
+            n = r;
+        }
+        return m;
     }
 
     /** @return lcm(|m|, |n|) */
-    private static int lcm(int m, int n) {
+    private static long lcm(long m, long n) {
         if (m < 0) m = -m;
         if (n < 0) n = -n;
-        return m * (n / gcd(m, n));    // parentheses important to avoid overflow
+        return Math.multiplyExact(m, n / gcd(m, n));    // parentheses important to avoid overflow
     }
 
     /** @return a * b, staving off overflow as much as possible by cross-cancellation */
     public Rational times(Rational b) {
         Rational a = this;
 
-        // reduce p1/q2 and p2/q1, then multiply, where a = p1/q1 and b = p2/q2
-        Rational c = new Rational(a.num, b.den);
-        Rational d = new Rational(b.num, a.den);
-        return new Rational(c.num * d.num, c.den * d.den);
+        if (a.bigNum == null && b.bigNum == null) {
+            try {
+                // reduce p1/q2 and p2/q1, then multiply, where a = p1/q1 and b = p2/q2
+                long g1 = gcd(a.num, b.den);
+                long g2 = gcd(b.num, a.den);
+                // the cross-cancellation leaves the product in lowest terms
+                return reduced(Math.multiplyExact(a.num / g1, b.num / g2),
+                               Math.multiplyExact(a.den / g2, b.den / g1));
+            } catch (ArithmeticException e) {
+                // fall through to BigIntegers
+            }
+        }
+        return of(a.bigNumerator().multiply(b.bigNumerator()),
+                  a.bigDenominator().multiply(b.bigDenominator()));
     }
 
 
@@ -159,30 +352,50 @@ public class Rational extends Number implements Comparable<Rational> {
         Rational a = this;
 
         // special cases
-        if (a.compareTo(zero) == 0) return b;
-        if (b.compareTo(zero) == 0) return a;
+        if (a.signum() == 0) return b;
+        if (b.signum() == 0) return a;
 
-        // Find gcd of numerators and denominators
-        int f = gcd(a.num, b.num);
-        int g = gcd(a.den, b.den);
+        if (a.bigNum == null && b.bigNum == null) {
+            try {
+                // Find gcd of numerators and denominators
+                long f = gcd(a.num, b.num);
+                long g = gcd(a.den, b.den);
 
-        // add cross-product terms for numerator
-        Rational s = new Rational((a.num / f) * (b.den / g) + (b.num / f) * (a.den / g),
-                                  lcm(a.den, b.den));
+                // add cross-product terms for numerator
+                long numerator = Math.addExact(Math.multiplyExact(a.num / f, b.den / g),
+                                               Math.multiplyExact(b.num / f, a.den / g));
 
-        // multiply back in
-        s.num *= f;
-        return s;
+                // multiply back in
+                return of(Math.multiplyExact(numerator, f), lcm(a.den, b.den));
+            } catch (ArithmeticException e) {
+                // fall through to BigIntegers
+            }
+        }
+        BigInteger numerator = a.bigNumerator().multiply(b.bigDenominator())
+                .add(b.bigNumerator().multiply(a.bigDenominator()));
+        return of(numerator, a.bigDenominator().multiply(b.bigDenominator()));
+    }
+
+    /** @return -1, 0 or 1 as this is negative, zero or positive */
+    public int signum() {
+        if (bigNum != null) return bigNum.signum();
+        return Long.signum(num);
     }
 
     /** @return -a */
     public Rational negate() {
-        return new Rational(-num, den);
+        if (bigNum != null) {
+            // already in lowest terms, so skip the gcd
+            Rational negated = new Rational(this);
+            negated.bigNum = bigNum.negate();
+            return negated;
+        }
+        return reduced(-num, den);
     }
 
     /** @return |a| */
     public Rational abs() {
-        if (num >= 0) return this;
+        if (signum() >= 0) return this;
         else return negate();
     }
 
@@ -193,8 +406,9 @@ public class Rational extends Number implements Comparable<Rational> {
     }
 
     /** @return 1 / (this) */
-    public Rational reciprocal() { 
-        return new Rational(den, num);  
+    public Rational reciprocal() {
+        if (bigNum != null) return new Rational(bigDen, bigNum);
+        return of(den, num);
     }
 
     /** @return a / b */
@@ -202,45 +416,48 @@ public class Rational extends Number implements Comparable<Rational> {
         Rational a = this;
         return a.times(b.reciprocal());
     }
-    
-    /** @return a new, clean rational */
+
+    /** @return this rational - Rationals never change, so there is nothing to copy */
     public Rational clone() {
-        return new Rational(num, den);
+        return this;
     }
 
     // methods to extend the number class
-    
+
     /** @return the double representation of this rational */
     @Override
     public double doubleValue()
     {
+        if (bigNum != null)
+            return new BigDecimal(bigNum).divide(new BigDecimal(bigDen), MathContext.DECIMAL64).doubleValue();
         return (double) num / (double) den;
     }
-    
+
     /** @retutn the float representation of this rational */
     @Override
     public float floatValue()
     {
-        return (float) num / (float) den;
+        return (float) doubleValue();
     }
 
     /** @return the int representation of this rational, truncated */
     @Override
     public int intValue()
     {
-        return num / den;
+        return (int) longValue();
     }
-    
-    /** @return the long representation of this rational */
+
+    /** @return the long representation of this rational, truncated */
     @Override
     public long longValue()
     {
-        return (long) num / (long) den;
+        if (bigNum != null) return bigNum.divide(bigDen).longValue();
+        return num / den;
     }
-    
-    
+
+
     // rational representation of doubles
-    
+
     public static long getMantissaBits(double value) {
         // select the 52 lower bits which make up the mantissa
         return Double.doubleToLongBits(value) & 0xFFFFFFFFFFFFFL;
@@ -260,7 +477,12 @@ public class Rational extends Number implements Comparable<Rational> {
         return biasedExponent - 1023;
     }
 
+    /** @return the exact value of the (finite) double as a Rational */
     public static Rational valueOf(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw new ArithmeticException(value + " is not a rational number");
+        if (value == 0.0)
+            return zero;
         long mantissa = getMantissa(value);
         long exponent = getExponent(value) - 52;
         int numberOfTrailingZeros = Long.numberOfTrailingZeros(mantissa);
@@ -268,9 +490,14 @@ public class Rational extends Number implements Comparable<Rational> {
         exponent += numberOfTrailingZeros;
         // apply the sign to the numerator
         long numerator = (long) Math.signum(value) * mantissa;
-        if(exponent < 0)
-            return new Rational( (int) numerator, (int) (1L << -exponent));
+        // the mantissa takes at most 53 bits, so shifts that keep the total under 63 bits stay in longs
+        if (exponent < 0 && -exponent < 63)
+            return of(numerator, 1L << -exponent);
+        else if (exponent < 0)
+            return new Rational(BigInteger.valueOf(numerator), BigInteger.ONE.shiftLeft((int) -exponent));
+        else if (exponent < 10)
+            return of(numerator << exponent, 1);
         else
-            return new Rational( (int) (numerator << exponent), 1);
+            return new Rational(BigInteger.valueOf(numerator).shiftLeft((int) exponent), BigInteger.ONE);
     }
 }
\ No newline at end of file
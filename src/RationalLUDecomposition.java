@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+
+/**
+ * Exact LU factorization of a square matrix of rationals: P * A = L * U, where
+ * L is lower triangular and U is unit upper triangular (each pivot row is scaled
+ * so its pivot is one, and the pivot is kept on L's diagonal instead). The first
+ * non-zero entry in a column is used as the pivot, since every non-zero pivot is
+ * exact. Factoring is done once; each right-hand side then costs O(n^2) row
+ * operations. See LUDecomposition for doubles.
+ */
+public class RationalLUDecomposition
+{
+    /** L (on and below the diagonal) and U (above it, unit diagonal implied), packed */
+    private final RationalMatrix lu;
+    /** The size of the matrix */
+    private final int n;
+    /** pivot[i] is the row of A that ended up in row i */
+    private final int[] pivot;
+    /** true if an odd number of row swaps were done */
+    private boolean negated;
+    /** true if some column had no non-zero pivot */
+    private boolean singular;
+
+    /**
+     * Constructor. Factors the matrix, which is not changed. Any doubles are
+     * converted to their exact rational value.
+     *
+     * @param matrix a square matrix
+     * @throws MatrixException if the matrix is not square
+     */
+    public RationalLUDecomposition(Matrix matrix) throws MatrixException
+    {
+        if (matrix.getRows() != matrix.getColumns())
+            throw new MatrixException("The matrix is not square, so it has no LU factorization!");
+        n = matrix.getRows();
+        lu = RationalMatrix.fromRows(toRationalRows(matrix));
+        pivot = new int[n];
+        for (int i = 0; i < n; ++i)
+        {
+            pivot[i] = i;
+        }
+        factor();
+    }
+
+    private void factor()
+    {
+        for (int k = 0; k < n; ++k)
+        {
+            int found = -1;
+            for (int i = k; i < n; ++i)
+            {
+                if (!lu.isZero(i, k))
+                {
+                    found = i;
+                    break;
+                }
+            }
+            if (found == -1)
+            {
+                singular = true;
+                continue;
+            }
+            if (found != k)
+            {
+                lu.swapRows(found, k);
+                int temp = pivot[found];
+                pivot[found] = pivot[k];
+                pivot[k] = temp;
+                negated = !negated;
+            }
+            // U's row: the rest of the pivot row, divided by the pivot
+            lu.scaleRow(k, k + 1, lu.get(k, k).reciprocal());
+            // L's column: the entries below the pivot stay where they are as multipliers
+            for (int i = k + 1; i < n; ++i)
+            {
+                lu.subtractMultiple(k, i, k);
+            }
+        }
+    }
+
+    /** @return true if the matrix is singular, so it cannot be solved against */
+    public boolean isSingular()
+    {
+        return singular;
+    }
+
+    /** @return the determinant of the matrix, the signed product of L's diagonal */
+    public Rational determinant()
+    {
+        if (singular)
+            return Rational.zero;
+        Rational determinant = negated ? Rational.of(-1, 1) : Rational.one;
+        for (int i = 0; i < n; ++i)
+        {
+            determinant = determinant.times(lu.get(i, i));
+        }
+        return determinant;
+    }
+
+    /** @return a copy of the pivot rows: row i of P * A is row pivot[i] of A */
+    public int[] getPivot()
+    {
+        return pivot.clone();
+    }
+
+    /**
+     * Solves AX = B for a whole block of right-hand sides (the columns of B). Each
+     * step of the substitutions is a row operation on every right-hand side at once.
+     *
+     * @param b the right-hand sides, as the columns of a matrix with n rows
+     * @return X, exactly
+     * @throws MatrixException if the matrix is singular or B has the wrong number of rows
+     */
+    public Matrix solve(Matrix b) throws MatrixException
+    {
+        if (b.getRows() != n)
+            throw new MatrixException("Cannot solve, the right-hand side does not have " + n + " rows");
+        if (singular)
+            throw new MatrixException("The matrix is singular, so there is no unique solution!");
+        ArrayList<Number[]> rows = toRationalRows(b);
+        // apply the permutation
+        ArrayList<Number[]> permuted = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i)
+        {
+            permuted.add(rows.get(pivot[i]));
+        }
+        RationalMatrix x = RationalMatrix.fromRows(permuted);
+        // forward substitution, Ly = Pb
+        for (int i = 0; i < n; ++i)
+        {
+            for (int k = 0; k < i; ++k)
+            {
+                if (!lu.isZero(i, k))
+                    x.subtractRowMultiple(k, i, lu.get(i, k));
+            }
+            x.scaleRow(i, 0, lu.get(i, i).reciprocal());
+        }
+        // back substitution, Ux = y
+        for (int i = n - 1; i >= 0; --i)
+        {
+            for (int k = i + 1; k < n; ++k)
+            {
+                if (!lu.isZero(i, k))
+                    x.subtractRowMultiple(k, i, lu.get(i, k));
+            }
+        }
+        return new Matrix(x.toRows());
+    }
+
+    /**
+     * @return the matrix's rows, with any doubles converted to their exact rational value
+     */
+    private static ArrayList<Number[]> toRationalRows(Matrix matrix)
+    {
+        ArrayList<Number[]> rows = matrix.getMatrix();
+        ArrayList<Number[]> rationalRows = new ArrayList<>(rows.size());
+        for (Number[] row : rows)
+        {
+            Number[] rationalRow = new Number[row.length];
+            for (int j = 0; j < row.length; ++j)
+            {
+                rationalRow[j] = row[j] instanceof Rational ? row[j] : new Rational(row[j].doubleValue());
+            }
+            rationalRows.add(rationalRow);
+        }
+        return rationalRows;
+    }
+}
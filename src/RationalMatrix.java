@@ -0,0 +1,703 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packed storage for a matrix whose entries are all rationals. Numerators and
+ * denominators are held in two parallel, row-major long[]'s, so the row
+ * operations used by row reduction (scaleRow, addRows, scaleAndAddRows) work
+ * directly on the arrays and never create a Rational.
+ *
+ * Every entry is kept in lowest terms with a positive denominator, the same
+ * invariants as Rational. Arithmetic is checked, and an entry that outgrows a
+ * long is promoted on its own to a (BigInteger-backed) Rational kept in a side
+ * table; its slot is marked by a zero denominator. The rest of the matrix stays
+ * on the primitive path.
+ */
+public class RationalMatrix
+{
+    /** The numerators, row-major: entry (i, j) is at i * numColumns + j */
+    private final long[] num;
+    /** The denominators, row-major, always positive - or 0 if the entry is promoted */
+    private final long[] den;
+    /**
+     * The entries too big for longs, by index. Created the first time one is needed.
+     * Volatile because separate threads may work on separate rows at once
+     */
+    private volatile Rational[] promoted;
+    /** The number of rows in the matrix */
+    private final int numRows;
+    /** The number of columns in the matrix */
+    private final int numColumns;
+
+    /**
+     * Constructor. Creates a zero matrix of the given size
+     *
+     * @param rows
+     * @param columns
+     */
+    public RationalMatrix(int rows, int columns)
+    {
+        this.numRows = rows;
+        this.numColumns = columns;
+        this.num = new long[rows * columns];
+        this.den = new long[rows * columns];
+        Arrays.fill(den, 1L);
+    }
+
+    /**
+     * Packs rows of Rationals
+     *
+     * @param rows the rows to pack - every entry must be a Rational
+     * @return the packed copy
+     */
+    public static RationalMatrix fromRows(List<Number[]> rows)
+    {
+        RationalMatrix packed = new RationalMatrix(rows.size(), rows.get(0).length);
+        for (int i = 0; i < packed.numRows; ++i)
+        {
+            Number[] row = rows.get(i);
+            int offset = i * packed.numColumns;
+            for (int j = 0; j < packed.numColumns; ++j)
+            {
+                packed.store(offset + j, (Rational) row[j]);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * @return the matrix as rows of Rationals, as used by Matrix and MatrixMath
+     */
+    public ArrayList<Number[]> toRows()
+    {
+        ArrayList<Number[]> rows = new ArrayList<>(numRows);
+        for (int i = 0; i < numRows; ++i)
+        {
+            Number[] row = new Number[numColumns];
+            for (int j = 0; j < numColumns; ++j)
+            {
+                row[j] = get(i, j);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** @return the entry at row i, column j */
+    public Rational get(int i, int j) {
+        return entry(i * numColumns + j);
+    }
+
+    /** sets the entry at row i, column j to numerator / denominator */
+    public void set(int i, int j, long numerator, long denominator) {
+        store(i * numColumns + j, numerator, denominator);
+    }
+
+    /** @return true if the entry at row i, column j is zero */
+    public boolean isZero(int i, int j) {
+        return num[i * numColumns + j] == 0;
+    }
+
+    /** @return the number of rows of the matrix */
+    public int getRows() {
+        return numRows;
+    }
+
+    /** @return the number of columns of the matrix */
+    public int getColumns() {
+        return numColumns;
+    }
+
+    /** @return a new matrix holding the transpose of this one */
+    public RationalMatrix transpose()
+    {
+        RationalMatrix transposed = new RationalMatrix(numColumns, numRows);
+        for (int i = 0; i < numRows; ++i)
+        {
+            for (int j = 0; j < numColumns; ++j)
+            {
+                int index = i * numColumns + j;
+                int transposedIndex = j * numRows + i;
+                transposed.num[transposedIndex] = num[index];
+                transposed.den[transposedIndex] = den[index];
+                if (den[index] == 0)
+                    transposed.store(transposedIndex, promoted[index]);
+            }
+        }
+        return transposed;
+    }
+
+    /**
+     * Computes rows [fromRow, toRow) of product = a * b, given b already transposed,
+     * so that each entry is a dot product of two contiguous rows. Each sum is kept
+     * in a pair of local longs, and only moves to Rationals if it overflows.
+     * Different threads may fill in different rows of the same product.
+     */
+    static void multiplyRows(RationalMatrix a, RationalMatrix bTransposed, RationalMatrix product,
+            int fromRow, int toRow)
+    {
+        int n = a.numColumns;
+        int m = bTransposed.numRows;
+        for (int i = fromRow; i < toRow; ++i)
+        {
+            int aOffset = i * n;
+            for (int j = 0; j < m; ++j)
+            {
+                int bOffset = j * n;
+                long sumNum = 0;
+                long sumDen = 1;
+                Rational bigSum = null;
+                for (int k = 0; k < n; ++k)
+                {
+                    int aIndex = aOffset + k;
+                    int bIndex = bOffset + k;
+                    if (a.num[aIndex] == 0 || bTransposed.num[bIndex] == 0)
+                        continue;
+                    if (bigSum == null && a.den[aIndex] != 0 && bTransposed.den[bIndex] != 0)
+                    {
+                        try
+                        {
+                            long aNum = a.num[aIndex], aDen = a.den[aIndex];
+                            long bNum = bTransposed.num[bIndex], bDen = bTransposed.den[bIndex];
+                            long g1 = gcd(aNum, bDen);
+                            long g2 = gcd(bNum, aDen);
+                            long pNum = Math.multiplyExact(aNum / g1, bNum / g2);
+                            long pDen = Math.multiplyExact(aDen / g2, bDen / g1);
+                            long g = gcd(sumDen, pDen);
+                            long newNum = Math.addExact(Math.multiplyExact(sumNum, pDen / g),
+                                    Math.multiplyExact(pNum, sumDen / g));
+                            long newDen = Math.multiplyExact(sumDen / g, pDen);
+                            long reduce = gcd(newNum, newDen);
+                            sumNum = newNum / reduce;
+                            sumDen = newDen / reduce;
+                            continue;
+                        }
+                        catch (ArithmeticException e)
+                        {
+                            // too big for longs, carry on with Rationals
+                        }
+                    }
+                    if (bigSum == null)
+                        bigSum = Rational.of(sumNum, sumDen);
+                    bigSum = bigSum.plus(a.entry(aIndex).times(bTransposed.entry(bIndex)));
+                }
+                if (bigSum == null)
+                    product.store(i * m + j, sumNum, sumDen);
+                else
+                    product.store(i * m + j, bigSum);
+            }
+        }
+    }
+
+    /**
+     * Row-reduces this matrix, in place, with Gauss-Jordan elimination. Each
+     * column is visited once; the first non-zero entry at or below the current
+     * pivot row becomes the pivot.
+     *
+     * @return the rank of the matrix
+     */
+    public int rref()
+    {
+        return reduce(numColumns, false);
+    }
+
+    /**
+     * Inverts the (square) matrix with a single elimination of [A | I], done in one
+     * n x 2n workspace. Elimination stops at the first column without a pivot, since
+     * the matrix is singular by then. Does not change this matrix
+     *
+     * @return the inverse
+     * @throws MatrixException if the matrix is not square or not invertible
+     */
+    public RationalMatrix inverse() throws MatrixException
+    {
+        if (numRows != numColumns)
+            throw new MatrixException("The matrix is not square, so the identity does not exist!");
+        int n = numRows;
+        RationalMatrix workspace = new RationalMatrix(n, 2 * n);
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = 0; j < n; ++j)
+            {
+                workspace.copyEntry(i * 2 * n + j, this, i * n + j);
+            }
+            workspace.num[i * 2 * n + n + i] = 1;
+        }
+        if (workspace.reduce(n, true) < n)
+            throw new MatrixException("The identity does not exist!");
+        RationalMatrix inverse = new RationalMatrix(n, n);
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = 0; j < n; ++j)
+            {
+                inverse.copyEntry(i * n + j, workspace, i * 2 * n + n + j);
+            }
+        }
+        return inverse;
+    }
+
+    /**
+     * Finds the rank with forward elimination alone - to row echelon form, on a
+     * copy - rather than a full rref
+     *
+     * @return the rank of the matrix
+     */
+    public int rank()
+    {
+        return copy().echelon(false, null);
+    }
+
+    /**
+     * Finds the determinant, exactly, with forward elimination alone, on a copy: it
+     * is the product of the pivots, negated once for every row swap. Elimination
+     * stops at the first column without a pivot, since the determinant is 0 by then
+     *
+     * @return the determinant
+     * @throws MatrixException if the matrix is not square
+     */
+    public Rational determinant() throws MatrixException
+    {
+        if (numRows != numColumns)
+            throw new MatrixException("The matrix is not square, so the determinant does not exist!");
+        Rational[] pivots = new Rational[numRows];
+        if (copy().echelon(true, pivots) < numRows)
+            return Rational.zero;
+        Rational determinant = Rational.one;
+        for (Rational pivot : pivots)
+        {
+            determinant = determinant.times(pivot);
+        }
+        return determinant;
+    }
+
+    /** @return a copy of this matrix, still packed */
+    private RationalMatrix copy()
+    {
+        RationalMatrix copy = new RationalMatrix(numRows, numColumns);
+        for (int index = 0; index < num.length; ++index)
+        {
+            copy.copyEntry(index, this, index);
+        }
+        return copy;
+    }
+
+    /**
+     * Gaussian elimination to row echelon form, in place. Only the rows below each
+     * pivot are cleared
+     *
+     * @param stopAtFreeColumn if set, give up at the first column without a pivot
+     * @param pivots if not null, where to put each pivot - negated if a row swap
+     * brought it into place, so the product of the pivots is the determinant
+     * @return the number of pivots found
+     */
+    private int echelon(boolean stopAtFreeColumn, Rational[] pivots)
+    {
+        int pivotRow = 0;
+        for (int column = 0; column < numColumns && pivotRow < numRows; ++column)
+        {
+            int found = -1;
+            for (int i = pivotRow; i < numRows; ++i)
+            {
+                if (num[i * numColumns + column] != 0)
+                {
+                    found = i;
+                    break;
+                }
+            }
+            if (found == -1)
+            {
+                if (stopAtFreeColumn)
+                    return pivotRow;
+                continue;
+            }
+            swapRows(found, pivotRow);
+            int pivotIndex = pivotRow * numColumns + column;
+            if (pivots != null)
+            {
+                Rational pivot = entry(pivotIndex);
+                pivots[pivotRow] = found == pivotRow ? pivot : pivot.negate();
+            }
+            // a leading one makes the multiple to subtract from each row below just that row's entry
+            if (den[pivotIndex] != 0)
+                scaleRow(pivotRow, column, den[pivotIndex], num[pivotIndex]);
+            else
+                scaleRow(pivotRow, column, promoted[pivotIndex].reciprocal());
+            eliminateBelow(pivotRow, column);
+            ++pivotRow;
+        }
+        return pivotRow;
+    }
+
+    /**
+     * Clears column from every row below pivotRow, which has a leading one there.
+     * The rows are independent, so big matrices split them across threads.
+     */
+    private void eliminateBelow(int pivotRow, int column)
+    {
+        ParallelRows.forEach(pivotRow + 1, numRows, MatrixMath.eliminationGrain(numRows), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; ++i)
+            {
+                scaleAndAddRows(pivotRow, i, column);
+            }
+        });
+    }
+
+    /**
+     * Gauss-Jordan elimination, in place, looking for pivots only in the first
+     * pivotColumns columns - the rest are carried along
+     *
+     * @param stopAtFreeColumn if set, give up at the first column without a pivot
+     * @return the number of pivots found
+     */
+    private int reduce(int pivotColumns, boolean stopAtFreeColumn)
+    {
+        int pivotRow = 0;
+        for (int column = 0; column < pivotColumns && pivotRow < numRows; ++column)
+        {
+            int found = -1;
+            for (int i = pivotRow; i < numRows; ++i)
+            {
+                if (num[i * numColumns + column] != 0)
+                {
+                    found = i;
+                    break;
+                }
+            }
+            if (found == -1)
+            {
+                if (stopAtFreeColumn)
+                    return pivotRow;
+                continue;
+            }
+            swapRows(found, pivotRow);
+            // scale by the reciprocal of the pivot so that it becomes a leading one
+            int pivotIndex = pivotRow * numColumns + column;
+            if (den[pivotIndex] != 0)
+                scaleRow(pivotRow, column, den[pivotIndex], num[pivotIndex]);
+            else
+                scaleRow(pivotRow, column, promoted[pivotIndex].reciprocal());
+            eliminateColumn(pivotRow, column);
+            ++pivotRow;
+        }
+        return pivotRow;
+    }
+
+    /**
+     * Clears column from every row but pivotRow. The rows are independent, so big
+     * matrices split them across threads.
+     */
+    private void eliminateColumn(int pivotRow, int column)
+    {
+        ParallelRows.forEach(0, numRows, MatrixMath.eliminationGrain(numRows), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; ++i)
+            {
+                if (i != pivotRow)
+                    scaleAndAddRows(pivotRow, i, column);
+            }
+        });
+    }
+
+    /** swaps two rows */
+    public void swapRows(int row1, int row2)
+    {
+        if (row1 == row2)
+            return;
+        int offset1 = row1 * numColumns;
+        int offset2 = row2 * numColumns;
+        for (int j = 0; j < numColumns; ++j)
+        {
+            long temp = num[offset1 + j];
+            num[offset1 + j] = num[offset2 + j];
+            num[offset2 + j] = temp;
+            temp = den[offset1 + j];
+            den[offset1 + j] = den[offset2 + j];
+            den[offset2 + j] = temp;
+            if (promoted != null)
+            {
+                Rational big = promoted[offset1 + j];
+                promoted[offset1 + j] = promoted[offset2 + j];
+                promoted[offset2 + j] = big;
+            }
+        }
+    }
+
+    /**
+     * Multiplies a row by scaleNum / scaleDen. Entries to the left of fromColumn are
+     * assumed to be zero and are skipped.
+     */
+    public void scaleRow(int row, int fromColumn, long scaleNum, long scaleDen)
+    {
+        if (scaleDen < 0)
+        {
+            scaleNum = Math.negateExact(scaleNum);
+            scaleDen = Math.negateExact(scaleDen);
+        }
+        int offset = row * numColumns;
+        for (int j = fromColumn; j < numColumns; ++j)
+        {
+            int index = offset + j;
+            if (num[index] == 0)
+                continue;
+            if (den[index] != 0)
+            {
+                try
+                {
+                    // cross-cancel before multiplying, to stave off overflow
+                    long g1 = gcd(num[index], scaleDen);
+                    long g2 = gcd(scaleNum, den[index]);
+                    store(index, Math.multiplyExact(num[index] / g1, scaleNum / g2),
+                            Math.multiplyExact(den[index] / g2, scaleDen / g1));
+                    continue;
+                }
+                catch (ArithmeticException e)
+                {
+                    // too big for longs, promote below
+                }
+            }
+            store(index, entry(index).times(Rational.of(scaleNum, scaleDen)));
+        }
+    }
+
+    /**
+     * Multiplies a row by scaleFactor, which may be too big for the primitive path.
+     * Entries to the left of fromColumn are assumed to be zero and are skipped.
+     */
+    public void scaleRow(int row, int fromColumn, Rational scaleFactor)
+    {
+        if (!scaleFactor.isBig())
+        {
+            scaleRow(row, fromColumn, scaleFactor.numerator(), scaleFactor.denominator());
+            return;
+        }
+        int offset = row * numColumns;
+        for (int j = fromColumn; j < numColumns; ++j)
+        {
+            int index = offset + j;
+            if (num[index] != 0)
+                store(index, entry(index).times(scaleFactor));
+        }
+    }
+
+    /**
+     * Adds row toAdd onto row toAddTo (toAddTo += toAdd), starting at fromColumn
+     */
+    public void addRows(int toAdd, int toAddTo, int fromColumn)
+    {
+        int addOffset = toAdd * numColumns;
+        int offset = toAddTo * numColumns;
+        for (int j = fromColumn; j < numColumns; ++j)
+        {
+            int index = addOffset + j;
+            if (num[index] != 0)
+                addEntry(offset + j, index);
+        }
+    }
+
+    /**
+     * Subtracts the multiple of row pivotRow that zeroes out the entry of row
+     * toAddTo in column. pivotRow must have a leading one in column, so the
+     * multiple is just the entry being zeroed.
+     */
+    public void scaleAndAddRows(int pivotRow, int toAddTo, int column)
+    {
+        int factorIndex = toAddTo * numColumns + column;
+        if (num[factorIndex] == 0)
+            return;
+        subtractMultiple(pivotRow, toAddTo, column);
+        store(factorIndex, 0, 1);
+    }
+
+    /**
+     * For every column right of column, subtracts the entry of row pivotRow times
+     * the entry of row toAddTo in column. Unlike scaleAndAddRows, the entry in
+     * column itself is left alone (LU factorization keeps it as a multiplier).
+     */
+    void subtractMultiple(int pivotRow, int toAddTo, int column)
+    {
+        int offset = toAddTo * numColumns;
+        int factorIndex = offset + column;
+        if (num[factorIndex] == 0)
+            return;
+        long factorNum = num[factorIndex];
+        long factorDen = den[factorIndex];
+        Rational bigFactor = factorDen == 0 ? promoted[factorIndex] : null;
+        int pivotOffset = pivotRow * numColumns;
+        for (int j = column + 1; j < numColumns; ++j)
+        {
+            int pivotIndex = pivotOffset + j;
+            if (num[pivotIndex] != 0)
+                subtractProduct(offset + j, factorNum, factorDen, bigFactor, pivotIndex);
+        }
+    }
+
+    /**
+     * Subtracts factor times row fromRow from row toRow
+     */
+    public void subtractRowMultiple(int fromRow, int toRow, Rational factor)
+    {
+        if (factor.signum() == 0)
+            return;
+        boolean big = factor.isBig();
+        long factorNum = big ? 0 : factor.numerator();
+        long factorDen = big ? 0 : factor.denominator();
+        int fromOffset = fromRow * numColumns;
+        int offset = toRow * numColumns;
+        for (int j = 0; j < numColumns; ++j)
+        {
+            if (num[fromOffset + j] != 0)
+                subtractProduct(offset + j, factorNum, factorDen, big ? factor : null, fromOffset + j);
+        }
+    }
+
+    /**
+     * entry[index] -= (aNum / aDen) * entry[bIndex], where bigFactor replaces aNum / aDen
+     * when it is not null
+     */
+    private void subtractProduct(int index, long aNum, long aDen, Rational bigFactor, int bIndex)
+    {
+        if (bigFactor == null && den[index] != 0 && den[bIndex] != 0)
+        {
+            try
+            {
+                // the product, cross-cancelled
+                long bNum = num[bIndex], bDen = den[bIndex];
+                long g1 = gcd(aNum, bDen);
+                long g2 = gcd(bNum, aDen);
+                long pNum = Math.multiplyExact(aNum / g1, bNum / g2);
+                long pDen = Math.multiplyExact(aDen / g2, bDen / g1);
+
+                long xNum = num[index];
+                long xDen = den[index];
+                if (xNum == 0)
+                {
+                    store(index, Math.negateExact(pNum), pDen);
+                    return;
+                }
+                // x - p over the lcm of the denominators
+                long g = gcd(xDen, pDen);
+                long left = Math.multiplyExact(xNum, pDen / g);
+                long right = Math.multiplyExact(pNum, xDen / g);
+                store(index, Math.subtractExact(left, right), Math.multiplyExact(xDen / g, pDen));
+                return;
+            }
+            catch (ArithmeticException e)
+            {
+                // too big for longs, promote below
+            }
+        }
+        Rational factor = bigFactor != null ? bigFactor : Rational.of(aNum, aDen);
+        store(index, entry(index).minus(factor.times(entry(bIndex))));
+    }
+
+    /**
+     * entry[index] += entry[addIndex]
+     */
+    private void addEntry(int index, int addIndex)
+    {
+        if (den[index] != 0 && den[addIndex] != 0)
+        {
+            try
+            {
+                long xDen = den[index];
+                long aDen = den[addIndex];
+                long g = gcd(xDen, aDen);
+                long left = Math.multiplyExact(num[index], aDen / g);
+                long right = Math.multiplyExact(num[addIndex], xDen / g);
+                store(index, Math.addExact(left, right), Math.multiplyExact(xDen / g, aDen));
+                return;
+            }
+            catch (ArithmeticException e)
+            {
+                // too big for longs, promote below
+            }
+        }
+        store(index, entry(index).plus(entry(addIndex)));
+    }
+
+    /** @return the entry at index as a Rational */
+    private Rational entry(int index)
+    {
+        if (den[index] == 0)
+            return promoted[index];
+        return Rational.of(num[index], den[index]);
+    }
+
+    /** copies the entry at fromIndex of source to index, without unpacking it */
+    private void copyEntry(int index, RationalMatrix source, int fromIndex)
+    {
+        if (source.den[fromIndex] == 0)
+        {
+            store(index, source.promoted[fromIndex]);
+            return;
+        }
+        num[index] = source.num[fromIndex];
+        den[index] = source.den[fromIndex];
+    }
+
+    /** stores value at index, promoting it if it does not fit in longs */
+    private void store(int index, Rational value)
+    {
+        if (!value.isBig())
+        {
+            store(index, value.numerator(), value.denominator());
+            return;
+        }
+        Rational[] table = promoted;
+        if (table == null)
+            table = createPromoted();
+        table[index] = value;
+        // keep the numerator's sign so that zero checks on num still work
+        num[index] = value.signum();
+        den[index] = 0;
+    }
+
+    /** creates the promoted table, unless another thread got there first */
+    private synchronized Rational[] createPromoted()
+    {
+        if (promoted == null)
+            promoted = new Rational[num.length];
+        return promoted;
+    }
+
+    /**
+     * puts numerator / denominator into lowest terms and stores it at index. Throws
+     * an ArithmeticException, without storing anything, if that overflows.
+     */
+    private void store(int index, long numerator, long denominator)
+    {
+        if (denominator == 0)
+            throw new ArithmeticException("denominator is zero");
+        if (numerator == 0)
+        {
+            numerator = 0;
+            denominator = 1;
+        }
+        long g = gcd(numerator, denominator);
+        numerator /= g;
+        denominator /= g;
+        if (denominator < 0)
+        {
+            numerator = Math.negateExact(numerator);
+            denominator = Math.negateExact(denominator);
+        }
+        num[index] = numerator;
+        den[index] = denominator;
+        if (promoted != null)
+            promoted[index] = null;
+    }
+
+    /** @return gcd(|m|, |n|), or 1 if both are zero */
+    private static long gcd(long m, long n)
+    {
+        if (m < 0) m = Math.negateExact(m);
+        if (n < 0) n = Math.negateExact(n);
+        while (n != 0)
+        {
+            long temp = m % n;
+            m = n;
+            n = temp;
+        }
+        return m == 0 ? 1 : m;
+    }
+}
@@ -0,0 +1,438 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the RREFs, inverses, ranks and determinants already worked out, by
+ * the contents of the matrix they were worked out for, so asking again - for the
+ * same matrix or an equal one under another name - costs a hash of the entries
+ * rather than an elimination. Failures are remembered too, so a singular matrix
+ * is only found to be singular once.
+ *
+ * The cache holds up to a fixed number of matrix entries (the entries of the
+ * inputs plus those of the results), and when it is full the least recently used
+ * results go first. It is safe to share between threads. Two threads missing the
+ * same result at once may both work it out, which is harmless.
+ *
+ * Results are kept per engine, since for an exact or mixed matrix the engines
+ * can differ - in the doubles a mixed result holds, or in whether it fails at all.
+ * Dense and sparse matrices go the same way whatever the engine, so theirs are shared.
+ *
+ * Results are shared, not copied, so like matrices in a MatrixRegistry they must
+ * not be changed - clone one before changing it.
+ */
+public class ResultCache
+{
+    /** The number of matrix entries held by default */
+    public static final long DEFAULT_MAX_CELLS = 1 << 20;
+
+    /** The kinds of result */
+    public enum Kind
+    {
+        RREF, INVERSE, RANK, DETERMINANT;
+    }
+
+    /**
+     * The contents of a matrix - its size, whether it is dense or sparse, and its
+     * exact entries, including whether each is a double or a Rational - in a form
+     * that is cheap to hash and compare
+     */
+    public static final class Key
+    {
+        /**
+         * rows, columns and the storage (0 rows, 1 dense, 2 sparse), then two words per
+         * entry - one if dense, and only the non-zero ones, with their positions, if sparse
+         */
+        private final long[] words;
+        /** the entries too big for longs, in order */
+        private final List<BigInteger> big;
+        private final int hash;
+
+        private Key(long[] words, List<BigInteger> big)
+        {
+            this.words = words;
+            this.big = big;
+            this.hash = 31 * Arrays.hashCode(words) + big.hashCode();
+        }
+
+        /**
+         * @return the key of the matrix's current contents
+         */
+        public static Key of(Matrix matrix)
+        {
+            int rows = matrix.getRows();
+            int columns = matrix.getColumns();
+            List<BigInteger> big = new ArrayList<>(0);
+            if (matrix.isDense())
+            {
+                double[] data = matrix.getDense().getData();
+                long[] words = new long[3 + data.length];
+                words[0] = rows;
+                words[1] = columns;
+                words[2] = 1;
+                for (int i = 0; i < data.length; ++i)
+                {
+                    words[3 + i] = Double.doubleToRawLongBits(data[i]);
+                }
+                return new Key(words, big);
+            }
+            if (matrix.isSparse())
+            {
+                SparseMatrix sparse = matrix.getSparse();
+                int[] rowStart = sparse.getRowStart();
+                int[] columnIndex = sparse.getColumnIndex();
+                double[] values = sparse.getValues();
+                long[] words = new long[3 + 2 * sparse.nonZeros()];
+                words[0] = rows;
+                words[1] = columns;
+                words[2] = 2;
+                int at = 3;
+                for (int i = 0; i < rows; ++i)
+                {
+                    for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+                    {
+                        words[at++] = (long) i * columns + columnIndex[k];
+                        words[at++] = Double.doubleToRawLongBits(values[k]);
+                    }
+                }
+                return new Key(words, big);
+            }
+            long[] words = new long[3 + 2 * rows * columns];
+            words[0] = rows;
+            words[1] = columns;
+            int at = 3;
+            for (Number[] row : matrix.getMatrix())
+            {
+                for (Number number : row)
+                {
+                    // a Rational's denominator is never 0 or -1, so they mark the other kinds of entry
+                    if (!(number instanceof Rational))
+                    {
+                        words[at] = Double.doubleToRawLongBits(number.doubleValue());
+                        words[at + 1] = 0;
+                    }
+                    else if (((Rational) number).isBig())
+                    {
+                        Rational rational = (Rational) number;
+                        words[at] = big.size();
+                        words[at + 1] = -1;
+                        big.add(rational.bigNumerator());
+                        big.add(rational.bigDenominator());
+                    }
+                    else
+                    {
+                        Rational rational = (Rational) number;
+                        words[at] = rational.numerator();
+                        words[at + 1] = rational.denominator();
+                    }
+                    at += 2;
+                }
+            }
+            return new Key(words, big);
+        }
+
+        /** @return true if the matrix is stored as doubles, densely or sparsely */
+        boolean isDoubles()
+        {
+            return words[2] != 0;
+        }
+
+        /** @return the number of entries of the matrix - only the stored ones, if it is sparse */
+        long cells()
+        {
+            return words[2] == 2 ? (words.length - 3) / 2 : words[0] * words[1];
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (other == this)
+                return true;
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return hash == key.hash && Arrays.equals(words, key.words) && big.equals(key.big);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    /**
+     * Where a result is kept: the matrix's key, the kind of result, and the engine
+     * it was worked out with - null for a dense or sparse matrix, which every engine treats alike
+     */
+    private static final class Slot
+    {
+        final Key key;
+        final Kind kind;
+        final MatrixMath.Engine engine;
+
+        Slot(Key key, Kind kind, MatrixMath.Engine engine)
+        {
+            this.key = key;
+            this.kind = kind;
+            this.engine = key.isDoubles() ? null : engine;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Slot))
+                return false;
+            Slot slot = (Slot) other;
+            return kind == slot.kind && engine == slot.engine && key.equals(slot.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * key.hashCode() + kind.ordinal()) + (engine == null ? -1 : engine.ordinal());
+        }
+    }
+
+    /**
+     * A result - a Matrix, an Integer rank, a Number determinant, or the
+     * MatrixException it failed with - and the entries it holds
+     */
+    private static final class Entry
+    {
+        final Object value;
+        final long cells;
+
+        Entry(Object value, long cells)
+        {
+            this.value = value;
+            this.cells = cells;
+        }
+    }
+
+    /**
+     * Works a result out on a miss
+     */
+    private interface Computation
+    {
+        Object compute() throws MatrixException;
+    }
+
+    private final long maxCells;
+    /** the results, least recently used first */
+    private final LinkedHashMap<Slot, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cells;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a cache that holds up to DEFAULT_MAX_CELLS entries
+     */
+    public ResultCache()
+    {
+        this(DEFAULT_MAX_CELLS);
+    }
+
+    /**
+     * @param maxCells the most matrix entries to hold, counting both the matrices
+     * results are for and the results
+     */
+    public ResultCache(long maxCells)
+    {
+        this.maxCells = maxCells;
+    }
+
+    /**
+     * @return the RREF of the matrix (which is not changed), from the cache if it
+     * is there
+     */
+    public Matrix rref(Matrix matrix, MatrixMath.Engine engine)
+    {
+        try
+        {
+            return (Matrix) get(new Slot(Key.of(matrix), Kind.RREF, engine), () -> MatrixMath.rref(matrix.clone(), engine));
+        }
+        catch (MatrixException e)
+        {
+            // rref never fails
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the inverse of the matrix, from the cache if it is there
+     * @throws MatrixException if there is none
+     */
+    public Matrix inverse(Matrix matrix, MatrixMath.Engine engine) throws MatrixException
+    {
+        return (Matrix) get(new Slot(Key.of(matrix), Kind.INVERSE, engine), () -> MatrixMath.identity(matrix, engine));
+    }
+
+    /**
+     * @return the rank of the matrix, from the cache if it is there
+     */
+    public int rank(Matrix matrix, MatrixMath.Engine engine)
+    {
+        try
+        {
+            return (Integer) get(new Slot(Key.of(matrix), Kind.RANK, engine), () -> MatrixMath.rank(matrix, engine));
+        }
+        catch (MatrixException e)
+        {
+            // every matrix has a rank
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the determinant of the matrix - a Double if it is dense, otherwise an
+     * exact Rational unless the matrix mixes in doubles - from the cache if it is there
+     * @throws MatrixException if the matrix is not square
+     */
+    public Number determinant(Matrix matrix, MatrixMath.Engine engine) throws MatrixException
+    {
+        return (Number) get(new Slot(Key.of(matrix), Kind.DETERMINANT, engine), () -> MatrixMath.determinant(matrix, engine));
+    }
+
+    private Object get(Slot slot, Computation computation) throws MatrixException
+    {
+        Object value = lookup(slot);
+        if (value == null)
+        {
+            try
+            {
+                value = computation.compute();
+            }
+            catch (MatrixException e)
+            {
+                put(slot, e, 1);
+                throw e;
+            }
+            put(slot, value, value instanceof Matrix ? cells((Matrix) value) : 1);
+        }
+        return value;
+    }
+
+    /**
+     * Looks up a Matrix result, for callers that work results out themselves, such
+     * as on a BatchSolver
+     *
+     * @param engine the engine the result is to be worked out with
+     * @return the result, or null if it is not cached
+     * @throws MatrixException if the result is cached as having failed
+     */
+    public Matrix getMatrix(Key key, Kind kind, MatrixMath.Engine engine) throws MatrixException
+    {
+        return (Matrix) lookup(new Slot(key, kind, engine));
+    }
+
+    /**
+     * Caches a Matrix result worked out by the caller with the given engine
+     */
+    public void putMatrix(Key key, Kind kind, MatrixMath.Engine engine, Matrix result)
+    {
+        put(new Slot(key, kind, engine), result, cells(result));
+    }
+
+    /**
+     * Caches that working out a result with the given engine failed
+     */
+    public void putFailure(Key key, Kind kind, MatrixMath.Engine engine, MatrixException failure)
+    {
+        put(new Slot(key, kind, engine), failure, 1);
+    }
+
+    /**
+     * @return the cached value, or null, counting the hit or miss
+     * @throws MatrixException if the value is a failure
+     */
+    private synchronized Object lookup(Slot slot) throws MatrixException
+    {
+        Entry entry = entries.get(slot);
+        if (entry == null)
+        {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        if (entry.value instanceof MatrixException)
+            throw new MatrixException(((MatrixException) entry.value).getMessage());
+        return entry.value;
+    }
+
+    private synchronized void put(Slot slot, Object value, long resultCells)
+    {
+        long size = slot.key.cells() + resultCells;
+        // too big to keep without throwing out everything else
+        if (size > maxCells)
+            return;
+        Entry old = entries.put(slot, new Entry(value, size));
+        if (old != null)
+            cells -= old.cells;
+        cells += size;
+        Iterator<Map.Entry<Slot, Entry>> eldest = entries.entrySet().iterator();
+        while (cells > maxCells)
+        {
+            cells -= eldest.next().getValue().cells;
+            eldest.remove();
+            ++evictions;
+        }
+    }
+
+    private static long cells(Matrix matrix)
+    {
+        if (matrix.isSparse())
+            return matrix.getSparse().nonZeros();
+        return (long) matrix.getRows() * matrix.getColumns();
+    }
+
+    /** @return the number of lookups that found a result */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /** @return the number of lookups that did not */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /** @return the number of results thrown out to make room */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /** @return the number of results held */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** @return the number of matrix entries held */
+    public synchronized long getCells()
+    {
+        return cells;
+    }
+
+    /**
+     * Forgets every result. The statistics are kept
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        cells = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return size() + " results, " + hits + " hits, " + misses + " misses, " + evictions + " evicted";
+    }
+}
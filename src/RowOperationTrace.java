@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A log of the elementary row operations an elimination made - swaps, scalings
+ * and additions of a multiple of one row to another - for showing the steps after
+ * the fact, or for making the same elimination on another matrix with the same
+ * number of rows (such as new right-hand sides) without searching for pivots again.
+ *
+ * Operations are kept as ints in one preallocated array, three per operation (the
+ * kind and two rows), with their factors in a second array, so recording one is
+ * a couple of array stores. The array doubles if it fills up. Nothing is recorded
+ * unless a trace is handed to the elimination (see MatrixMath.rref(Matrix,
+ * RowOperationTrace)), and without one the elimination does no extra work.
+ *
+ * Rows are counted from 0 here, and from 1 in render(), as they are on paper.
+ */
+public class RowOperationTrace
+{
+    /** The kinds of row operation */
+    public enum Kind
+    {
+        /** exchange two rows */
+        SWAP,
+        /** multiply a row by a factor */
+        SCALE,
+        /** add a multiple of the first row to the second */
+        ADD;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    /** ints per operation in events */
+    private static final int EVENT_SIZE = 3;
+
+    /** for each operation: its Kind's ordinal, its first row, its second row (or -1) */
+    private int[] events;
+    /** for each operation: its factor, or null for a swap */
+    private Number[] factors;
+    private int size;
+    /** the number of rows of the matrix the operations were made on */
+    private int rows = -1;
+
+    /**
+     * Creates a trace with room for 256 operations before it has to grow
+     */
+    public RowOperationTrace()
+    {
+        this(256);
+    }
+
+    /**
+     * @param capacity the number of operations to make room for. Gauss-Jordan on an
+     * n x n matrix makes up to n * n of them
+     */
+    public RowOperationTrace(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        events = new int[EVENT_SIZE * capacity];
+        factors = new Number[capacity];
+    }
+
+    /**
+     * Forgets every operation, ready to record an elimination of a matrix with the
+     * given number of rows
+     */
+    void start(int rows)
+    {
+        // drop the factors, so they can be collected
+        Arrays.fill(factors, 0, size, null);
+        size = 0;
+        this.rows = rows;
+    }
+
+    /** records that row1 and row2 were exchanged */
+    void swap(int row1, int row2)
+    {
+        record(Kind.SWAP, row1, row2, null);
+    }
+
+    /** records that the row was multiplied by factor */
+    void scale(int row, Number factor)
+    {
+        record(Kind.SCALE, row, -1, factor);
+    }
+
+    /** records that factor times source was added to target */
+    void add(Number factor, int source, int target)
+    {
+        record(Kind.ADD, source, target, factor);
+    }
+
+    private void record(Kind kind, int row1, int row2, Number factor)
+    {
+        if (size == factors.length)
+        {
+            events = Arrays.copyOf(events, 2 * events.length);
+            factors = Arrays.copyOf(factors, 2 * factors.length);
+        }
+        int at = EVENT_SIZE * size;
+        events[at] = kind.ordinal();
+        events[at + 1] = row1;
+        events[at + 2] = row2;
+        factors[size] = factor;
+        ++size;
+    }
+
+    /** @return the number of operations recorded */
+    public int size()
+    {
+        return size;
+    }
+
+    /** @return the number of rows of the matrix the operations were made on, or -1 if none has been traced */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /** @return the kind of the i-th operation */
+    public Kind getKind(int i)
+    {
+        return KINDS[events[EVENT_SIZE * check(i)]];
+    }
+
+    /** @return the row swapped, scaled or added from by the i-th operation */
+    public int getFirstRow(int i)
+    {
+        return events[EVENT_SIZE * check(i) + 1];
+    }
+
+    /** @return the other row swapped or added to by the i-th operation, or -1 for a scaling */
+    public int getSecondRow(int i)
+    {
+        return events[EVENT_SIZE * check(i) + 2];
+    }
+
+    /** @return the factor of the i-th operation, or null for a swap */
+    public Number getFactor(int i)
+    {
+        return factors[check(i)];
+    }
+
+    private int check(int i)
+    {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Operation " + i + " of " + size);
+        return i;
+    }
+
+    /**
+     * @return the operations, one per line, eg "R1 <-> R3", "1/2 R1 -> R1" and
+     * "-3 R1 + R2 -> R2"
+     */
+    public String render()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < size; ++i)
+        {
+            int at = EVENT_SIZE * i;
+            int row1 = events[at + 1] + 1;
+            int row2 = events[at + 2] + 1;
+            switch (KINDS[events[at]])
+            {
+                case SWAP:
+                    text.append('R').append(row1).append(" <-> R").append(row2);
+                    break;
+                case SCALE:
+                    text.append(factors[i]).append(" R").append(row1).append(" -> R").append(row1);
+                    break;
+                case ADD:
+                    text.append(factors[i]).append(" R").append(row1).append(" + R").append(row2)
+                            .append(" -> R").append(row2);
+                    break;
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Makes the same operations, in order, on a copy of another matrix. Replaying the
+     * trace of an RREF of A onto B gives E * B, where E * A is the RREF of A - so if A
+     * was invertible, replaying onto b solves A * x = b
+     *
+     * @param target the matrix to replay onto, which is not changed
+     * @return the result
+     * @throws MatrixException if the target does not have the traced matrix's number of rows
+     */
+    public Matrix replay(Matrix target) throws MatrixException
+    {
+        if (target.getRows() != rows)
+            throw new MatrixException("The trace is of a matrix with " + rows + " rows, not " + target.getRows() + "!");
+        Matrix result = target.clone();
+        if (result.isDense())
+            replay(result.getDense());
+        else
+            replay(result.convertToRows());
+        return result;
+    }
+
+    private void replay(DenseDoubleMatrix target)
+    {
+        double[] data = target.getData();
+        int columns = target.getColumns();
+        double[] temp = new double[columns];
+        for (int i = 0; i < size; ++i)
+        {
+            int at = EVENT_SIZE * i;
+            int row1 = events[at + 1] * columns;
+            int row2 = events[at + 2] * columns;
+            switch (KINDS[events[at]])
+            {
+                case SWAP:
+                    System.arraycopy(data, row1, temp, 0, columns);
+                    System.arraycopy(data, row2, data, row1, columns);
+                    System.arraycopy(temp, 0, data, row2, columns);
+                    break;
+                case SCALE:
+                {
+                    double factor = factors[i].doubleValue();
+                    for (int j = 0; j < columns; ++j)
+                    {
+                        data[row1 + j] *= factor;
+                    }
+                    break;
+                }
+                case ADD:
+                {
+                    double factor = factors[i].doubleValue();
+                    for (int j = 0; j < columns; ++j)
+                    {
+                        data[row2 + j] += factor * data[row1 + j];
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private void replay(ArrayList<Number[]> target)
+    {
+        for (int i = 0; i < size; ++i)
+        {
+            int at = EVENT_SIZE * i;
+            int row1 = events[at + 1];
+            int row2 = events[at + 2];
+            switch (KINDS[events[at]])
+            {
+                case SWAP:
+                    target.set(row1, target.set(row2, target.get(row1)));
+                    break;
+                case SCALE:
+                {
+                    Number[] row = target.get(row1);
+                    for (int j = 0; j < row.length; ++j)
+                    {
+                        row[j] = times(factors[i], row[j]);
+                    }
+                    break;
+                }
+                case ADD:
+                {
+                    Number[] source = target.get(row1);
+                    Number[] row = target.get(row2);
+                    for (int j = 0; j < row.length; ++j)
+                    {
+                        row[j] = plus(times(factors[i], source[j]), row[j]);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /** the product, exact if both are Rationals - otherwise a double, as in MatrixMath */
+    private static Number times(Number a, Number b)
+    {
+        if (a instanceof Rational && b instanceof Rational)
+            return ((Rational) a).times((Rational) b);
+        return a.doubleValue() * b.doubleValue();
+    }
+
+    private static Number plus(Number a, Number b)
+    {
+        if (a instanceof Rational && b instanceof Rational)
+            return ((Rational) a).plus((Rational) b);
+        return a.doubleValue() + b.doubleValue();
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a script of matrix commands without any prompts, for unattended jobs.
+ * A script has one command per line; blank lines and lines starting with # are
+ * skipped:
+ *
+ *   matrix NAME 1,2;3,4         defines a matrix from its string form
+ *   load FILE                   reads a workspace (.ws), Matrix Market (.mtx) or text file
+ *   rref NAME [RESULT]          row-reduces a matrix
+ *   inverse NAME [RESULT]       inverts a matrix
+ *   add LEFT RIGHT [RESULT]     adds two matrices
+ *   multiply LEFT RIGHT [RESULT] multiplies two matrices
+ *   solve A B [RESULT]          solves A * x = b
+ *   print NAME...               writes matrices to the output
+ *   save FILE [NAME...]         saves matrices (all of them by default) to a .ws or .mtx file
+ *   engine NAME                 chooses the MatrixMath.Engine for exact matrices
+ *
+ * A result replaces the (first) matrix it came from, unless a RESULT name is
+ * given. Every result is written to the output as it is made, as a name line then
+ * a string form line - the same text format that load and the menu's import read -
+ * and the time each command took is printed as it finishes. The first command to
+ * fail stops the script.
+ */
+public class ScriptRunner
+{
+    /** Every matrix, by name - ones in workspace files are read the first time they are used */
+    private final MatrixRegistry matrices = new MatrixRegistry();
+    private final Writer output;
+    private final PrintStream timings;
+    private MatrixMath.Engine engine = MatrixMath.Engine.GAUSS_JORDAN;
+
+    /**
+     * @param output where results go
+     * @param timings where the time of each command goes
+     */
+    public ScriptRunner(Writer output, PrintStream timings)
+    {
+        this.output = output;
+        this.timings = timings;
+    }
+
+    /**
+     * Runs a script from the command line: {@code Driver SCRIPT [OUTPUT]}, where
+     * SCRIPT is a file or - for standard input, and the output is standard output
+     * if no file is given. Timings go to standard error
+     *
+     * @return the exit status - 0 if every command succeeded
+     */
+    public static int run(String[] args)
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: Driver SCRIPT [OUTPUT]   (SCRIPT may be - for standard input)");
+            return 2;
+        }
+        try (BufferedReader script = new BufferedReader(args[0].equals("-")
+                ? new InputStreamReader(System.in) : new FileReader(args[0]));
+                Writer output = new BufferedWriter(args.length > 1
+                        ? new FileWriter(args[1]) : new OutputStreamWriter(System.out)))
+        {
+            new ScriptRunner(output, System.err).run(script);
+            return 0;
+        }
+        catch (IOException | MatrixException e)
+        {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Runs every command in the script
+     *
+     * @throws IOException if the script cannot be read or is malformed, or a file cannot be used
+     * @throws MatrixException if an operation is not possible for its matrices
+     */
+    public void run(BufferedReader script) throws IOException, MatrixException
+    {
+        String line;
+        int lineNumber = 0;
+        while ((line = script.readLine()) != null)
+        {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] words = line.split("\\s+");
+            long start = System.nanoTime();
+            try
+            {
+                execute(words);
+            }
+            catch (MatrixException e)
+            {
+                throw new MatrixException("line " + lineNumber + ": " + e.getMessage());
+            }
+            catch (IOException | RuntimeException e)
+            {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage(), e);
+            }
+            timings.printf("%5d %-10s %12.3f ms%n", lineNumber, words[0], (System.nanoTime() - start) / 1e6);
+        }
+        output.flush();
+    }
+
+    private void execute(String[] words) throws IOException, MatrixException
+    {
+        switch (words[0])
+        {
+            case "matrix":
+                arguments(words, 2, 2);
+                matrices.put(words[1], new Matrix(words[2], words[1]));
+                break;
+            case "load":
+                arguments(words, 1, 1);
+                load(new File(words[1]));
+                break;
+            case "rref":
+            {
+                arguments(words, 1, 2);
+                Matrix matrix = get(words[1]);
+                result(MatrixMath.rref(matrix.clone(), engine), words, 2);
+                break;
+            }
+            case "inverse":
+                arguments(words, 1, 2);
+                result(MatrixMath.identity(get(words[1]), engine), words, 2);
+                break;
+            case "add":
+            {
+                arguments(words, 2, 3);
+                Matrix sum = get(words[1]).clone();
+                sum.add(get(words[2]));
+                result(sum, words, 3);
+                break;
+            }
+            case "multiply":
+            {
+                arguments(words, 2, 3);
+                Matrix product = get(words[1]).clone();
+                product.multiply(get(words[2]));
+                result(product, words, 3);
+                break;
+            }
+            case "solve":
+            {
+                arguments(words, 2, 3);
+                Matrix a = get(words[1]);
+                Matrix b = get(words[2]);
+                Matrix x;
+                if (a.isDense())
+                    x = new Matrix(new LUDecomposition(a).solve(DenseDoubleMatrix.fromMatrix(b)));
+                else if (a.isSparse())
+                    x = new Matrix(a.getSparse().solve(DenseDoubleMatrix.fromMatrix(b)));
+                else
+                    x = new DixonSolver(a).solve(b);
+                result(x, words, 3);
+                break;
+            }
+            case "print":
+                arguments(words, 1, Integer.MAX_VALUE);
+                for (int i = 1; i < words.length; ++i)
+                {
+                    write(words[i], get(words[i]));
+                }
+                break;
+            case "save":
+                arguments(words, 1, Integer.MAX_VALUE);
+                save(new File(words[1]), words.length > 2
+                        ? Arrays.asList(words).subList(2, words.length) : matrices.names());
+                break;
+            case "engine":
+                arguments(words, 1, 1);
+                try
+                {
+                    engine = MatrixMath.Engine.valueOf(words[1].toUpperCase());
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new IOException("Unknown engine " + words[1] + ", expected one of "
+                            + Arrays.toString(MatrixMath.Engine.values()));
+                }
+                break;
+            default:
+                throw new IOException("Unknown command " + words[0]);
+        }
+    }
+
+    /** checks the command was given from least to most arguments */
+    private static void arguments(String[] words, int least, int most) throws IOException
+    {
+        int count = words.length - 1;
+        if (count < least || count > most)
+            throw new IOException(words[0] + " takes " + (least == most ? "" + least
+                    : most == Integer.MAX_VALUE ? least + " or more" : least + " to " + most) + " arguments");
+    }
+
+    /**
+     * Stores a result under words[nameIndex] if there is one, otherwise in place of
+     * the matrix named by words[1], and writes it out
+     */
+    private void result(Matrix matrix, String[] words, int nameIndex) throws IOException
+    {
+        String name = words.length > nameIndex ? words[nameIndex] : words[1];
+        matrix.setName(name);
+        matrices.put(name, matrix);
+        write(name, matrix);
+    }
+
+    private void write(String name, Matrix matrix) throws IOException
+    {
+        output.write(name);
+        output.write('\n');
+        output.write(matrix.getStringVerision());
+        output.write('\n');
+    }
+
+    private Matrix get(String name) throws IOException
+    {
+        Matrix matrix = matrices.get(name);
+        if (matrix == null)
+            throw new IOException("There is no matrix named " + name);
+        return matrix;
+    }
+
+    /**
+     * Reads a file the same way the menu's import does, except that names already
+     * in use are replaced rather than renamed
+     */
+    private void load(File file) throws IOException
+    {
+        if (Workspace.isWorkspace(file))
+        {
+            Workspace workspace = Workspace.open(file);
+            for (int i = 0; i < workspace.size(); ++i)
+            {
+                String name = workspace.getName(i);
+                matrices.putStored(name, workspace, name);
+            }
+        }
+        else if (file.getName().endsWith(".mtx"))
+        {
+            String name = file.getName().substring(0, file.getName().length() - 4);
+            Matrix matrix = MatrixMarket.read(file, null);
+            matrix.setName(name);
+            matrices.put(name, matrix);
+        }
+        else
+        {
+            try (BufferedReader in = new BufferedReader(new FileReader(file)))
+            {
+                String name;
+                String stringMatrix;
+                while ((name = in.readLine()) != null && (stringMatrix = in.readLine()) != null)
+                {
+                    matrices.put(name, new Matrix(stringMatrix, name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves to a workspace file, or to a Matrix Market file if the name ends in .mtx
+     * (which holds only one matrix)
+     */
+    private void save(File file, List<String> names) throws IOException
+    {
+        if (file.getName().endsWith(".mtx"))
+        {
+            if (names.size() != 1)
+                throw new IOException("A .mtx file holds exactly one matrix");
+            MatrixMarket.write(get(names.get(0)), file);
+            return;
+        }
+        try (Workspace.Writer writer = new Workspace.Writer(file))
+        {
+            // ones still in a workspace file are copied straight across, without decoding them
+            matrices.writeTo(writer, names);
+        }
+    }
+}
@@ -0,0 +1,558 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A long-running solver that other programs talk to over a socket on localhost,
+ * so they do not pay for starting a JVM, and warming up its JIT, on every request.
+ * Matrices are kept by name in a MatrixRegistry shared by every connection.
+ *
+ * Each request is a line of words, and each gets one reply, in order:
+ *   PUT NAME 1,2;3,4          stores a matrix given in its string form
+ *   PUTB NAME LENGTH          stores a matrix sent as LENGTH bytes of MatrixCodec's binary form,
+ *                             which follow the line
+ *   GET NAME                  replies with the matrix in its string form
+ *   GETB NAME                 replies "OK LENGTH", then the matrix in binary form
+ *   RREF NAME [RESULT]        replies with the RREF, and stores it as RESULT if given
+ *   INVERSE NAME [RESULT]     the same for the inverse
+ *   MULTIPLY LEFT RIGHT [RESULT]
+ *   SOLVE A B [RESULT]        the x with A * x = B
+ *   DELETE NAME
+ *   LIST                      replies with every name
+ *   STATS                     replies with the result cache's hits and misses
+ *   QUIT                      closes the connection
+ *   SHUTDOWN                  stops the server
+ * A reply is "OK", then any result, or "ERR" and what went wrong.
+ *
+ * A client does not have to wait for a reply before sending its next request.
+ * Every request that has arrived is handed to a BatchSolver straight away, so
+ * requests run side by side, and replies are written as a batch whenever the
+ * next one in order is ready. A request still waits for any earlier request on
+ * the same connection that writes a matrix it uses, so a connection behaves as
+ * if its requests ran one after another.
+ *
+ * RREFs and inverses are kept in a ResultCache by the contents of the matrix, so
+ * asking again for one already worked out replies straight away.
+ */
+public class SolverServer implements Closeable
+{
+    /** The port used when none is given */
+    public static final int DEFAULT_PORT = 7878;
+
+    private final ServerSocket serverSocket;
+    private final MatrixRegistry registry;
+    private final BatchSolver solver;
+    private final ResultCache results = new ResultCache();
+    /** One virtual thread per connection, and one to accept them */
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /** Marks the end of a connection's replies */
+    private static final CompletableFuture<byte[]> END = CompletableFuture.completedFuture(null);
+
+    /**
+     * The requests on one connection still running that use a name
+     */
+    private static class Pending
+    {
+        /** the last request to write the name */
+        CompletableFuture<?> writer = END;
+        /** the requests since then that read it */
+        final List<CompletableFuture<?>> readers = new ArrayList<>();
+    }
+
+    /**
+     * Opens the server socket. Nothing is accepted until start() is called
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be used
+     */
+    public SolverServer(int port, MatrixRegistry registry, BatchSolver solver) throws IOException
+    {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.registry = registry;
+        this.solver = solver;
+    }
+
+    /**
+     * Runs a server from the command line: {@code Driver --serve [PORT]}, until a
+     * client sends SHUTDOWN
+     *
+     * @return the exit status
+     */
+    public static int run(String[] args)
+    {
+        int port = DEFAULT_PORT;
+        if (args.length > 1)
+        {
+            try
+            {
+                port = Integer.parseInt(args[1]);
+            }
+            catch (NumberFormatException e)
+            {
+                System.err.println("Usage: Driver --serve [PORT]");
+                return 2;
+            }
+        }
+        try (BatchSolver batchSolver = new BatchSolver();
+                SolverServer server = new SolverServer(port, new MatrixRegistry(), batchSolver))
+        {
+            server.start();
+            System.out.println("Listening on localhost:" + server.getPort());
+            server.awaitClose();
+            return 0;
+        }
+        catch (IOException e)
+        {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+        catch (InterruptedException e)
+        {
+            return 1;
+        }
+    }
+
+    /** @return the port being listened on */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts accepting connections
+     */
+    public void start()
+    {
+        threads.execute(() -> {
+            while (!serverSocket.isClosed())
+            {
+                try
+                {
+                    Socket socket = serverSocket.accept();
+                    threads.execute(() -> serve(socket));
+                }
+                catch (IOException e)
+                {
+                    // the socket was closed, or a connection failed before it was accepted
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until the server is closed
+     */
+    public void awaitClose() throws InterruptedException
+    {
+        closed.await();
+    }
+
+    /**
+     * Stops accepting connections and drops the open ones
+     */
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        threads.shutdownNow();
+        closed.countDown();
+    }
+
+    private void serve(Socket socket)
+    {
+        LinkedBlockingQueue<CompletableFuture<byte[]>> replies = new LinkedBlockingQueue<>();
+        try (socket)
+        {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Thread writer = Thread.ofVirtual().start(() -> writeReplies(replies, out));
+            HashMap<String, Pending> pending = new HashMap<>();
+            String line;
+            boolean open = true;
+            while (open && (line = readLine(in)) != null)
+            {
+                String[] words = line.trim().split("\\s+");
+                String command = words[0].toUpperCase();
+                CompletableFuture<byte[]> reply;
+                try
+                {
+                    reply = request(command, words, in, pending);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    reply = CompletableFuture.failedFuture(e);
+                }
+                replies.add(reply);
+                if (command.equals("QUIT"))
+                    open = false;
+                else if (command.equals("SHUTDOWN"))
+                {
+                    open = false;
+                    replies.add(END);
+                    writer.join();
+                    close();
+                    return;
+                }
+            }
+            replies.add(END);
+            writer.join();
+        }
+        catch (IOException | InterruptedException e)
+        {
+            // the connection was dropped
+        }
+    }
+
+    /**
+     * Starts one request
+     *
+     * @return the reply, once it is ready
+     */
+    private CompletableFuture<byte[]> request(String command, String[] words, InputStream in,
+            HashMap<String, Pending> pending) throws IOException
+    {
+        switch (command)
+        {
+            case "PUT":
+            {
+                arguments(words, 2, 2);
+                Matrix matrix = new Matrix(words[2], words[1]);
+                return after(pending, List.of(), words[1], () -> {
+                    registry.put(words[1], matrix);
+                    return ok("");
+                });
+            }
+            case "PUTB":
+            {
+                arguments(words, 2, 2);
+                int length = Integer.parseInt(words[2]);
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length)
+                    throw new EOFException("The matrix data ends early");
+                Matrix matrix = new MatrixCodec.Reader(ByteBuffer.wrap(bytes)).read();
+                matrix.setName(words[1]);
+                return after(pending, List.of(), words[1], () -> {
+                    registry.put(words[1], matrix);
+                    return ok("");
+                });
+            }
+            case "GET":
+                arguments(words, 1, 1);
+                return after(pending, List.of(words[1]), null, () -> ok(get(words[1]).getStringVerision()));
+            case "GETB":
+                arguments(words, 1, 1);
+                return after(pending, List.of(words[1]), null, () -> encode(get(words[1])));
+            case "RREF":
+                arguments(words, 1, 2);
+                return compute(pending, List.of(words[1]), result(words, 2),
+                        () -> cached(ResultCache.Kind.RREF, get(words[1])));
+            case "INVERSE":
+                arguments(words, 1, 2);
+                return compute(pending, List.of(words[1]), result(words, 2),
+                        () -> cached(ResultCache.Kind.INVERSE, get(words[1])));
+            case "MULTIPLY":
+                arguments(words, 2, 3);
+                return compute(pending, List.of(words[1], words[2]), result(words, 3),
+                        () -> matrix(solver.multiply(get(words[1]), get(words[2]))));
+            case "SOLVE":
+                arguments(words, 2, 3);
+                return compute(pending, List.of(words[1], words[2]), result(words, 3),
+                        () -> matrix(solver.solve(get(words[1]), get(words[2]))));
+            case "DELETE":
+                arguments(words, 1, 1);
+                return after(pending, List.of(), words[1], () -> {
+                    if (!registry.remove(words[1]))
+                        throw new IOException("There is no matrix named " + words[1]);
+                    return ok("");
+                });
+            case "LIST":
+                arguments(words, 0, 0);
+                // after every earlier request on the connection that adds or removes a name
+                return after(pending, new ArrayList<>(pending.keySet()), null,
+                        () -> ok(String.join(" ", registry.names())));
+            case "STATS":
+                arguments(words, 0, 0);
+                // after every earlier request on the connection, so that they are counted
+                return finished(everything(pending)).thenApply(ignored -> ok(results.toString()));
+            case "QUIT":
+            case "SHUTDOWN":
+                return CompletableFuture.completedFuture(ok(""));
+            default:
+                throw new IOException("Unknown request " + words[0]);
+        }
+    }
+
+    /** the work of a request that is quick enough to do as soon as its turn comes */
+    private interface Step
+    {
+        byte[] run() throws IOException;
+    }
+
+    /** a request that goes to the BatchSolver */
+    private interface Job
+    {
+        CompletableFuture<Matrix> submit() throws IOException;
+    }
+
+    /**
+     * Runs step once every earlier request on the connection that it conflicts with
+     * has finished, and records it as using reads and writing write (which may be null)
+     */
+    private CompletableFuture<byte[]> after(HashMap<String, Pending> pending, List<String> reads, String write,
+            Step step)
+    {
+        return track(pending, reads, write, dependencies(pending, reads, write).thenApply(ignored -> {
+            try
+            {
+                return step.run();
+            }
+            catch (IOException e)
+            {
+                throw new CompletionException(e);
+            }
+        }));
+    }
+
+    /**
+     * Hands a job to the BatchSolver once the requests it depends on have finished,
+     * then stores its result under write (if not null) and replies with it
+     */
+    private CompletableFuture<byte[]> compute(HashMap<String, Pending> pending, List<String> reads, String write,
+            Job job)
+    {
+        return track(pending, reads, write, dependencies(pending, reads, write).thenCompose(ignored -> {
+            try
+            {
+                return job.submit();
+            }
+            catch (IOException e)
+            {
+                throw new CompletionException(e);
+            }
+        }).thenApply(matrix -> {
+            // the matrix may be shared with the cache, so it keeps its name
+            if (write != null)
+                registry.put(write, matrix);
+            return ok(matrix.getStringVerision());
+        }));
+    }
+
+    /**
+     * @return the cached RREF or inverse of the matrix, or a future for it from the
+     * BatchSolver, which is cached once it is done
+     */
+    private CompletableFuture<Matrix> cached(ResultCache.Kind kind, Matrix matrix)
+    {
+        ResultCache.Key key = ResultCache.Key.of(matrix);
+        MatrixMath.Engine engine = solver.getEngine();
+        try
+        {
+            Matrix result = results.getMatrix(key, kind, engine);
+            if (result != null)
+                return CompletableFuture.completedFuture(result);
+        }
+        catch (MatrixException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Matrix> result = matrix(kind == ResultCache.Kind.RREF ? solver.rref(matrix)
+                : solver.inverse(matrix));
+        // a failure arrives wrapped in a CompletionException by thenApply
+        return result.whenComplete((value, error) -> {
+            if (value != null)
+                results.putMatrix(key, kind, engine, value);
+            else if (error.getCause() instanceof MatrixException)
+                results.putFailure(key, kind, engine, (MatrixException) error.getCause());
+        });
+    }
+
+    private static CompletableFuture<Matrix> matrix(CompletableFuture<BatchSolver.Result> result)
+    {
+        return result.thenApply(BatchSolver.Result::getMatrix);
+    }
+
+    /**
+     * @return a future that completes when every earlier request on the connection
+     * that writes one of the names, or reads the name to be written, has finished
+     */
+    private static CompletableFuture<Void> dependencies(HashMap<String, Pending> pending, List<String> reads,
+            String write)
+    {
+        List<CompletableFuture<?>> waits = new ArrayList<>();
+        for (String name : reads)
+        {
+            Pending uses = pending.get(name);
+            if (uses != null)
+                waits.add(uses.writer);
+        }
+        if (write != null)
+        {
+            Pending uses = pending.get(write);
+            if (uses != null)
+            {
+                waits.add(uses.writer);
+                waits.addAll(uses.readers);
+            }
+        }
+        return finished(waits);
+    }
+
+    /** @return every request on the connection that is still running */
+    private static List<CompletableFuture<?>> everything(HashMap<String, Pending> pending)
+    {
+        List<CompletableFuture<?>> running = new ArrayList<>();
+        for (Pending uses : pending.values())
+        {
+            running.add(uses.writer);
+            running.addAll(uses.readers);
+        }
+        return running;
+    }
+
+    /** @return a future that completes when every one of the requests has, whether or not it failed */
+    private static CompletableFuture<Void> finished(List<CompletableFuture<?>> waits)
+    {
+        CompletableFuture<?>[] finished = new CompletableFuture<?>[waits.size()];
+        for (int i = 0; i < finished.length; ++i)
+        {
+            finished[i] = waits.get(i).handle((value, error) -> null);
+        }
+        return CompletableFuture.allOf(finished);
+    }
+
+    private static CompletableFuture<byte[]> track(HashMap<String, Pending> pending, List<String> reads,
+            String write, CompletableFuture<byte[]> request)
+    {
+        // a name whose requests have all finished has nothing left to wait for
+        pending.values().removeIf(uses -> uses.writer.isDone()
+                && uses.readers.stream().allMatch(CompletableFuture::isDone));
+        for (String name : reads)
+        {
+            Pending uses = pending.computeIfAbsent(name, key -> new Pending());
+            uses.readers.removeIf(CompletableFuture::isDone);
+            uses.readers.add(request);
+        }
+        if (write != null)
+        {
+            Pending uses = pending.computeIfAbsent(write, key -> new Pending());
+            uses.writer = request;
+            uses.readers.clear();
+        }
+        return request;
+    }
+
+    /** @return words[index], the name to store a result under, or null if none was given */
+    private static String result(String[] words, int index)
+    {
+        return words.length > index ? words[index] : null;
+    }
+
+    private Matrix get(String name) throws IOException
+    {
+        Matrix matrix = registry.get(name);
+        if (matrix == null)
+            throw new IOException("There is no matrix named " + name);
+        return matrix;
+    }
+
+    private static void arguments(String[] words, int least, int most) throws IOException
+    {
+        int count = words.length - 1;
+        if (count < least || count > most)
+            throw new IOException(words[0] + " takes " + (least == most ? "" + least : least + " to " + most)
+                    + " arguments");
+    }
+
+    private static byte[] ok(String result)
+    {
+        return (result.isEmpty() ? "OK\n" : "OK " + result + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(Matrix matrix) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MatrixCodec.Writer writer = new MatrixCodec.Writer(Channels.newChannel(bytes));
+        writer.write(matrix);
+        writer.flush();
+        byte[] header = ("OK " + bytes.size() + "\n").getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream reply = new ByteArrayOutputStream(header.length + bytes.size());
+        reply.write(header);
+        bytes.writeTo(reply);
+        return reply.toByteArray();
+    }
+
+    /**
+     * Writes each reply in order as it becomes ready, flushing only when the next
+     * one is not ready yet
+     */
+    private static void writeReplies(LinkedBlockingQueue<CompletableFuture<byte[]>> replies, OutputStream out)
+    {
+        try
+        {
+            while (true)
+            {
+                CompletableFuture<byte[]> next = replies.peek();
+                if (next == null || !next.isDone())
+                    out.flush();
+                next = replies.take();
+                if (next == END)
+                    break;
+                out.write(next.handle((reply, error) -> reply != null ? reply : error(error)).join());
+            }
+            out.flush();
+        }
+        catch (IOException | InterruptedException e)
+        {
+            // the connection was dropped
+        }
+    }
+
+    private static byte[] error(Throwable error)
+    {
+        while (error instanceof CompletionException && error.getCause() != null)
+        {
+            error = error.getCause();
+        }
+        String message = error.getMessage() != null ? error.getMessage() : error.toString();
+        return ("ERR " + message.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the next line, without its line ending, or null at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n')
+        {
+            if (b != '\r')
+                line.write(b);
+        }
+        if (b == -1 && line.size() == 0)
+            return null;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,913 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed sparse row (CSR) storage for a matrix of doubles that is mostly
+ * zeros. Only the non-zero entries are stored: row i's entries are
+ * values[rowStart[i] .. rowStart[i + 1]), with their columns, in increasing order,
+ * in the same range of columnIndex. Memory, and the time taken by add, multiply
+ * and elimination, grow with the number of non-zeros rather than with rows x columns.
+ *
+ * A SparseMatrix is never changed once built - every operation returns a new one.
+ *
+ * Elimination chooses its pivots to limit fill-in (zeros that become non-zero). In
+ * rref the columns have to be taken in order, so of the rows that could pivot the
+ * one with the fewest entries is used (the Markowitz choice for a fixed column);
+ * solve is free to take the columns in any order, so it also picks the column with
+ * the fewest entries first (minimum degree). Either way a pivot must be at least
+ * PIVOT_THRESHOLD times the largest candidate in its column, to stay stable.
+ */
+public class SparseMatrix
+{
+    /** Anything smaller than this, relative to its column, is treated as zero, as in DenseDoubleMatrix */
+    public static final double EPSILON = DenseDoubleMatrix.EPSILON;
+    /** A pivot may be chosen for sparsity only if it is at least this fraction of the largest candidate */
+    public static final double PIVOT_THRESHOLD = 0.1;
+
+    /** The number of rows in the matrix */
+    private final int numRows;
+    /** The number of columns in the matrix */
+    private final int numColumns;
+    /** Row i's entries are at [rowStart[i], rowStart[i + 1]) */
+    private final int[] rowStart;
+    /** The column of each entry, increasing along each row */
+    private final int[] columnIndex;
+    /** The value of each entry */
+    private final double[] values;
+
+    /**
+     * Constructor. Creates a zero matrix of the given size
+     *
+     * @param rows
+     * @param columns
+     */
+    public SparseMatrix(int rows, int columns)
+    {
+        this(rows, columns, new int[rows + 1], new int[0], new double[0]);
+    }
+
+    /**
+     * Constructor. Wraps (does not copy) existing CSR arrays
+     */
+    private SparseMatrix(int rows, int columns, int[] rowStart, int[] columnIndex, double[] values)
+    {
+        this.numRows = rows;
+        this.numColumns = columns;
+        this.rowStart = rowStart;
+        this.columnIndex = columnIndex;
+        this.values = values;
+    }
+
+    /**
+     * @return the non-zero entries of the dense matrix, in sparse storage
+     */
+    public static SparseMatrix fromDense(DenseDoubleMatrix dense)
+    {
+        int rows = dense.getRows();
+        int columns = dense.getColumns();
+        double[] data = dense.getData();
+        int count = 0;
+        for (double value : data)
+        {
+            if (value != 0.0)
+                ++count;
+        }
+        int[] rowStart = new int[rows + 1];
+        int[] columnIndex = new int[count];
+        double[] values = new double[count];
+        int next = 0;
+        for (int i = 0; i < rows; ++i)
+        {
+            for (int j = 0; j < columns; ++j)
+            {
+                double value = data[i * columns + j];
+                if (value != 0.0)
+                {
+                    columnIndex[next] = j;
+                    values[next++] = value;
+                }
+            }
+            rowStart[i + 1] = next;
+        }
+        return new SparseMatrix(rows, columns, rowStart, columnIndex, values);
+    }
+
+    /**
+     * Builds a matrix from (row, column, value) entries given in any order. Entries
+     * at the same position are added together, and zeros are dropped
+     *
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param entryRows the row of each entry, from 0
+     * @param entryColumns the column of each entry, from 0
+     * @param entryValues the value of each entry
+     * @param count how many entries of the arrays to use
+     * @return the matrix
+     */
+    public static SparseMatrix fromEntries(int rows, int columns, int[] entryRows, int[] entryColumns,
+            double[] entryValues, int count)
+    {
+        // counting sort by row
+        int[] rowStart = new int[rows + 1];
+        for (int k = 0; k < count; ++k)
+        {
+            ++rowStart[entryRows[k] + 1];
+        }
+        for (int i = 0; i < rows; ++i)
+        {
+            rowStart[i + 1] += rowStart[i];
+        }
+        int[] next = Arrays.copyOf(rowStart, rows);
+        int[] columnIndex = new int[count];
+        double[] values = new double[count];
+        for (int k = 0; k < count; ++k)
+        {
+            int position = next[entryRows[k]]++;
+            columnIndex[position] = entryColumns[k];
+            values[position] = entryValues[k];
+        }
+        // then sort each row by column, summing duplicates, and pack the rows down
+        long[] keys = new long[0];
+        int packed = 0;
+        for (int i = 0; i < rows; ++i)
+        {
+            int from = rowStart[i];
+            int to = rowStart[i + 1];
+            rowStart[i] = packed;
+            int length = to - from;
+            if (keys.length < length)
+                keys = new long[Math.max(length, 2 * keys.length)];
+            double[] rowValues = Arrays.copyOfRange(values, from, to);
+            for (int k = 0; k < length; ++k)
+            {
+                keys[k] = (long) columnIndex[from + k] << 32 | k;
+            }
+            Arrays.sort(keys, 0, length);
+            for (int k = 0; k < length; ++k)
+            {
+                int column = (int) (keys[k] >>> 32);
+                double value = rowValues[(int) keys[k]];
+                if (packed > rowStart[i] && columnIndex[packed - 1] == column)
+                {
+                    values[packed - 1] += value;
+                    continue;
+                }
+                columnIndex[packed] = column;
+                values[packed++] = value;
+            }
+            // drop anything that is (or summed to) zero
+            int kept = rowStart[i];
+            for (int k = rowStart[i]; k < packed; ++k)
+            {
+                if (values[k] != 0.0)
+                {
+                    columnIndex[kept] = columnIndex[k];
+                    values[kept++] = values[k];
+                }
+            }
+            packed = kept;
+        }
+        rowStart[rows] = packed;
+        return new SparseMatrix(rows, columns, rowStart, Arrays.copyOf(columnIndex, packed),
+                Arrays.copyOf(values, packed));
+    }
+
+    /**
+     * Converts rows of doubles to sparse storage
+     *
+     * @param rows the rows to convert - all rows must be the same length
+     * @return the sparse copy
+     * @throws IllegalArgumentException if an entry is a Rational, which sparse
+     * storage could only hold by rounding it
+     */
+    public static SparseMatrix fromRows(List<Number[]> rows)
+    {
+        for (Number[] row : rows)
+        {
+            for (Number number : row)
+            {
+                if (number instanceof Rational)
+                    throw new IllegalArgumentException("Sparse storage holds doubles, so it cannot hold the exact value " + number);
+            }
+        }
+        return fromDense(DenseDoubleMatrix.fromRows(rows));
+    }
+
+    /**
+     * @return the matrix, in sparse storage - the matrix's own, if it is stored sparsely
+     * @throws IllegalArgumentException if an entry is a Rational, which sparse
+     * storage could only hold by rounding it
+     */
+    public static SparseMatrix fromMatrix(Matrix matrix)
+    {
+        if (matrix.isSparse())
+            return matrix.getSparse();
+        if (matrix.isDense())
+            return fromDense(matrix.getDense());
+        return fromRows(matrix.getMatrix());
+    }
+
+    /** @return the entry at row i, column j */
+    public double get(int i, int j)
+    {
+        int index = Arrays.binarySearch(columnIndex, rowStart[i], rowStart[i + 1], j);
+        return index < 0 ? 0.0 : values[index];
+    }
+
+    /** @return the number of stored (non-zero) entries */
+    public int nonZeros()
+    {
+        return rowStart[numRows];
+    }
+
+    public int getRows()
+    {
+        return numRows;
+    }
+
+    public int getColumns()
+    {
+        return numColumns;
+    }
+
+    /** @return the start of each row's entries, plus the total at the end - the backing array, not a copy */
+    public int[] getRowStart()
+    {
+        return rowStart;
+    }
+
+    /** @return the column of each entry - the backing array, not a copy */
+    public int[] getColumnIndex()
+    {
+        return columnIndex;
+    }
+
+    /** @return the value of each entry - the backing array, not a copy */
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * @return a dense copy of the matrix
+     */
+    public DenseDoubleMatrix toDense()
+    {
+        DenseDoubleMatrix dense = new DenseDoubleMatrix(numRows, numColumns);
+        for (int i = 0; i < numRows; ++i)
+        {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+            {
+                dense.set(i, columnIndex[k], values[k]);
+            }
+        }
+        return dense;
+    }
+
+    /**
+     * @return the matrix as rows of Doubles, as used by Matrix and MatrixMath
+     */
+    public ArrayList<Number[]> toRows()
+    {
+        return toDense().toRows();
+    }
+
+    /**
+     * @return the matrix as a Matrix, backed by this sparse storage
+     */
+    public Matrix toMatrix()
+    {
+        return new Matrix(this);
+    }
+
+    /**
+     * @return the transpose of the matrix - equivalently, this matrix in compressed
+     * sparse column form
+     */
+    public SparseMatrix transpose()
+    {
+        int count = nonZeros();
+        int[] start = new int[numColumns + 1];
+        for (int k = 0; k < count; ++k)
+        {
+            ++start[columnIndex[k] + 1];
+        }
+        for (int j = 0; j < numColumns; ++j)
+        {
+            start[j + 1] += start[j];
+        }
+        int[] next = Arrays.copyOf(start, numColumns);
+        int[] rows = new int[count];
+        double[] transposed = new double[count];
+        // walking the rows in order keeps each new row sorted
+        for (int i = 0; i < numRows; ++i)
+        {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+            {
+                int position = next[columnIndex[k]]++;
+                rows[position] = i;
+                transposed[position] = values[k];
+            }
+        }
+        return new SparseMatrix(numColumns, numRows, start, rows, transposed);
+    }
+
+    /**
+     * @return factor * this, with the same pattern of entries - or none, if factor is zero
+     */
+    public SparseMatrix scale(double factor)
+    {
+        if (factor == 0.0)
+            return new SparseMatrix(numRows, numColumns);
+        double[] scaled = values.clone();
+        for (int k = 0; k < scaled.length; ++k)
+        {
+            scaled[k] *= factor;
+        }
+        return new SparseMatrix(numRows, numColumns, rowStart, columnIndex, scaled);
+    }
+
+    /**
+     * @return this + other, merging the rows entry by entry
+     * @throws MatrixException if the matrices are not the same size
+     */
+    public SparseMatrix add(SparseMatrix other) throws MatrixException
+    {
+        if (numRows != other.numRows || numColumns != other.numColumns)
+            throw new MatrixException("Cannot add, matrices are not the same size");
+        int[] start = new int[numRows + 1];
+        int[] columns = new int[nonZeros() + other.nonZeros()];
+        double[] sum = new double[columns.length];
+        int next = 0;
+        for (int i = 0; i < numRows; ++i)
+        {
+            int a = rowStart[i];
+            int b = other.rowStart[i];
+            int aEnd = rowStart[i + 1];
+            int bEnd = other.rowStart[i + 1];
+            while (a < aEnd || b < bEnd)
+            {
+                int aColumn = a < aEnd ? columnIndex[a] : Integer.MAX_VALUE;
+                int bColumn = b < bEnd ? other.columnIndex[b] : Integer.MAX_VALUE;
+                int column = Math.min(aColumn, bColumn);
+                double value = 0.0;
+                if (aColumn == column)
+                    value += values[a++];
+                if (bColumn == column)
+                    value += other.values[b++];
+                if (value != 0.0)
+                {
+                    columns[next] = column;
+                    sum[next++] = value;
+                }
+            }
+            start[i + 1] = next;
+        }
+        return new SparseMatrix(numRows, numColumns, start, Arrays.copyOf(columns, next), Arrays.copyOf(sum, next));
+    }
+
+    /**
+     * @return this * other. Each row of the product is built in a dense accumulator
+     * (Gustavson's algorithm), so only the products of non-zeros are ever formed
+     * @throws MatrixException if the dimensions don't line up
+     */
+    public SparseMatrix multiply(SparseMatrix other) throws MatrixException
+    {
+        if (numColumns != other.numRows)
+            throw new MatrixException("Cannot multiple, matrices do not have corresponding dimmensions");
+        int m = other.numColumns;
+        double[] accumulator = new double[m];
+        // marker[j] == i means column j already has an entry in row i of the product
+        int[] marker = new int[m];
+        Arrays.fill(marker, -1);
+        int[] start = new int[numRows + 1];
+        int[] columns = new int[Math.max(16, nonZeros() + other.nonZeros())];
+        double[] product = new double[columns.length];
+        int next = 0;
+        for (int i = 0; i < numRows; ++i)
+        {
+            int rowBegin = next;
+            for (int a = rowStart[i]; a < rowStart[i + 1]; ++a)
+            {
+                int k = columnIndex[a];
+                double aik = values[a];
+                for (int b = other.rowStart[k]; b < other.rowStart[k + 1]; ++b)
+                {
+                    int j = other.columnIndex[b];
+                    if (marker[j] != i)
+                    {
+                        marker[j] = i;
+                        accumulator[j] = aik * other.values[b];
+                        if (next == columns.length)
+                        {
+                            columns = Arrays.copyOf(columns, 2 * next);
+                            product = Arrays.copyOf(product, 2 * next);
+                        }
+                        columns[next++] = j;
+                    }
+                    else
+                    {
+                        accumulator[j] += aik * other.values[b];
+                    }
+                }
+            }
+            Arrays.sort(columns, rowBegin, next);
+            // gather the row, dropping anything that cancelled out
+            int kept = rowBegin;
+            for (int k = rowBegin; k < next; ++k)
+            {
+                double value = accumulator[columns[k]];
+                if (value != 0.0)
+                {
+                    columns[kept] = columns[k];
+                    product[kept++] = value;
+                }
+            }
+            next = kept;
+            start[i + 1] = next;
+        }
+        return new SparseMatrix(numRows, m, start, Arrays.copyOf(columns, next), Arrays.copyOf(product, next));
+    }
+
+    /**
+     * @return this * x
+     * @throws MatrixException if x is the wrong length
+     */
+    public double[] multiply(double[] x) throws MatrixException
+    {
+        if (x.length != numColumns)
+            throw new MatrixException("Cannot multiple, the vector does not have " + numColumns + " entries");
+        double[] product = new double[numRows];
+        for (int i = 0; i < numRows; ++i)
+        {
+            double sum = 0.0;
+            for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+            {
+                sum += values[k] * x[columnIndex[k]];
+            }
+            product[i] = sum;
+        }
+        return product;
+    }
+
+    /**
+     * Row-reduces the matrix. Each column's pivot is the sparsest row whose entry
+     * passes the PIVOT_THRESHOLD test, and only rows with an entry in the pivot
+     * column are touched
+     *
+     * @return the matrix in row-reduced echelon form
+     */
+    public SparseMatrix rref()
+    {
+        WorkingRows work = new WorkingRows(this, false);
+        int[] candidates = new int[numRows];
+        boolean[] isPivot = new boolean[numRows];
+        int[] pivotOrder = new int[numRows];
+        int rank = 0;
+        for (int column = 0; column < numColumns && rank < numRows; ++column)
+        {
+            int count = work.rowsWithEntry(column, candidates);
+            int pivot = work.choosePivot(column, candidates, count, isPivot);
+            if (pivot == -1)
+                continue;
+            work.scaleRow(pivot, column);
+            for (int k = 0; k < count; ++k)
+            {
+                int row = candidates[k];
+                if (row != pivot)
+                    work.subtract(row, pivot, work.value(row, column), column);
+            }
+            isPivot[pivot] = true;
+            pivotOrder[rank++] = pivot;
+        }
+        // the pivot rows in order - whatever is left in the other rows is within rounding of zero, so they are zero rows
+        int[] start = new int[numRows + 1];
+        int total = 0;
+        for (int k = 0; k < rank; ++k)
+        {
+            total += work.length[pivotOrder[k]];
+        }
+        int[] columns = new int[total];
+        double[] reduced = new double[total];
+        int next = 0;
+        for (int k = 0; k < rank; ++k)
+        {
+            int row = pivotOrder[k];
+            System.arraycopy(work.columns[row], 0, columns, next, work.length[row]);
+            System.arraycopy(work.values[row], 0, reduced, next, work.length[row]);
+            next += work.length[row];
+            start[k + 1] = next;
+        }
+        for (int k = rank; k < numRows; ++k)
+        {
+            start[k + 1] = next;
+        }
+        return new SparseMatrix(numRows, numColumns, start, columns, reduced);
+    }
+
+    /**
+     * @return the rank of the matrix - the number of rows left with an entry by rref
+     */
+    public int rank()
+    {
+        SparseMatrix reduced = rref();
+        int rank = 0;
+        while (rank < numRows && reduced.rowStart[rank + 1] > reduced.rowStart[rank])
+        {
+            ++rank;
+        }
+        return rank;
+    }
+
+    /**
+     * Solves Ax = b by sparse Gaussian elimination. At each step the remaining column
+     * with the fewest entries is eliminated, using its sparsest acceptable row as the
+     * pivot, which keeps the fill-in down
+     *
+     * @param b the right-hand side
+     * @return x
+     * @throws MatrixException if the matrix is not square, b is the wrong length, or
+     * the matrix is singular
+     */
+    public double[] solve(double[] b) throws MatrixException
+    {
+        if (numRows != numColumns)
+            throw new MatrixException("The matrix is not square, so there is no unique solution!");
+        if (b.length != numRows)
+            throw new MatrixException("Cannot solve, the right-hand side does not have " + numRows + " entries");
+        int n = numRows;
+        WorkingRows work = new WorkingRows(this, true);
+        double[] rhs = b.clone();
+        int[] candidates = new int[n];
+        boolean[] rowDone = new boolean[n];
+        int[] pivotRows = new int[n];
+        int[] pivotColumns = new int[n];
+        for (int step = 0; step < n; ++step)
+        {
+            int column = work.sparsestColumn();
+            int count = work.rowsWithEntry(column, candidates);
+            int pivot = work.choosePivot(column, candidates, count, rowDone);
+            if (pivot == -1)
+                throw new MatrixException("The matrix is singular, so there is no unique solution!");
+            double pivotValue = work.value(pivot, column);
+            for (int k = 0; k < count; ++k)
+            {
+                int row = candidates[k];
+                if (row == pivot || rowDone[row])
+                    continue;
+                double factor = work.value(row, column) / pivotValue;
+                work.subtract(row, pivot, factor, column);
+                rhs[row] -= factor * rhs[pivot];
+            }
+            rowDone[pivot] = true;
+            work.retire(pivot, column);
+            pivotRows[step] = pivot;
+            pivotColumns[step] = column;
+        }
+        // back substitution: each pivot row only has entries in columns pivoted after it
+        double[] x = new double[n];
+        for (int step = n - 1; step >= 0; --step)
+        {
+            int row = pivotRows[step];
+            int column = pivotColumns[step];
+            double sum = rhs[row];
+            double diagonal = 0.0;
+            for (int k = 0; k < work.length[row]; ++k)
+            {
+                int j = work.columns[row][k];
+                if (j == column)
+                    diagonal = work.values[row][k];
+                else
+                    sum -= work.values[row][k] * x[j];
+            }
+            x[column] = sum / diagonal;
+        }
+        return x;
+    }
+
+    /**
+     * Solves AX = B, one column of B at a time
+     *
+     * @param b the right-hand sides, as the columns of a matrix with as many rows as this one
+     * @return X, with the same shape as B
+     * @throws MatrixException if the matrix is not square, B has the wrong number of
+     * rows, or the matrix is singular
+     */
+    public DenseDoubleMatrix solve(DenseDoubleMatrix b) throws MatrixException
+    {
+        if (b.getRows() != numRows)
+            throw new MatrixException("Cannot solve, the right-hand side does not have " + numRows + " rows");
+        DenseDoubleMatrix x = new DenseDoubleMatrix(numColumns, b.getColumns());
+        double[] column = new double[numRows];
+        for (int j = 0; j < b.getColumns(); ++j)
+        {
+            for (int i = 0; i < numRows; ++i)
+            {
+                column[i] = b.get(i, j);
+            }
+            double[] solution = solve(column);
+            for (int i = 0; i < numColumns; ++i)
+            {
+                x.set(i, j, solution[i]);
+            }
+        }
+        return x;
+    }
+
+    /**
+     * The rows of a matrix part way through elimination. Each row is its own sorted
+     * sparse vector, so fill-in only costs the row it lands in, and each column keeps
+     * a list of the rows with an entry in it so a pivot only visits those rows.
+     */
+    private static class WorkingRows
+    {
+        final int numRows;
+        final int numColumns;
+        /** the columns of each row's entries, increasing */
+        int[][] columns;
+        /** the values of each row's entries */
+        double[][] values;
+        /** how many entries each row has */
+        final int[] length;
+        /** the rows with an entry in each column - may still list rows whose entry has since gone */
+        final int[][] columnRows;
+        /** how much of each columnRows list is in use */
+        final int[] columnRowCount;
+        /** for each column, the largest entry that counts as zero, as in DenseDoubleMatrix */
+        final double[] tolerance;
+        /** used to skip rows listed twice in one column */
+        final int[] seen;
+        int stamp;
+        /** scratch space for subtract, swapped with the row it replaces */
+        int[] mergeColumns = new int[16];
+        double[] mergeValues = new double[16];
+
+        /** whether the remaining columns are kept in buckets by how many entries they have */
+        final boolean countColumns;
+        /** the number of entries in each remaining column, counting only rows that have not pivoted */
+        final int[] columnCount;
+        /** bucket lists of the remaining columns by columnCount - doubly linked, -1 terminated */
+        final int[] bucketHead;
+        final int[] nextInBucket;
+        final int[] previousInBucket;
+
+        WorkingRows(SparseMatrix matrix, boolean countColumns)
+        {
+            numRows = matrix.numRows;
+            numColumns = matrix.numColumns;
+            columns = new int[numRows][];
+            values = new double[numRows][];
+            length = new int[numRows];
+            columnRowCount = new int[numColumns];
+            tolerance = new double[numColumns];
+            for (int i = 0; i < numRows; ++i)
+            {
+                int from = matrix.rowStart[i];
+                int to = matrix.rowStart[i + 1];
+                columns[i] = Arrays.copyOfRange(matrix.columnIndex, from, to);
+                values[i] = Arrays.copyOfRange(matrix.values, from, to);
+                length[i] = to - from;
+                for (int k = from; k < to; ++k)
+                {
+                    ++columnRowCount[matrix.columnIndex[k]];
+                    tolerance[matrix.columnIndex[k]] = Math.max(tolerance[matrix.columnIndex[k]], Math.abs(matrix.values[k]));
+                }
+            }
+            for (int j = 0; j < numColumns; ++j)
+            {
+                tolerance[j] *= EPSILON;
+            }
+            columnRows = new int[numColumns][];
+            for (int j = 0; j < numColumns; ++j)
+            {
+                columnRows[j] = new int[Math.max(4, columnRowCount[j])];
+                columnRowCount[j] = 0;
+            }
+            for (int i = 0; i < numRows; ++i)
+            {
+                for (int k = 0; k < length[i]; ++k)
+                {
+                    int j = columns[i][k];
+                    columnRows[j][columnRowCount[j]++] = i;
+                }
+            }
+            seen = new int[numRows];
+
+            this.countColumns = countColumns;
+            if (countColumns)
+            {
+                columnCount = columnRowCount.clone();
+                bucketHead = new int[numRows + 1];
+                Arrays.fill(bucketHead, -1);
+                nextInBucket = new int[numColumns];
+                previousInBucket = new int[numColumns];
+                for (int j = 0; j < numColumns; ++j)
+                {
+                    link(j);
+                }
+            }
+            else
+            {
+                columnCount = null;
+                bucketHead = null;
+                nextInBucket = null;
+                previousInBucket = null;
+            }
+        }
+
+        /** @return the value at row, column - zero if there is no entry */
+        double value(int row, int column)
+        {
+            int index = Arrays.binarySearch(columns[row], 0, length[row], column);
+            return index < 0 ? 0.0 : values[row][index];
+        }
+
+        /**
+         * Copies the rows that have an entry in column into out, tidying the column's
+         * list of rows as it goes
+         *
+         * @return how many rows there are
+         */
+        int rowsWithEntry(int column, int[] out)
+        {
+            int[] list = columnRows[column];
+            int kept = 0;
+            ++stamp;
+            for (int k = 0; k < columnRowCount[column]; ++k)
+            {
+                int row = list[k];
+                if (seen[row] == stamp
+                        || Arrays.binarySearch(columns[row], 0, length[row], column) < 0)
+                    continue;
+                seen[row] = stamp;
+                list[kept++] = row;
+            }
+            columnRowCount[column] = kept;
+            System.arraycopy(list, 0, out, 0, kept);
+            return kept;
+        }
+
+        /**
+         * Threshold pivoting with a Markowitz tie-break: of the candidate rows that are
+         * not excluded, those within PIVOT_THRESHOLD of the largest entry may pivot, and
+         * the one with the fewest entries (so the least fill-in) is chosen
+         *
+         * @return the pivot row, or -1 if the column is (numerically) zero
+         */
+        int choosePivot(int column, int[] candidates, int count, boolean[] excluded)
+        {
+            double largest = 0.0;
+            for (int k = 0; k < count; ++k)
+            {
+                if (!excluded[candidates[k]])
+                    largest = Math.max(largest, Math.abs(value(candidates[k], column)));
+            }
+            if (largest <= tolerance[column])
+                return -1;
+            int pivot = -1;
+            for (int k = 0; k < count; ++k)
+            {
+                int row = candidates[k];
+                if (excluded[row] || Math.abs(value(row, column)) < PIVOT_THRESHOLD * largest)
+                    continue;
+                if (pivot == -1 || length[row] < length[pivot])
+                    pivot = row;
+            }
+            return pivot;
+        }
+
+        /** scales row so that its entry in column is exactly one */
+        void scaleRow(int row, int column)
+        {
+            double factor = 1.0 / value(row, column);
+            for (int k = 0; k < length[row]; ++k)
+            {
+                values[row][k] = columns[row][k] == column ? 1.0 : values[row][k] * factor;
+            }
+        }
+
+        /**
+         * target -= factor * source, merging the two sorted rows. The entry in
+         * clearColumn is dropped (it is the one being eliminated), as is any entry
+         * that cancels down to less than EPSILON times its old size
+         */
+        void subtract(int target, int source, double factor, int clearColumn)
+        {
+            int[] targetColumns = columns[target];
+            double[] targetValues = values[target];
+            int[] sourceColumns = columns[source];
+            double[] sourceValues = values[source];
+            int targetLength = length[target];
+            int sourceLength = length[source];
+            if (mergeColumns.length < targetLength + sourceLength)
+            {
+                mergeColumns = new int[2 * (targetLength + sourceLength)];
+                mergeValues = new double[mergeColumns.length];
+            }
+            int a = 0;
+            int b = 0;
+            int m = 0;
+            while (a < targetLength || b < sourceLength)
+            {
+                int aColumn = a < targetLength ? targetColumns[a] : Integer.MAX_VALUE;
+                int bColumn = b < sourceLength ? sourceColumns[b] : Integer.MAX_VALUE;
+                int column = Math.min(aColumn, bColumn);
+                boolean existed = aColumn == column;
+                double before = existed ? targetValues[a++] : 0.0;
+                double value = before;
+                if (bColumn == column)
+                    value -= factor * sourceValues[b++];
+                // only a cancellation (relative to what was there) is dropped, so no real entry is lost
+                if (column == clearColumn || value == 0.0 || Math.abs(value) < EPSILON * Math.abs(before))
+                {
+                    if (existed)
+                        removed(target, column);
+                    continue;
+                }
+                if (!existed)
+                    added(target, column);
+                mergeColumns[m] = column;
+                mergeValues[m++] = value;
+            }
+            // the merged row replaces the target, and the target's arrays become the scratch space
+            columns[target] = mergeColumns;
+            values[target] = mergeValues;
+            length[target] = m;
+            mergeColumns = targetColumns;
+            mergeValues = targetValues;
+        }
+
+        /** a new entry (fill-in) has appeared at row, column */
+        private void added(int row, int column)
+        {
+            if (columnRowCount[column] == columnRows[column].length)
+                columnRows[column] = Arrays.copyOf(columnRows[column], 2 * columnRowCount[column]);
+            columnRows[column][columnRowCount[column]++] = row;
+            if (countColumns && nextInBucket[column] != -2)
+            {
+                unlink(column);
+                ++columnCount[column];
+                link(column);
+            }
+        }
+
+        /** the entry at row, column has gone - its columnRows entry is tidied up later */
+        private void removed(int row, int column)
+        {
+            if (countColumns && nextInBucket[column] != -2)
+            {
+                unlink(column);
+                --columnCount[column];
+                link(column);
+            }
+        }
+
+        /**
+         * Takes a row that has pivoted, and its column, out of the counts
+         */
+        void retire(int row, int column)
+        {
+            unlink(column);
+            // -2 marks a column that is finished
+            nextInBucket[column] = -2;
+            for (int k = 0; k < length[row]; ++k)
+            {
+                int j = columns[row][k];
+                if (j != column)
+                    removed(row, j);
+            }
+        }
+
+        /** @return the remaining column with the fewest entries */
+        int sparsestColumn()
+        {
+            for (int count = 0; count <= numRows; ++count)
+            {
+                if (bucketHead[count] != -1)
+                    return bucketHead[count];
+            }
+            throw new IllegalStateException("no columns left");
+        }
+
+        private void link(int column)
+        {
+            int count = columnCount[column];
+            previousInBucket[column] = -1;
+            nextInBucket[column] = bucketHead[count];
+            if (bucketHead[count] != -1)
+                previousInBucket[bucketHead[count]] = column;
+            bucketHead[count] = column;
+        }
+
+        private void unlink(int column)
+        {
+            if (previousInBucket[column] != -1)
+                nextInBucket[previousInBucket[column]] = nextInBucket[column];
+            else
+                bucketHead[columnCount[column]] = nextInBucket[column];
+            if (nextInBucket[column] != -1)
+                previousInBucket[nextInBucket[column]] = previousInBucket[column];
+        }
+    }
+}
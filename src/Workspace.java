@@ -0,0 +1,407 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A file of named matrices that is opened by memory-mapping it, so that opening
+ * it costs the same however many matrices it holds, and a matrix is only read and
+ * parsed when it is asked for.
+ *
+ * The file is laid out as:
+ *   header   MAGIC (int), VERSION (int), count (int), index offset (long)
+ *   data     each matrix in MatrixCodec's binary form, one after another
+ *   names    each matrix's name, UTF-8, one after another
+ *   index    count slots of SLOT_SIZE bytes, sorted by name:
+ *            name offset (long), name length (int), data offset (long), data length (int)
+ * Since the slots are a fixed size and sorted, a name is found by binary search
+ * directly in the mapped file, without building anything on the heap.
+ */
+public class Workspace implements Closeable
+{
+    /** The first four bytes of every workspace file, "LAWS" */
+    public static final int MAGIC = 0x4C415753;
+    /** The version of the layout above */
+    public static final int VERSION = 2;
+    /** The size of the header, in bytes */
+    private static final int HEADER_SIZE = 20;
+    /** The size of an index slot, in bytes */
+    private static final int SLOT_SIZE = 24;
+
+    /** The open file, kept open for as long as the mapping is in use */
+    private final RandomAccessFile file;
+    /** The whole file, mapped read-only */
+    private final MappedByteBuffer buffer;
+    /** The number of matrices in the workspace */
+    private final int count;
+    /** Where the index starts */
+    private final int indexOffset;
+
+    private Workspace(RandomAccessFile file, MappedByteBuffer buffer) throws IOException
+    {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a workspace file");
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported workspace version " + version);
+        count = buffer.getInt(8);
+        long index = buffer.getLong(12);
+        if (count < 0 || index < HEADER_SIZE || index + (long) count * SLOT_SIZE > buffer.capacity())
+            throw new IOException("The workspace file is damaged");
+        indexOffset = (int) index;
+    }
+
+    /**
+     * Opens a workspace file. Only the header is read
+     *
+     * @param file the workspace file
+     * @return the open workspace
+     * @throws IOException if the file cannot be read, or is not a workspace file
+     */
+    public static Workspace open(File file) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Workspace files are limited to 2GB");
+            return new Workspace(randomAccessFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        catch (IOException e)
+        {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the file starts like a workspace file
+     */
+    public static boolean isWorkspace(File file)
+    {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"))
+        {
+            return randomAccessFile.length() >= HEADER_SIZE && randomAccessFile.readInt() == MAGIC;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a new workspace file. The matrices are streamed out as they are added;
+     * the names and index are written when the writer is closed.
+     *
+     * Everything goes to a temporary file next to the target, which is moved over
+     * the target on close. Until then the target is untouched, so matrices can be
+     * copied into it from an open Workspace of the same file - saving back to the
+     * file a workspace was loaded from - and a failed write leaves the old file as
+     * it was.
+     */
+    public static class Writer implements Closeable
+    {
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final MatrixCodec.Writer out;
+        private final List<String> names = new ArrayList<>();
+        /** the same names, to turn away a second matrix under one of them */
+        private final Set<String> taken = new HashSet<>();
+        private final List<long[]> extents = new ArrayList<>();
+        /** set when an add fails, so close throws the partial file away */
+        private boolean failed;
+
+        /**
+         * Starts a new file, which replaces the file on close
+         *
+         * @throws IOException if the file cannot be written
+         */
+        public Writer(File file) throws IOException
+        {
+            target = file.getAbsoluteFile().toPath();
+            // created like the target would be, so the saved file gets the usual permissions
+            temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try
+            {
+                // the header is filled in on close
+                channel.write(ByteBuffer.allocate(HEADER_SIZE));
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            out = new MatrixCodec.Writer(channel);
+        }
+
+        /**
+         * Adds a matrix
+         *
+         * @param name the name to store it under - names must be unique
+         * @throws IOException if the name is already taken, or the matrix cannot be written
+         */
+        public void add(String name, Matrix matrix) throws IOException
+        {
+            claim(name);
+            try
+            {
+                long start = HEADER_SIZE + out.position();
+                out.write(matrix);
+                record(name, start);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                failed = true;
+                throw e;
+            }
+        }
+
+        /**
+         * Adds a matrix from another workspace, copying its bytes across without
+         * decoding them
+         *
+         * @param name the name to store it under - names must be unique
+         * @param source the workspace it is in
+         * @param storedName the name it has there
+         * @throws IOException if the name is already taken, source has no matrix called
+         * storedName, or it cannot be written
+         */
+        public void add(String name, Workspace source, String storedName) throws IOException
+        {
+            claim(name);
+            ByteBuffer encoded = source.getEncoded(storedName);
+            if (encoded == null)
+            {
+                failed = true;
+                throw new IOException("The workspace has no matrix named " + storedName);
+            }
+            try
+            {
+                long start = HEADER_SIZE + out.position();
+                out.writeEncoded(encoded);
+                record(name, start);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                failed = true;
+                throw e;
+            }
+        }
+
+        /**
+         * Takes a name for a matrix about to be added. Two matrices under one name
+         * would leave the index with a name that binary search cannot tell apart
+         */
+        private void claim(String name) throws IOException
+        {
+            if (!taken.add(name))
+            {
+                failed = true;
+                throw new IOException("The workspace already has a matrix named " + name);
+            }
+        }
+
+        private void record(String name, long start)
+        {
+            names.add(name);
+            extents.add(new long[] { start, HEADER_SIZE + out.position() - start });
+        }
+
+        /**
+         * Writes the names, the index and the header, then closes the file and moves
+         * it over the target - unless an add failed, in which case the target is left
+         * alone
+         */
+        @Override
+        public void close() throws IOException
+        {
+            boolean written = false;
+            try
+            {
+                if (failed)
+                    return;
+                int size = names.size();
+                Integer[] order = new Integer[size];
+                byte[][] nameBytes = new byte[size][];
+                for (int i = 0; i < size; ++i)
+                {
+                    order[i] = i;
+                    nameBytes[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+                }
+                Arrays.sort(order, (a, b) -> names.get(a).compareTo(names.get(b)));
+                long namesOffset = HEADER_SIZE + out.position();
+                long[] nameOffsets = new long[size];
+                long nameOffset = namesOffset;
+                for (int i = 0; i < size; ++i)
+                {
+                    out.writeEncoded(ByteBuffer.wrap(nameBytes[i]));
+                    nameOffsets[i] = nameOffset;
+                    nameOffset += nameBytes[i].length;
+                }
+                long index = HEADER_SIZE + out.position();
+                ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+                for (Integer i : order)
+                {
+                    slot.clear();
+                    slot.putLong(nameOffsets[i]).putInt(nameBytes[i].length);
+                    slot.putLong(extents.get(i)[0]).putInt((int) extents.get(i)[1]);
+                    slot.flip();
+                    out.writeEncoded(slot);
+                }
+                out.flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(size).putLong(index);
+                header.flip();
+                channel.write(header, 0);
+                written = true;
+            }
+            finally
+            {
+                channel.close();
+                if (written)
+                    replaceTarget();
+                else
+                    Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void replaceTarget() throws IOException
+        {
+            try
+            {
+                try
+                {
+                    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (AtomicMoveNotSupportedException e)
+                {
+                    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            catch (IOException e)
+            {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        }
+    }
+
+    /** @return the number of matrices in the workspace */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @param i from 0 to size() - 1
+     * @return the name of the i'th matrix, in name order
+     */
+    public String getName(int i)
+    {
+        int slot = indexOffset + i * SLOT_SIZE;
+        return decode(buffer.getLong(slot), buffer.getInt(slot + 8));
+    }
+
+    /**
+     * @return true if the workspace has a matrix with that name
+     */
+    public boolean contains(String name)
+    {
+        return find(name) >= 0;
+    }
+
+    /**
+     * Reads a matrix
+     *
+     * @param name the name it is stored under
+     * @return the matrix, or null if there is no matrix with that name
+     * @throws IOException if the stored matrix is damaged
+     */
+    public Matrix load(String name) throws IOException
+    {
+        int i = find(name);
+        if (i < 0)
+            return null;
+        int slot = indexOffset + i * SLOT_SIZE;
+        long offset = buffer.getLong(slot + 12);
+        int length = buffer.getInt(slot + 20);
+        Matrix matrix = new MatrixCodec.Reader(buffer.slice((int) offset, length)).read();
+        matrix.setName(name);
+        return matrix;
+    }
+
+    /**
+     * @return a view of the stored bytes of a matrix, in MatrixCodec's form, or null
+     * if there is no such matrix
+     */
+    public ByteBuffer getEncoded(String name)
+    {
+        int i = find(name);
+        if (i < 0)
+            return null;
+        int slot = indexOffset + i * SLOT_SIZE;
+        return buffer.slice((int) buffer.getLong(slot + 12), buffer.getInt(slot + 20));
+    }
+
+    /**
+     * Binary search of the index
+     *
+     * @return the slot holding name, or -1
+     */
+    private int find(String name)
+    {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int comparison = getName(middle).compareTo(name);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private String decode(long offset, int length)
+    {
+        byte[] bytes = new byte[length];
+        // an absolute get never moves the buffer's position, so separate threads can read at once
+        buffer.get((int) offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the file. The mapping itself is released when the workspace is garbage
+     * collected
+     */
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}